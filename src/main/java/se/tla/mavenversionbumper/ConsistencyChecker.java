@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that all modules in a set refers to each other using the versions the modules actually have.
+ *
+ * Every parent, dependency, dependency management, plugin and plugin management reference to a module in the
+ * set is compared with the modules own version. Versions given as properties are resolved first. Any module
+ * that is referenced at another version than its own, or at more than one version, is reported.
+ */
+public class ConsistencyChecker {
+
+    private final List<Module> modules;
+    private final ReverseDependencyIndex index;
+
+    /**
+     * @param modules All modules to check.
+     */
+    public ConsistencyChecker(List<Module> modules) {
+        this.modules = modules;
+        this.index = new ReverseDependencyIndex(modules);
+    }
+
+    /**
+     * @return A description of every inconsistently referenced module, or an empty list if all references are
+     * consistent.
+     */
+    public List<String> check() {
+        List<String> result = new LinkedList<String>();
+
+        for (Module module : modules) {
+            String ownVersion = module.version();
+            Set<String> versions = new LinkedHashSet<String>();
+            List<String> lines = new LinkedList<String>();
+            boolean inconsistent = false;
+
+            for (Reference reference : index.referencesTo(module)) {
+                String declared = reference.version();
+                if (declared == null) {
+                    continue;
+                }
+
+                String via = "";
+                String version = declared;
+                String propertyName = reference.propertyName();
+                if (propertyName != null) {
+                    via = " (property " + propertyName + ")";
+                    version = index.resolveProperty(reference.module(), propertyName);
+                }
+
+                String mark = "  ";
+                if (version == null) {
+                    inconsistent = true;
+                    mark = "! ";
+                    version = "unresolved " + declared;
+                } else {
+                    versions.add(version);
+                    if (!version.equals(ownVersion)) {
+                        inconsistent = true;
+                        mark = "! ";
+                    }
+                }
+                lines.add("  " + mark + reference.module().ga() + " " + reference.section() + " " + version + via);
+            }
+
+            if (inconsistent || versions.size() > 1) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(module.gav()).append(" (").append(module.pomFile().getPath()).append(") is referenced at ").append(versions);
+                for (String line : lines) {
+                    sb.append("\n").append(line);
+                }
+                result.add(sb.toString());
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads pom.xml files from the file system, the working copy.
+ */
+public class FileSystemPomSource implements PomSource {
+
+    @Override
+    public boolean isDirectory(File dir) {
+        return dir.isDirectory();
+    }
+
+    @Override
+    public boolean isFile(File file) {
+        return file.isFile();
+    }
+
+    @Override
+    public List<String> directories(File dir) {
+        List<String> result = new ArrayList<String>();
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    result.add(child.getName());
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Override
+    public InputStream open(File file) throws IOException {
+        return new FileInputStream(file);
+    }
+}
@@ -40,12 +40,14 @@ import org.jdom.JDOMException;
 
 import se.tla.mavenversionbumper.vcs.AbstractVersionControl;
 import se.tla.mavenversionbumper.vcs.Clearcase;
+import se.tla.mavenversionbumper.vcs.CommandTelemetry;
 import se.tla.mavenversionbumper.vcs.Git;
+import se.tla.mavenversionbumper.vcs.GitRevisionPomSource;
 import se.tla.mavenversionbumper.vcs.NoopVersionControl;
+import se.tla.mavenversionbumper.vcs.Progress;
 import se.tla.mavenversionbumper.vcs.Subversion;
 import se.tla.mavenversionbumper.vcs.VersionControl;
 import bsh.EvalError;
-import bsh.Interpreter;
 
 /**
  * Command line interface for the version bumper.
@@ -54,12 +56,13 @@ public class Main {
 
     private static final ConsoleAppender loggappender = new ConsoleAppender(new PatternLayout("%c - %m%n"));
 
-    private static final List<Module> modulesLoadedForUpdate = new LinkedList<Module>();
-    private static final Interpreter interpreter = new Interpreter();
-
     private static String baseDirName;
     private static File scenarioFile;
     private static VersionControl versionControl = new NoopVersionControl();
+    /**
+     * The git command that reads the pom.xml files of a revision. git.path in the VC properties file, if one is given.
+     */
+    private static String gitPath = Git.commandPath(new Properties());
     private static final Map<String, Class<? extends VersionControl>> versionControllers;
 
     static {
@@ -70,12 +73,26 @@ public class Main {
     }
 
     enum Option {
-        VERBOSE("Verbose. Give a description of what changes is actually performed.", "v", "verbose"),
+        VERBOSE("Verbose. Give a description of what changes is actually performed, and of the commands run.", "v", "verbose"),
         DRYRUN("Dry run. Don't modify anything, only validate configuration. Implies verbose.", "d", "dry-run"),
         REVERT("Revert any uncommited changes.", "r", "revert"),
         PREPARETEST("Prepare module(s) for a test build.", "p", "prepare-test-build"),
         WARNOFSNAPSHOTS("Searches for any SNAPSHOT dependencies and warns about them. Works great with --dry-run.", "w", "warn-snapshots"),
         REVERSEENGINEER("Build a basic scenario file from a set of modules.", "reverse-engineer"),
+        BATCH("The scenario file lists several scenario files, one per line, that are all evaluated in the same run. " +
+                "Modules changed differently by two scenarios stops the run before anything is saved.", "b", "batch"),
+        CHECKCONSISTENCY("Check that all modules below the base directory refers to each other at the versions they " +
+                "actually have. Only the base directory is given.", "check-consistency"),
+        RELEASEDIFF("Compare the modules of two releases, each a directory or a git revision of the base directory. " +
+                "Arguments are <base directory> <from> <to> [<json file>].", "release-diff"),
+        REVISION("Read the pom.xml files from this git revision instead of the working copy. Only together with " +
+                "--reverse-engineer, --dry-run or --check-consistency.", "revision"),
+        RESUME("Resume a run that was interrupted, skipping the saves, commits and labels it completed. They are "
+                + "recorded in <scenarioFile>.journal, which is removed when a run completes.", "resume"),
+        PROFILE("Measure the time spent on each statement of the scenario files and print the most expensive ones.",
+                "profile"),
+        COMMANDSUMMARY("Summarize the version control commands run, per version control and verb.",
+                "command-summary"),
         HELP("Show help.", "h", "?", "help");
 
         private final String helpText;
@@ -113,6 +130,13 @@ public class Main {
                 acceptsAll(Option.REVERT.getAliases(), Option.REVERT.getHelpText());
                 acceptsAll(Option.WARNOFSNAPSHOTS.getAliases(), Option.WARNOFSNAPSHOTS.getHelpText());
                 acceptsAll(Option.REVERSEENGINEER.getAliases(), Option.REVERSEENGINEER.getHelpText());
+                acceptsAll(Option.BATCH.getAliases(), Option.BATCH.getHelpText());
+                acceptsAll(Option.PROFILE.getAliases(), Option.PROFILE.getHelpText());
+                acceptsAll(Option.COMMANDSUMMARY.getAliases(), Option.COMMANDSUMMARY.getHelpText());
+                acceptsAll(Option.RESUME.getAliases(), Option.RESUME.getHelpText());
+                acceptsAll(Option.CHECKCONSISTENCY.getAliases(), Option.CHECKCONSISTENCY.getHelpText());
+                acceptsAll(Option.RELEASEDIFF.getAliases(), Option.RELEASEDIFF.getHelpText());
+                acceptsAll(Option.REVISION.getAliases(), Option.REVISION.getHelpText()).withRequiredArg();
                 acceptsAll(Option.HELP.getAliases(), Option.HELP.getHelpText());
             }
         };
@@ -135,7 +159,10 @@ public class Main {
             System.exit(0);
         }
 
-        if (Option.VERBOSE.presentIn(options) || Option.DRYRUN.presentIn(options)) {
+        if (Option.VERBOSE.presentIn(options)) {
+            // Also the version control commands.
+            loggappender.setThreshold(Level.DEBUG);
+        } else if (Option.DRYRUN.presentIn(options)) {
             loggappender.setThreshold(Level.INFO);
         } else {
             loggappender.setThreshold(Level.FATAL);
@@ -145,15 +172,66 @@ public class Main {
         if (countTrues(Option.DRYRUN.presentIn(options),
                 Option.PREPARETEST.presentIn(options),
                 Option.REVERT.presentIn(options),
-                Option.REVERSEENGINEER.presentIn(options)) > 1) {
-            System.err.println("Only one of --dry-run/-d, --prepare-test-build/-p, --revert/-r and --reverse-engineer");
+                Option.REVERSEENGINEER.presentIn(options),
+                Option.CHECKCONSISTENCY.presentIn(options),
+                Option.RELEASEDIFF.presentIn(options)) > 1) {
+            System.err.println("Only one of --dry-run/-d, --prepare-test-build/-p, --revert/-r, --reverse-engineer, --check-consistency and --release-diff");
+            System.exit(1);
+        }
+
+        if (Option.BATCH.presentIn(options) && Option.REVERSEENGINEER.presentIn(options)) {
+            System.err.println("--batch/-b can't be combined with --reverse-engineer");
+            System.exit(1);
+        }
+
+        if (Option.REVISION.presentIn(options) && countTrues(Option.DRYRUN.presentIn(options),
+                Option.REVERSEENGINEER.presentIn(options), Option.CHECKCONSISTENCY.presentIn(options)) == 0) {
+            System.err.println("--revision can only be used with --dry-run/-d, --reverse-engineer or --check-consistency");
             System.exit(1);
         }
 
         List<String> arguments = options.nonOptionArguments();
 
+        if (Option.CHECKCONSISTENCY.presentIn(options)) {
+            if (arguments.size() != 1) {
+                System.err.println("Usage: --check-consistency <base directory>");
+                System.exit(1);
+            }
+            try {
+                List<Module> modules = ModuleLoader.loadAll(arguments.get(0), "**", pomCache(options, arguments.get(0)));
+                List<String> inconsistencies = new ConsistencyChecker(modules).check();
+                for (String inconsistency : inconsistencies) {
+                    System.out.println(inconsistency);
+                }
+                System.out.println(modules.size() + " modules checked, " + inconsistencies.size() + " inconsistently referenced.");
+                System.exit(inconsistencies.isEmpty() ? 0 : 2);
+            } catch (Exception e) {
+                System.err.println("Error checking consistency: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (Option.RELEASEDIFF.presentIn(options)) {
+            if (arguments.size() < 3 || arguments.size() > 4) {
+                System.err.println("Usage: --release-diff <base directory> <from> <to> [<json file>]");
+                System.exit(1);
+            }
+            try {
+                ReleaseDiff diff = new ReleaseDiff(arguments.get(1), releaseSummary(arguments.get(0), arguments.get(1)),
+                        arguments.get(2), releaseSummary(arguments.get(0), arguments.get(2)));
+                System.out.print(diff.report());
+                if (arguments.size() == 4) {
+                    FileUtils.write(new File(arguments.get(3)), diff.json(), "UTF-8");
+                }
+                System.exit(0);
+            } catch (Exception e) {
+                System.err.println("Error comparing releases: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
         if (arguments.size() < 2 || arguments.size() > 3) {
-            System.err.println("Usage: [-v | --verbose] [-d | --dry-run] [-p | --prepare-test-build] [-r | --revert] [--reverse-engineer] [-w | --warn-snapshot] [-h | --help] <base directory> <scenarioFile> [<VC properties file>]");
+            System.err.println("Usage: [-v | --verbose] [-d | --dry-run] [-p | --prepare-test-build] [-r | --revert] [--reverse-engineer] [-w | --warn-snapshot] [-b | --batch] [--resume] [--profile] [--command-summary] [--check-consistency] [--revision <revision>] [--release-diff] [-h | --help] <base directory> [<scenarioFile> [<VC properties file>]]");
             System.exit(1);
         }
 
@@ -175,6 +253,7 @@ public class Main {
                 }
 
                 versionControl = versionControlClass.getConstructor(Properties.class).newInstance(versionControlProperties);
+                gitPath = Git.commandPath(versionControlProperties);
             } catch (Exception e) {
                 System.err.println("Error starting up the version control");
                 e.printStackTrace();
@@ -196,7 +275,8 @@ public class Main {
             }
 
             try {
-                List<ReverseEngineeringModule> modules = findModulesForReverseEngineering(baseDir, "");
+                List<ReverseEngineeringModule> modules = findModulesForReverseEngineering(baseDir, "",
+                        pomCache(options, baseDirName));
 
                 reverseEngineerModules(modules, scenarioFile);
             } catch (JDOMException e) {
@@ -228,19 +308,45 @@ public class Main {
             type = TYPE.PREPARETEST;
         }
 
+        File journalFile = new File(scenarioFile.getPath() + ".journal");
+        if (Option.RESUME.presentIn(options) && !(type.equals(TYPE.NORMAL) || type.equals(TYPE.PREPARETEST))) {
+            System.err.println("--resume can't be combined with --dry-run/-d or --revert/-r");
+            System.exit(1);
+        }
+        if (journalFile.exists() && !Option.RESUME.presentIn(options)
+                && (type.equals(TYPE.NORMAL) || type.equals(TYPE.PREPARETEST))) {
+            System.err.println("An earlier run was interrupted, as recorded in " + journalFile + ". Continue it with "
+                    + "--resume, or undo it with --revert/-r.");
+            System.exit(1);
+        }
+
         try {
-            String scenario = FileUtils.readFileToString(scenarioFile);
-            interpreter.eval("importCommands(\"se.tla.mavenversionbumper.commands\")");
-            interpreter.eval("import se.tla.mavenversionbumper.Main");
-            interpreter.eval("import se.tla.mavenversionbumper.Module");
-            interpreter.eval("import se.tla.mavenversionbumper.ReadonlyModule");
-            interpreter.eval("baseDir = \"" + baseDirName + "\"");
-            interpreter.eval("source(String fileName) { return Main.source(fileName); }");
-            interpreter.eval("load(String moduleName) { return Main.load(moduleName, null, null); }");
-            interpreter.eval("load(String moduleName, String newVersion) { return Main.load(moduleName, newVersion, null); }");
-            interpreter.eval("load(String moduleName, String newVersion, String label) { return Main.load(moduleName, newVersion, label); }");
-            interpreter.eval("loadReadOnly(String groupId, String artifactId, String version) { return new ReadonlyModule(groupId, artifactId, version); }");
-            interpreter.source(scenarioFile.getAbsolutePath());
+            List<File> scenarioFiles;
+            if (Option.BATCH.presentIn(options)) {
+                scenarioFiles = ScenarioBatch.scenarioFiles(scenarioFile);
+            } else {
+                scenarioFiles = Arrays.asList(scenarioFile);
+            }
+            ScenarioBatch batch = new ScenarioBatch(baseDirName, scenarioFiles, pomCache(options, baseDirName));
+            ScenarioProfiler profiler = null;
+            if (Option.PROFILE.presentIn(options)) {
+                profiler = new ScenarioProfiler();
+                batch.profiler(profiler);
+            }
+            batch.evaluate();
+            if (profiler != null) {
+                System.out.println(profiler.report());
+            }
+
+            List<String> conflicts = batch.conflicts();
+            if (!conflicts.isEmpty()) {
+                System.err.println("Scenarios are in conflict, nothing has been saved:");
+                for (String conflict : conflicts) {
+                    System.err.println("  " + conflict);
+                }
+                System.exit(1);
+            }
+            List<Module> modulesLoadedForUpdate = batch.modules();
 
             if (Option.WARNOFSNAPSHOTS.presentIn(options)) {
                 for (Module module : modulesLoadedForUpdate) {
@@ -254,37 +360,168 @@ public class Main {
                 }
             }
 
+            RunJournal journal = null;
             if (type.equals(TYPE.NORMAL) || type.equals(TYPE.PREPARETEST)) {
-                String beforeOutput = versionControl.before(modulesLoadedForUpdate);
+                journal = new RunJournal(journalFile);
+                // Modules saved by an interrupted run are already prepared, and modified.
+                List<Module> modulesToSave = journal.notDone(RunJournal.Step.SAVE, modulesLoadedForUpdate);
+                if (modulesToSave.size() < modulesLoadedForUpdate.size()) {
+                    System.out.println("Resuming, " + (modulesLoadedForUpdate.size() - modulesToSave.size())
+                            + " of " + modulesLoadedForUpdate.size() + " modules were saved by the interrupted run.");
+                    for (Module module : modulesLoadedForUpdate) {
+                        if (!modulesToSave.contains(module)) {
+                            journal.restoreSaved(module);
+                        }
+                    }
+                }
+
+                // Modules prepared by an interrupted run, like pom.xml files it checked out, aren't prepared again.
+                for (Module module : modulesToSave) {
+                    if (journal.isDone(RunJournal.Step.PREPARE, module)) {
+                        versionControl.preparedEarlier(module);
+                    }
+                }
+
+                // Refuse before anything is modified, rather than halfway through the commits.
+                try {
+                    versionControl.preflight(modulesToSave);
+                } catch (IllegalStateException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                }
+
+                String beforeOutput = versionControl.before(modulesToSave);
+                for (Module module : journal.notDone(RunJournal.Step.PREPARE, modulesToSave)) {
+                    journal.done(RunJournal.Step.PREPARE, module, null);
+                }
+                journal.sync();
                 if (beforeOutput != null) {
                     System.out.println(beforeOutput);
                 }
 
                 // Save
-                for (Module module : modulesLoadedForUpdate) {
-                    module.save();
+                try {
+                    for (Module module : modulesToSave) {
+                        module.save();
+                        journal.saved(module);
+                    }
+                } finally {
+                    journal.sync();
                 }
             }
 
             if (type.equals(TYPE.NORMAL)) {
-                versionControl.commit(modulesLoadedForUpdate);
-                versionControl.label(modulesLoadedForUpdate);
+                final RunJournal runJournal = journal;
+                for (Module module : modulesLoadedForUpdate) {
+                    String revision = journal.detail(RunJournal.Step.COMMIT, module);
+                    if (revision != null) {
+                        versionControl.committedEarlier(module, revision);
+                    }
+                }
+                List<Module> modulesToCommit = journal.notDone(RunJournal.Step.COMMIT, modulesLoadedForUpdate);
+                if (!modulesToCommit.isEmpty()) {
+                    // Each commit is recorded as soon as it is made, so that a resumed run doesn't make it again.
+                    versionControl.commit(modulesToCommit, new Progress() {
+                        @Override
+                        public void done(List<Module> modules) {
+                            try {
+                                for (Module module : modules) {
+                                    runJournal.done(RunJournal.Step.COMMIT, module, versionControl.committedRevision(module));
+                                }
+                                runJournal.sync();
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                    for (Module module : journal.notDone(RunJournal.Step.COMMIT, modulesToCommit)) {
+                        journal.done(RunJournal.Step.COMMIT, module, versionControl.committedRevision(module));
+                    }
+                    journal.sync();
+                }
+
+                List<Module> modulesToLabel = journal.notDone(RunJournal.Step.LABEL, modulesLoadedForUpdate);
+                if (!modulesToLabel.isEmpty()) {
+                    versionControl.label(modulesToLabel, new Progress() {
+                        @Override
+                        public void done(List<Module> modules) {
+                            try {
+                                for (Module module : modules) {
+                                    runJournal.done(RunJournal.Step.LABEL, module, null);
+                                }
+                                runJournal.sync();
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                    for (Module module : journal.notDone(RunJournal.Step.LABEL, modulesToLabel)) {
+                        journal.done(RunJournal.Step.LABEL, module, null);
+                    }
+                    journal.sync();
+                }
+
                 String afterOutput = versionControl.after(modulesLoadedForUpdate);
                 if (afterOutput != null) {
                     System.out.println(afterOutput);
                 }
             }
 
+            if (journal != null) {
+                journal.delete();
+            }
+
             if (type.equals(TYPE.REVERT)) {
                 versionControl.restore(modulesLoadedForUpdate);
+                // Nothing is left to resume.
+                FileUtils.deleteQuietly(journalFile);
+            }
+
+            if (Option.COMMANDSUMMARY.presentIn(options)) {
+                String commandSummary = CommandTelemetry.summary();
+                if (commandSummary != null) {
+                    System.out.println(commandSummary);
+                }
             }
         } catch (EvalError e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            versionControl.close();
         }
     }
 
+    /**
+     * Create a Module, in the scenario that is being evaluated, located by this filename that is a directory
+     * relative to the baseDir.
+     *
+     * @param moduleDirectoryName Name of base directory for the module.
+     * @param newVersion          New version to set directly, of null if no version should be set.
+     * @param label               New label to set directly, or null if no labeling should be performed.
+     * @return Newly created Module.
+     * @throws JDOMException If the modules pom.xml couldn't be parsed.
+     * @throws IOException   if the modules pom.xml couldn't be read.
+     * @deprecated Use load() in the scenario file, or {@link Scenario#load(String, String, String)}.
+     */
+    @Deprecated
+    public static Module load(String moduleDirectoryName, String newVersion, String label) throws JDOMException, IOException {
+        return Scenario.current().load(moduleDirectoryName, newVersion, label);
+    }
+
+    /**
+     * Include an additional scenario file in the scenario that is being evaluated.
+     *
+     * @param newScenarioFileName Scenario file to include.
+     * @throws IOException If the new scenario file could't be read.
+     * @throws EvalError   If the new scenario file could't be parsed.
+     * @deprecated Use source() in the scenario file, or {@link Scenario#source(String)}.
+     */
+    @Deprecated
+    public static void source(String newScenarioFileName) throws IOException, EvalError {
+        Scenario.current().source(newScenarioFileName);
+    }
+
     private static int countTrues(boolean... bs) {
         int result = 0;
         for (boolean b : bs) {
@@ -295,16 +532,62 @@ public class Main {
         return result;
     }
 
+    /**
+     * @return Cache of the pom.xml files in the working copy, or in the revision given with --revision.
+     */
+    private static PomCache pomCache(OptionSet options, String baseDirName) throws IOException {
+        if (!Option.REVISION.presentIn(options)) {
+            return new PomCache();
+        }
+        final GitRevisionPomSource source = new GitRevisionPomSource(new File(baseDirName),
+                (String) options.valueOf(Option.REVISION.getAliases().get(0)), gitPath);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    // Exiting anyway.
+                }
+            }
+        });
+        return new PomCache(source);
+    }
+
+    /**
+     * Summarize a release that is either a directory, if one exists with that name, or a git revision of the base
+     * directory that is read without checking it out.
+     */
+    private static Map<String, ReleaseDiff.ModuleSummary> releaseSummary(String baseDirName, String release)
+            throws JDOMException, IOException {
+        File dir = new File(release);
+        if (dir.isDirectory()) {
+            return ReleaseDiff.summarize(ModuleLoader.loadAll(release, "**", new PomCache()), dir);
+        }
+
+        GitRevisionPomSource source = new GitRevisionPomSource(new File(baseDirName), release, gitPath);
+        try {
+            return ReleaseDiff.summarize(ModuleLoader.loadAll(baseDirName, "**", new PomCache(source)),
+                    new File(baseDirName));
+        } finally {
+            source.close();
+        }
+    }
+
     public static List<ReverseEngineeringModule> findModulesForReverseEngineering(File baseDir, String modulePath) throws JDOMException, IOException {
+        return findModulesForReverseEngineering(baseDir, modulePath, null);
+    }
+
+    public static List<ReverseEngineeringModule> findModulesForReverseEngineering(File baseDir, String modulePath, PomCache pomCache) throws JDOMException, IOException {
         List<ReverseEngineeringModule> result = new LinkedList<ReverseEngineeringModule>();
 
-        ReverseEngineeringModule m = new ReverseEngineeringModule(baseDir, modulePath);
+        ReverseEngineeringModule m = new ReverseEngineeringModule(baseDir, modulePath, pomCache);
         result.add(m);
 
         List<String> subModules = m.subModules();
         for (String subModule : subModules) {
             String subModulePath = (modulePath.isEmpty() ? subModule : modulePath + "/" + subModule);
-            result.addAll(findModulesForReverseEngineering(baseDir, subModulePath));
+            result.addAll(findModulesForReverseEngineering(baseDir, subModulePath, pomCache));
         }
 
         return result;
@@ -326,47 +609,4 @@ public class Main {
 
         FileUtils.write(scenarioFile, builder.toString(), "ISO-8859-1");
     }
-
-    /**
-     * Create a Module located by this filename that is a directory relative to the baseDir.
-     *
-     * @param moduleDirectoryName Name of base directory for the module.
-     * @param newVersion          New version to set directly, of null if no version should be set.
-     * @param label               New label to set directly, or null if no labeling should be performed.
-     * @return Newly created Module.
-     * @throws JDOMException If the modules pom.xml couldn't be parsed.
-     * @throws IOException   if the modules pom.xml couldn't be read.
-     */
-    public static Module load(String moduleDirectoryName, String newVersion, String label) throws JDOMException, IOException {
-        Module m = new Module(baseDirName, moduleDirectoryName);
-
-        if (newVersion != null) {
-            m.version(newVersion);
-        }
-        if (label != null) {
-            m.label(label);
-        }
-
-        modulesLoadedForUpdate.add(m);
-
-        return m;
-    }
-
-    /**
-     * Include an additional scenario file.
-     *
-     * @param newScenarioFileName Scenario file to include.
-     * @throws IOException If the new scenario file could't be read.
-     * @throws EvalError   If the new scenario file could't be parsed.
-     */
-    public static void source(String newScenarioFileName) throws IOException, EvalError {
-        File newScenarioFile = new File(newScenarioFileName);
-        if (newScenarioFile.isFile() || newScenarioFile.canRead()) {
-            interpreter.source(newScenarioFileName);
-        } else {
-            File scenarioParent = scenarioFile.getParentFile();
-            newScenarioFile = new File(scenarioParent, newScenarioFileName);
-            interpreter.source(newScenarioFile.getAbsolutePath());
-        }
-    }
 }
@@ -40,6 +40,7 @@ public class Module {
     private final Logger logger;
 
     private static final String SNAPSHOTPATTERN = "-SNAPSHOT";
+    private static final String DEFAULTPLUGINGROUPID = "org.apache.maven.plugins";
     private final Document document;
     private final File pomFile;
     protected final Element root;
@@ -59,17 +60,35 @@ public class Module {
      * @throws IOException Problem reading the pom.xml file.
      */
     public Module(String baseDirName, String moduleName) throws JDOMException, IOException {
+        this(baseDirName, moduleName, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param baseDirName Filename of the base directory of the Maven module.
+     * @param moduleName The symbolic name of the Maven module.
+     * @param pomCache Cache to get the parsed pom.xml from, or null if the file should be parsed directly.
+     * @throws JDOMException Problem reading the pom.xml file.
+     * @throws IOException Problem reading the pom.xml file.
+     */
+    public Module(String baseDirName, String moduleName, PomCache pomCache) throws JDOMException, IOException {
         if (moduleName == null) {
             moduleName = "";
         }
         this.moduleName = moduleName;
-        File dir = openDir(null, baseDirName);
+        PomSource source = pomCache != null ? pomCache.source() : null;
+        File dir = openDir(null, baseDirName, source);
         if (moduleName.length() > 0) {
-            dir = openDir(dir, moduleName);
+            dir = openDir(dir, moduleName, source);
         }
         pomFile = new File(dir, "pom.xml");
-        SAXBuilder builder = new SAXBuilder();
-        document = builder.build(pomFile);
+        if (pomCache != null) {
+            document = pomCache.document(pomFile);
+        } else {
+            SAXBuilder builder = new SAXBuilder();
+            document = builder.build(pomFile);
+        }
         root = document.getRootElement();
         nameSpace = root.getNamespace();
         Element version = root.getChild("version", nameSpace);
@@ -94,14 +113,14 @@ public class Module {
         logger = null;
     }
 
-    private File openDir(File base, String name) {
+    private File openDir(File base, String name, PomSource source) {
         File dir;
         if (base != null) {
              dir = new File(base, name);
         } else {
             dir = new File(name);
         }
-        if (!dir.isDirectory()) {
+        if (!(source != null ? source.isDirectory(dir) : dir.isDirectory())) {
             throw new IllegalArgumentException("No such directory: " + dir.getName());
         }
         return dir;
@@ -329,6 +348,71 @@ public class Module {
         }
     }
 
+    /**
+     * @param propertyName Name.
+     * @return Value of the named property in this pom.xml, or null if it isn't defined here.
+     */
+    public String property(String propertyName) {
+        Element properties = root.getChild("properties", nameSpace);
+        if (properties == null) {
+            return null;
+        }
+        return properties.getChildText(propertyName, nameSpace);
+    }
+
+    /**
+     * @return All references to other artifacts in this pom.xml. Parent, dependencies, dependency management,
+     * plugins and plugin management, in that order.
+     */
+    public List<Reference> references() {
+        List<Reference> result = new LinkedList<Reference>();
+
+        Element parent = root.getChild("parent", nameSpace);
+        if (parent != null) {
+            result.add(reference(Reference.Section.PARENT, parent, null));
+        }
+        for (Element dep : getChildElements("dependencies")) {
+            result.add(reference(Reference.Section.DEPENDENCY, dep, null));
+        }
+        for (Element dep : getChildElements("dependencyManagement", "dependencies")) {
+            result.add(reference(Reference.Section.DEPENDENCYMANAGEMENT, dep, null));
+        }
+        for (Element dep : getChildElements("build", "plugins")) {
+            result.add(reference(Reference.Section.PLUGIN, dep, DEFAULTPLUGINGROUPID));
+        }
+        for (Element dep : getChildElements("build", "pluginManagement", "plugins")) {
+            result.add(reference(Reference.Section.PLUGINMANAGEMENT, dep, DEFAULTPLUGINGROUPID));
+        }
+
+        return result;
+    }
+
+    private Reference reference(Reference.Section section, Element dep, String defaultGroupId) {
+        String groupId = extractText(dep, "groupId");
+        if (groupId == null) {
+            groupId = defaultGroupId;
+        }
+        return new Reference(this, section, groupId, extractText(dep, "artifactId"), dep.getChild("version", nameSpace));
+    }
+
+    /**
+     * Set the version of a reference held by this module. The reference must have a version of its own
+     * that isn't a property.
+     *
+     * @param reference Reference from references().
+     * @param newVersion New version.
+     */
+    void updateReference(Reference reference, String newVersion) {
+        if (reference.module() != this || reference.versionElement == null) {
+            throw new IllegalArgumentException("Reference " + reference + " can't be updated in " + ga());
+        }
+        String existingVersion = reference.version();
+        if (! existingVersion.equals(newVersion)) {
+            logger.info("update " + reference.section() + " version " + reference.ga() + ": " + existingVersion + " -> " + newVersion);
+            reference.versionElement.setText(newVersion);
+        }
+    }
+
     /**
      * Save this module back to its original pom.xml file.
      *
@@ -338,11 +422,25 @@ public class Module {
      * @throws IOException in case of IO-related problems.
      */
     public void save() throws IOException {
+        // TODO Make sure that the character encoding of the pom.xml is preserved.
+        FileUtils.write(pomFile, outputString(), "utf-8");
+    }
+
+    /**
+     * @return The pom.xml as it would be written by save().
+     */
+    String outputString() {
+        return outputString(document);
+    }
+
+    /**
+     * @return This pom.xml document as it would be written by save().
+     */
+    static String outputString(Document document) {
         XMLOutputter o = new XMLOutputter();
         // TODO Make sure that the line endings are preserved.
         o.getFormat().setLineSeparator("\n"); // Nicht funktioniren
-        // TODO Make sure that the character encoding of the pom.xml is preserved.
-        FileUtils.write(pomFile, o.outputString(document), "utf-8");
+        return o.outputString(document);
     }
 
     /**
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.jdom.JDOMException;
+
+/**
+ * Finds and loads all modules in a directory tree.
+ *
+ * Modules are selected by a pattern that is either a glob matched against the module path, relative to the base
+ * directory and with '/' as separator, or, if it contains a ':', a glob matched against groupId:artifactId.
+ * In a glob, '*' matches anything but a separator, '**' matches anything and '?' matches one character.
+ */
+public class ModuleLoader {
+
+    private static final String POMFILENAME = "pom.xml";
+
+    /**
+     * Find the paths, relative to this base directory, of all directories with a pom.xml. Directories named
+     * target or src, and hidden directories, are never searched since they don't contain modules.
+     *
+     * @param baseDir Directory to search.
+     * @return Module paths in sorted order. The base directory itself is the empty string.
+     */
+    public static List<String> findModulePaths(File baseDir) {
+        return findModulePaths(baseDir, new FileSystemPomSource());
+    }
+
+    /**
+     * Find the paths of all directories with a pom.xml in this source.
+     *
+     * @param baseDir Directory to search.
+     * @param source Source to search in.
+     * @return Module paths in sorted order. The base directory itself is the empty string.
+     */
+    public static List<String> findModulePaths(File baseDir, PomSource source) {
+        if (!source.isDirectory(baseDir)) {
+            throw new IllegalArgumentException("No such directory: " + baseDir.getName());
+        }
+        List<String> result = new LinkedList<String>();
+        findModulePaths(baseDir, "", source, result);
+        return result;
+    }
+
+    private static void findModulePaths(File dir, String path, PomSource source, List<String> result) {
+        if (source.isFile(new File(dir, POMFILENAME))) {
+            result.add(path);
+        }
+        for (String name : source.directories(dir)) {
+            if (!name.startsWith(".") && !name.equals("target") && !name.equals("src")) {
+                findModulePaths(new File(dir, name), path.length() == 0 ? name : path + "/" + name, source, result);
+            }
+        }
+    }
+
+    /**
+     * Load, in parallel, all modules below the base directory that matches the pattern.
+     *
+     * @param baseDirName Filename of the base directory.
+     * @param pattern Pattern that modules must match.
+     * @param pomCache Cache to get the parsed pom.xml files from, or null if they should be parsed directly.
+     * @return The matching modules, sorted on their path.
+     * @throws JDOMException If a pom.xml couldn't be parsed.
+     * @throws IOException If a pom.xml couldn't be read.
+     */
+    public static List<Module> loadAll(final String baseDirName, String pattern, final PomCache pomCache)
+            throws JDOMException, IOException {
+        boolean byCoordinates = pattern.indexOf(':') != -1;
+        Pattern regex = byCoordinates ? coordinatesRegex(pattern) : globToRegex(pattern, '/');
+
+        List<String> paths = new LinkedList<String>();
+        PomSource source = pomCache != null ? pomCache.source() : new FileSystemPomSource();
+        for (String path : findModulePaths(new File(baseDirName), source)) {
+            if (byCoordinates || regex.matcher(path).matches()) {
+                paths.add(path);
+            }
+        }
+
+        List<Module> result = new LinkedList<Module>();
+        for (Module module : load(baseDirName, paths, pomCache)) {
+            if (!byCoordinates || regex.matcher(module.ga()).matches()) {
+                result.add(module);
+            }
+        }
+        return result;
+    }
+
+    private static List<Module> load(final String baseDirName, List<String> paths, final PomCache pomCache)
+            throws JDOMException, IOException {
+        int threads = Math.max(1, Math.min(paths.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Module>> futures = new LinkedList<Future<Module>>();
+            for (final String path : paths) {
+                futures.add(pool.submit(new Callable<Module>() {
+                    @Override
+                    public Module call() throws Exception {
+                        return new Module(baseDirName, path, pomCache);
+                    }
+                }));
+            }
+
+            List<Module> result = new LinkedList<Module>();
+            for (Future<Module> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading modules");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JDOMException) {
+                throw (JDOMException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Pattern coordinatesRegex(String pattern) {
+        if (pattern.endsWith(":")) {
+            pattern += "*";
+        }
+        return globToRegex(pattern, ':');
+    }
+
+    static Pattern globToRegex(String glob, char separator) {
+        StringBuilder sb = new StringBuilder();
+        String notSeparator = "[^" + Pattern.quote(String.valueOf(separator)) + "]";
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    sb.append(".*");
+                    i++;
+                } else {
+                    sb.append(notSeparator).append('*');
+                }
+            } else if (c == '?') {
+                sb.append(notSeparator);
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+}
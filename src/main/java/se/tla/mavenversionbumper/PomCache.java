@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+/**
+ * Cache of parsed pom.xml files.
+ *
+ * Each file is parsed only once. The cached documents are never handed out, every caller gets its own
+ * copy that can be modified without affecting anyone else.
+ */
+public class PomCache {
+
+    private final ConcurrentMap<File, Document> documents = new ConcurrentHashMap<File, Document>();
+    private final PomSource source;
+
+    /**
+     * Cache of the pom.xml files in the file system.
+     */
+    public PomCache() {
+        this(new FileSystemPomSource());
+    }
+
+    /**
+     * @param source Where the pom.xml files are read from.
+     */
+    public PomCache(PomSource source) {
+        this.source = source;
+    }
+
+    /**
+     * @return Where the pom.xml files are read from.
+     */
+    public PomSource source() {
+        return source;
+    }
+
+    /**
+     * @param pomFile The pom.xml file to get a document for.
+     * @return A private copy of the parsed pom.xml file.
+     * @throws JDOMException If the file couldn't be parsed.
+     * @throws IOException If the file couldn't be read.
+     */
+    public Document document(File pomFile) throws JDOMException, IOException {
+        File key = pomFile.getAbsoluteFile();
+        Document document = documents.get(key);
+        if (document == null) {
+            SAXBuilder builder = new SAXBuilder();
+            Document parsed;
+            InputStream in = source.open(key);
+            try {
+                parsed = builder.build(in, key.toURI().toString());
+            } finally {
+                in.close();
+            }
+            document = documents.putIfAbsent(key, parsed);
+            if (document == null) {
+                document = parsed;
+            }
+        }
+        return (Document) document.clone();
+    }
+
+    /**
+     * @return Number of parsed files held by the cache.
+     */
+    public int size() {
+        return documents.size();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Where pom.xml files, and the directories they are in, are read from.
+ */
+public interface PomSource {
+
+    /**
+     * @param dir Directory to check.
+     * @return true if the directory exists in this source.
+     */
+    boolean isDirectory(File dir);
+
+    /**
+     * @param file File to check.
+     * @return true if the file exists in this source.
+     */
+    boolean isFile(File file);
+
+    /**
+     * @param dir Directory to list.
+     * @return Names of the directories in the directory, in sorted order.
+     */
+    List<String> directories(File dir);
+
+    /**
+     * @param file File to read.
+     * @return The content of the file.
+     * @throws IOException If the file couldn't be read.
+     */
+    InputStream open(File file) throws IOException;
+}
@@ -95,6 +95,16 @@ public class ReadonlyModule extends Module {
         throw new UnsupportedOperationException("Not supported in readonly modules");
     }
 
+    @Override
+    public String property(String propertyName) {
+        throw new UnsupportedOperationException("Not supported in readonly modules");
+    }
+
+    @Override
+    public List<Reference> references() {
+        throw new UnsupportedOperationException("Not supported in readonly modules");
+    }
+
     @Override
     public void save() throws IOException {
         throw new UnsupportedOperationException("Not supported in readonly modules");
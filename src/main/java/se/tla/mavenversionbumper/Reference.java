@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.jdom.Element;
+
+/**
+ * A reference from one module to another Maven artifact, as found in the referring modules pom.xml.
+ */
+public class Reference {
+
+    /**
+     * The parts of a pom.xml where an artifact can be referenced.
+     */
+    public enum Section {
+        PARENT("parent"),
+        DEPENDENCY("dependency"),
+        DEPENDENCYMANAGEMENT("dependency management"),
+        PLUGIN("plugin"),
+        PLUGINMANAGEMENT("plugin management");
+
+        private final String description;
+
+        Section(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private final Module module;
+    private final Section section;
+    private final String groupId;
+    private final String artifactId;
+    final Element versionElement;
+
+    Reference(Module module, Section section, String groupId, String artifactId, Element versionElement) {
+        this.module = module;
+        this.section = section;
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.versionElement = versionElement;
+    }
+
+    /**
+     * @return The module whose pom.xml holds this reference.
+     */
+    public Module module() {
+        return module;
+    }
+
+    public Section section() {
+        return section;
+    }
+
+    public String groupId() {
+        return groupId;
+    }
+
+    public String artifactId() {
+        return artifactId;
+    }
+
+    /**
+     * @return GA-coordinates of the referenced artifact. GroupId, ArtifactId.
+     */
+    public String ga() {
+        return groupId + ":" + artifactId;
+    }
+
+    /**
+     * @return The version as written in the pom.xml, or null if no version is given.
+     */
+    public String version() {
+        return versionElement == null ? null : versionElement.getText();
+    }
+
+    /**
+     * @return Name of the property holding the version, or null if the version isn't given as a property.
+     */
+    public String propertyName() {
+        String version = version();
+        if (version != null && version.startsWith("${") && version.endsWith("}")) {
+            return version.substring(2, version.length() - 1);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return module.ga() + " " + section + " " + ga() + ":" + version();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The differences between the modules of two releases.
+ *
+ * Each release is summarized into a map from groupId:artifactId to the modules version, parent and the versions
+ * of everything it references, with versions given as properties resolved. The two maps are then compared in
+ * one pass over each of them.
+ */
+public class ReleaseDiff {
+
+    private final String fromName;
+    private final String toName;
+    private final List<Change> changes = new ArrayList<Change>();
+    private int unchanged = 0;
+
+    /**
+     * @param fromName Name of the older release, like its label.
+     * @param from Summary of the older release.
+     * @param toName Name of the newer release.
+     * @param to Summary of the newer release.
+     */
+    public ReleaseDiff(String fromName, Map<String, ModuleSummary> from, String toName, Map<String, ModuleSummary> to) {
+        this.fromName = fromName;
+        this.toName = toName;
+
+        for (ModuleSummary newer : to.values()) {
+            ModuleSummary older = from.get(newer.ga);
+            if (older == null) {
+                changes.add(new Change("added", null, newer));
+                continue;
+            }
+            Change change = new Change("changed", older, newer);
+            for (Map.Entry<String, String> reference : newer.references.entrySet()) {
+                String olderVersion = older.references.get(reference.getKey());
+                if (!reference.getValue().equals(olderVersion)) {
+                    change.references.add(new String[] { reference.getKey(), olderVersion, reference.getValue() });
+                }
+            }
+            for (Map.Entry<String, String> reference : older.references.entrySet()) {
+                if (!newer.references.containsKey(reference.getKey())) {
+                    change.references.add(new String[] { reference.getKey(), reference.getValue(), null });
+                }
+            }
+            if (!change.references.isEmpty() || !equal(older.version, newer.version) || !equal(older.parent, newer.parent)) {
+                changes.add(change);
+            } else {
+                unchanged++;
+            }
+        }
+        for (ModuleSummary older : from.values()) {
+            if (!to.containsKey(older.ga)) {
+                changes.add(new Change("removed", older, null));
+            }
+        }
+    }
+
+    /**
+     * Summarize the modules of a release.
+     *
+     * @param modules All modules of the release.
+     * @param baseDir Directory the module paths are relative to.
+     * @return Summaries of the modules, by groupId:artifactId.
+     */
+    public static Map<String, ModuleSummary> summarize(List<Module> modules, File baseDir) {
+        ReverseDependencyIndex index = new ReverseDependencyIndex(modules);
+        String basePath = baseDir.getAbsolutePath();
+
+        Map<String, ModuleSummary> result = new LinkedHashMap<String, ModuleSummary>();
+        for (Module module : modules) {
+            String path = module.pomFile().getAbsoluteFile().getParent();
+            path = path.length() > basePath.length() ? path.substring(basePath.length() + 1).replace(File.separatorChar, '/') : "";
+
+            ModuleSummary summary = new ModuleSummary(module.ga(), module.version(), path);
+            for (Reference reference : module.references()) {
+                String version = reference.version();
+                if (version == null) {
+                    continue;
+                }
+                String propertyName = reference.propertyName();
+                if (propertyName != null) {
+                    String resolved = index.resolveProperty(module, propertyName);
+                    if (resolved != null) {
+                        version = resolved;
+                    }
+                }
+                if (reference.section() == Reference.Section.PARENT) {
+                    summary.parent = reference.ga() + ":" + version;
+                } else {
+                    summary.references.put(reference.section() + " " + reference.ga(), version);
+                }
+            }
+            result.put(module.ga(), summary);
+        }
+        return result;
+    }
+
+    /**
+     * @return Changed, added and removed modules.
+     */
+    public List<Change> changes() {
+        return changes;
+    }
+
+    /**
+     * @return A compact report of the changes, for humans.
+     */
+    public String report() {
+        int added = 0;
+        int removed = 0;
+        StringBuilder lines = new StringBuilder();
+        for (Change change : changes) {
+            if (change.kind.equals("added")) {
+                added++;
+                lines.append("+ ").append(change.ga).append(" ").append(change.to.version);
+                lines.append(" (").append(change.to.path).append(")\n");
+            } else if (change.kind.equals("removed")) {
+                removed++;
+                lines.append("- ").append(change.ga).append(" ").append(change.from.version);
+                lines.append(" (").append(change.from.path).append(")\n");
+            } else {
+                lines.append("~ ").append(change.ga).append(" ").append(change.from.version);
+                if (!equal(change.from.version, change.to.version)) {
+                    lines.append(" -> ").append(change.to.version);
+                }
+                lines.append(" (").append(change.to.path).append(")\n");
+                if (!equal(change.from.parent, change.to.parent)) {
+                    lines.append("    parent ").append(change.from.parent).append(" -> ").append(change.to.parent).append("\n");
+                }
+                for (String[] reference : change.references) {
+                    lines.append("    ").append(reference[0]).append(" ");
+                    lines.append(reference[1] == null ? "added" : reference[1]).append(" -> ");
+                    lines.append(reference[2] == null ? "removed" : reference[2]).append("\n");
+                }
+            }
+        }
+
+        return "Release diff " + fromName + " -> " + toName + ": " + (changes.size() - added - removed) + " changed, "
+                + added + " added, " + removed + " removed, " + unchanged + " unchanged\n" + lines;
+    }
+
+    /**
+     * @return The changes as a JSON document, for tools.
+     */
+    public String json() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"from\": ").append(quote(fromName));
+        sb.append(",\n  \"to\": ").append(quote(toName));
+        sb.append(",\n  \"unchanged\": ").append(unchanged);
+        sb.append(",\n  \"modules\": [");
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            ModuleSummary current = change.to != null ? change.to : change.from;
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"ga\": ").append(quote(change.ga));
+            sb.append(", \"change\": ").append(quote(change.kind));
+            sb.append(", \"path\": ").append(quote(current.path));
+            sb.append(", \"fromVersion\": ").append(quote(change.from == null ? null : change.from.version));
+            sb.append(", \"toVersion\": ").append(quote(change.to == null ? null : change.to.version));
+            sb.append(", \"fromParent\": ").append(quote(change.from == null ? null : change.from.parent));
+            sb.append(", \"toParent\": ").append(quote(change.to == null ? null : change.to.parent));
+            sb.append(", \"references\": [");
+            for (int j = 0; j < change.references.size(); j++) {
+                String[] reference = change.references.get(j);
+                int space = reference[0].lastIndexOf(' ');
+                sb.append(j == 0 ? "" : ", ");
+                sb.append("{\"section\": ").append(quote(reference[0].substring(0, space)));
+                sb.append(", \"ga\": ").append(quote(reference[0].substring(space + 1)));
+                sb.append(", \"from\": ").append(quote(reference[1]));
+                sb.append(", \"to\": ").append(quote(reference[2])).append("}");
+            }
+            sb.append("]}");
+        }
+        sb.append(changes.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * The coordinates of one module in one release.
+     */
+    public static class ModuleSummary {
+        final String ga;
+        final String version;
+        final String path;
+        String parent;
+        final Map<String, String> references = new LinkedHashMap<String, String>();
+
+        ModuleSummary(String ga, String version, String path) {
+            this.ga = ga;
+            this.version = version;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A module that differs between the releases.
+     */
+    public static class Change {
+        final String kind;
+        final String ga;
+        final ModuleSummary from;
+        final ModuleSummary to;
+        /** Section and groupId:artifactId, older version or null if added, newer version or null if removed. */
+        final List<String[]> references = new ArrayList<String[]>();
+
+        Change(String kind, ModuleSummary from, ModuleSummary to) {
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.ga = from != null ? from.ga : to.ga;
+        }
+
+        public String kind() {
+            return kind;
+        }
+
+        public String ga() {
+            return ga;
+        }
+    }
+}
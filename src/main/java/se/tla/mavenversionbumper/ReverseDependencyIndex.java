@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Index from each referenced artifact to all references to it among a set of modules.
+ *
+ * Built in one pass over the references of all modules, it makes it possible to find everything that
+ * refers to a module without looking at every pair of modules.
+ */
+public class ReverseDependencyIndex {
+
+    private static final Logger logger = Logger.getLogger(ReverseDependencyIndex.class);
+
+    private final Map<String, List<Reference>> referencesByGa = new HashMap<String, List<Reference>>();
+    private final Map<String, Module> modulesByGa = new HashMap<String, Module>();
+    private final Map<Module, String> parentGas = new HashMap<Module, String>();
+
+    /**
+     * @param modules Modules to index. Read only modules are ignored since they have no pom.xml.
+     */
+    public ReverseDependencyIndex(List<Module> modules) {
+        for (Module module : modules) {
+            if (module.isReadOnly()) {
+                continue;
+            }
+            modulesByGa.put(module.ga(), module);
+            for (Reference reference : module.references()) {
+                List<Reference> references = referencesByGa.get(reference.ga());
+                if (references == null) {
+                    references = new LinkedList<Reference>();
+                    referencesByGa.put(reference.ga(), references);
+                }
+                references.add(reference);
+                if (reference.section() == Reference.Section.PARENT) {
+                    parentGas.put(module, reference.ga());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param module Referenced module.
+     * @return All references to this module from the indexed modules.
+     */
+    public List<Reference> referencesTo(Module module) {
+        List<Reference> references = referencesByGa.get(module.ga());
+        if (references == null) {
+            return Collections.emptyList();
+        }
+        return references;
+    }
+
+    /**
+     * Update every reference to this module to the modules current version. References to the version
+     * through a property gets the property updated, in the referring module or in the closest indexed
+     * parent that defines it. References without a version of their own are left as they are.
+     *
+     * Only the references to this module are updated, one level.
+     *
+     * @param module Module whose version should be used everywhere.
+     * @return Number of references found.
+     * @throws IllegalArgumentException If a property holding the version can't be found.
+     */
+    public int propagate(Module module) {
+        return propagate(module, false);
+    }
+
+    /**
+     * Update every reference to this module to the modules current version, like {@link #propagate(Module)}.
+     *
+     * When transitive, the referring modules that have a new version are propagated too, and so on. A referring
+     * module has a new version if it inherits its version from this module, or if it has been bumped by the
+     * scenario. The other referring modules have kept their version, so there is nothing to propagate from them.
+     *
+     * @param module Module whose version should be used everywhere.
+     * @param transitive If true, also propagate the referring modules that have a new version, and so on.
+     * @return Number of references found.
+     * @throws IllegalArgumentException If a property holding the version can't be found.
+     */
+    public int propagate(Module module, boolean transitive) {
+        int result = 0;
+        Set<String> visited = new HashSet<String>();
+        LinkedList<Module> queue = new LinkedList<Module>();
+        visited.add(module.ga());
+        queue.add(module);
+
+        while (!queue.isEmpty()) {
+            Module current = queue.removeFirst();
+            String version = current.version();
+
+            for (Reference reference : referencesTo(current)) {
+                Module referrer = reference.module();
+                String referrerVersion = referrer.version();
+                result++;
+
+                if (reference.version() == null) {
+                    // Managed elsewhere, typically in a dependencyManagement that also is a reference.
+                } else if (reference.propertyName() == null) {
+                    referrer.updateReference(reference, version);
+                } else {
+                    updateProperty(referrer, reference.propertyName(), version);
+                }
+
+                boolean newVersion = !referrer.version().equals(referrerVersion) || isBumped(referrer);
+                if (transitive && newVersion && visited.add(referrer.ga())) {
+                    queue.add(referrer);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isBumped(Module module) {
+        return module.originalVersion != null && !module.originalVersion.equals(module.version());
+    }
+
+    private void updateProperty(Module referrer, String propertyName, String version) {
+        if (isImplicit(propertyName)) {
+            logger.info("In " + referrer.ga() + ", ${" + propertyName + "} is implicit and can't be updated.");
+            return;
+        }
+
+        Module owner = propertyOwner(referrer, propertyName);
+        if (owner == null) {
+            throw new IllegalArgumentException("No property " + propertyName + " defined in module " + referrer.ga() +
+                    " or in any of its loaded parents");
+        }
+        owner.updateProperty(propertyName, version);
+    }
+
+    /**
+     * Find the value of a property as seen from this module. The module itself and then its indexed parents are
+     * searched. The implicit properties project.version and project.parent.version are also resolved.
+     *
+     * @param module Module to start looking in.
+     * @param propertyName Name of property.
+     * @return The value, or null if the property can't be found.
+     */
+    public String resolveProperty(Module module, String propertyName) {
+        if ("project.version".equals(propertyName) || "pom.version".equals(propertyName)) {
+            return module.version();
+        }
+        if ("project.parent.version".equals(propertyName) || "parent.version".equals(propertyName)) {
+            return module.parentVersion();
+        }
+        Module owner = propertyOwner(module, propertyName);
+        return owner == null ? null : owner.property(propertyName);
+    }
+
+    private static boolean isImplicit(String propertyName) {
+        return propertyName.startsWith("project.") || propertyName.startsWith("pom.") || propertyName.startsWith("parent.");
+    }
+
+    private Module propertyOwner(Module module, String propertyName) {
+        Set<String> visited = new HashSet<String>();
+        Module candidate = module;
+        while (candidate != null && visited.add(candidate.ga())) {
+            if (candidate.property(propertyName) != null) {
+                return candidate;
+            }
+            candidate = parentOf(candidate);
+        }
+        return null;
+    }
+
+    private Module parentOf(Module module) {
+        String parentGa = parentGas.get(module);
+        return parentGa == null ? null : modulesByGa.get(parentGa);
+    }
+}
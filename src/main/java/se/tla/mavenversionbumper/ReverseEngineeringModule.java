@@ -37,6 +37,10 @@ public class ReverseEngineeringModule extends Module implements Comparable<Rever
         super(baseDir.getAbsolutePath(), modulePath);
     }
 
+    public ReverseEngineeringModule(File baseDir, String modulePath, PomCache pomCache) throws JDOMException, IOException {
+        super(baseDir.getAbsolutePath(), modulePath, pomCache);
+    }
+
     public List<String> subModules() {
         List<String> result = new ArrayList<String>();
         Element modulesElement = root.getChild("modules", nameSpace);
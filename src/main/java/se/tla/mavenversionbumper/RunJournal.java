@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Remembers which steps of a run that have been completed for each module, so an interrupted run can be resumed.
+ *
+ * The journal is a text file that is only appended to, one line per completed step: the step, the pom.xml of the
+ * module and optional details, separated by tabs. Tabs, line breaks and backslashes in the details are escaped with
+ * a backslash. Each line is written as soon as the step is completed, but only forced to disk by {@link #sync()},
+ * once per phase for the saves and once per commit or label for the others. A line that was cut short by a crash is
+ * ignored. Steps may be recorded from several threads.
+ */
+public class RunJournal implements Closeable {
+
+    public enum Step {
+        PREPARE, SAVE, COMMIT, LABEL
+    }
+
+    private final File file;
+    private final Map<String, String> done = new HashMap<String, String>();
+    private long completeLength = -1;
+    private FileOutputStream out;
+
+    /**
+     * Read the steps already recorded in the journal, if it exists. The file isn't created until a step is recorded.
+     * @param file Journal file.
+     * @throws IOException If the journal couldn't be read.
+     */
+    public RunJournal(File file) throws IOException {
+        this.file = file;
+
+        if (file.exists()) {
+            String content = FileUtils.readFileToString(file, "UTF-8");
+            int end = content.lastIndexOf('\n');
+            for (String line : content.substring(0, end + 1).split("\n")) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length < 2) {
+                    continue;
+                }
+                try {
+                    Step step = Step.valueOf(parts[0]);
+                    done.put(key(step, parts[1]), parts.length == 3 ? parts[2] : "");
+                } catch (IllegalArgumentException e) {
+                    // Not a step. Ignore it.
+                }
+            }
+            if (end != content.length() - 1) {
+                completeLength = content.substring(0, end + 1).getBytes("UTF-8").length;
+            }
+        }
+    }
+
+    /**
+     * @return true if this step has been completed for this module.
+     */
+    public synchronized boolean isDone(Step step, Module module) {
+        return done.containsKey(key(step, path(module)));
+    }
+
+    /**
+     * @return The detail recorded when this step was completed for this module, or null if there isn't any.
+     */
+    public synchronized String detail(Step step, Module module) {
+        List<String> details = details(step, module);
+        return details.isEmpty() || details.get(0).length() == 0 ? null : details.get(0);
+    }
+
+    /**
+     * Give this module the label and commit message it had when it was saved, if they were recorded. A module that
+     * is already saved can't work them out again, since its pom.xml already has the new version.
+     */
+    public synchronized void restoreSaved(Module module) {
+        List<String> details = details(Step.SAVE, module);
+        if (details.size() == 2) {
+            module.label(details.get(0).length() == 0 ? null : details.get(0));
+            module.commitMessage(details.get(1).length() == 0 ? null : details.get(1));
+        }
+    }
+
+    /**
+     * @return The modules that this step hasn't been completed for, in the same order.
+     */
+    public synchronized List<Module> notDone(Step step, List<Module> modules) {
+        List<Module> result = new ArrayList<Module>();
+        for (Module module : modules) {
+            if (!isDone(step, module)) {
+                result.add(module);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Record that this step has been completed for this module. The line is handed to the operating system right
+     * away, so it survives the process dying, but isn't forced to disk.
+     * @param detail Something to remember about the step, or null.
+     */
+    public synchronized void done(Step step, Module module, String detail) throws IOException {
+        record(step, module, detail == null ? "" : escape(detail));
+    }
+
+    /**
+     * Record that this module has been saved, together with its label and commit message, for
+     * {@link #restoreSaved(Module)}.
+     */
+    public synchronized void saved(Module module) throws IOException {
+        String label = module.label() == null ? "" : module.label();
+        String commitMessage = module.commitMessage() == null ? "" : module.commitMessage();
+        record(Step.SAVE, module, escape(label) + '\t' + escape(commitMessage));
+    }
+
+    private void record(Step step, Module module, String value) throws IOException {
+        String path = path(module);
+        StringBuilder line = new StringBuilder(step.name()).append('\t').append(path);
+        if (value.length() > 0) {
+            line.append('\t').append(value);
+        }
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+            if (completeLength >= 0) {
+                // Drop the line that was cut short, rather than completing it.
+                out.getChannel().truncate(completeLength);
+            }
+        }
+        out.write(line.append('\n').toString().getBytes("UTF-8"));
+        done.put(key(step, path), value);
+    }
+
+    /**
+     * Force all recorded steps to disk.
+     */
+    public synchronized void sync() throws IOException {
+        if (out != null) {
+            out.getFD().sync();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Close and remove the journal, when the run has been completed.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to remove the journal " + file);
+        }
+    }
+
+    /**
+     * @return The details recorded for this step, unescaped, or none.
+     */
+    private List<String> details(Step step, Module module) {
+        List<String> result = new ArrayList<String>();
+        String value = done.get(key(step, path(module)));
+        if (value != null && value.length() > 0) {
+            for (String detail : value.split("\t", -1)) {
+                result.add(unescape(detail));
+            }
+        }
+        return result;
+    }
+
+    private static String escape(String detail) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : detail.toCharArray()) {
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String detail) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < detail.length(); i++) {
+            char c = detail.charAt(i);
+            if (c == '\\' && i + 1 < detail.length()) {
+                i++;
+                c = detail.charAt(i);
+                switch (c) {
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    default: sb.append(c);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String key(Step step, String path) {
+        return step.name() + '\t' + path;
+    }
+
+    private static String path(Module module) {
+        try {
+            return module.pomFile().getCanonicalPath();
+        } catch (IOException e) {
+            return module.pomFile().getAbsolutePath();
+        }
+    }
+}
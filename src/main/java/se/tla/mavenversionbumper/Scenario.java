@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jdom.JDOMException;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+
+/**
+ * One scenario file together with its own BeanShell interpreter and the modules it has loaded.
+ *
+ * Several scenarios can share the same PomCache so that each pom.xml is only parsed once per run.
+ */
+public class Scenario {
+
+    /**
+     * Name of the variable in the interpreter that refers back to the Scenario itself.
+     */
+    private static final String SELF = "versionBumperScenario";
+
+    /**
+     * The scenario being evaluated by each thread, for the deprecated static helpers in Main.
+     */
+    private static final ThreadLocal<Scenario> CURRENT = new ThreadLocal<Scenario>();
+
+    private final Interpreter interpreter = new Interpreter();
+    private final List<Module> modulesLoadedForUpdate = new LinkedList<Module>();
+    private final String baseDirName;
+    private final File scenarioFile;
+    private final PomCache pomCache;
+    private ScenarioProfiler profiler;
+    private ReverseDependencyIndex reverseDependencyIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param baseDirName Filename of the base directory that modules are loaded relative to.
+     * @param scenarioFile The scenario file to evaluate.
+     * @param pomCache Cache of parsed pom.xml files, possibly shared with other scenarios.
+     */
+    public Scenario(String baseDirName, File scenarioFile, PomCache pomCache) {
+        this.baseDirName = baseDirName;
+        this.scenarioFile = scenarioFile;
+        this.pomCache = pomCache;
+    }
+
+    /**
+     * Set up the builtin functions and evaluate the scenario file.
+     *
+     * @throws EvalError If the scenario file couldn't be parsed.
+     * @throws IOException If the scenario file couldn't be read.
+     */
+    public void evaluate() throws EvalError, IOException {
+        interpreter.set(SELF, this);
+        interpreter.eval("importCommands(\"se.tla.mavenversionbumper.commands\")");
+        interpreter.eval("import se.tla.mavenversionbumper.Main");
+        interpreter.eval("import se.tla.mavenversionbumper.Module");
+        interpreter.eval("import se.tla.mavenversionbumper.ReadonlyModule");
+        interpreter.eval("baseDir = \"" + baseDirName + "\"");
+        interpreter.eval("source(String fileName) { return " + SELF + ".source(fileName); }");
+        interpreter.eval("load(String moduleName) { return " + SELF + ".load(moduleName, null, null); }");
+        interpreter.eval("load(String moduleName, String newVersion) { return " + SELF + ".load(moduleName, newVersion, null); }");
+        interpreter.eval("load(String moduleName, String newVersion, String label) { return " + SELF + ".load(moduleName, newVersion, label); }");
+        interpreter.eval("loadAll(String pattern) { return " + SELF + ".loadAll(pattern); }");
+        interpreter.eval("propagate(Module module) { return " + SELF + ".propagate(module, false); }");
+        interpreter.eval("propagate(Module module, boolean transitive) { return " + SELF + ".propagate(module, transitive); }");
+        interpreter.eval("loadReadOnly(String groupId, String artifactId, String version) { return new ReadonlyModule(groupId, artifactId, version); }");
+        Scenario previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            sourceFile(scenarioFile.getAbsoluteFile());
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return The scenario being evaluated by this thread.
+     * @throws IllegalStateException If no scenario is being evaluated.
+     */
+    static Scenario current() {
+        Scenario scenario = CURRENT.get();
+        if (scenario == null) {
+            throw new IllegalStateException("No scenario is being evaluated");
+        }
+        return scenario;
+    }
+
+    /**
+     * Measure the evaluation of this scenario with this profiler.
+     *
+     * @param profiler Profiler to use, or null for no profiling.
+     */
+    public void profiler(ScenarioProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Create a Module located by this filename that is a directory relative to the baseDir.
+     *
+     * @param moduleDirectoryName Name of base directory for the module.
+     * @param newVersion          New version to set directly, of null if no version should be set.
+     * @param label               New label to set directly, or null if no labeling should be performed.
+     * @return Newly created Module.
+     * @throws JDOMException If the modules pom.xml couldn't be parsed.
+     * @throws IOException   if the modules pom.xml couldn't be read.
+     */
+    public Module load(String moduleDirectoryName, String newVersion, String label) throws JDOMException, IOException {
+        Module m;
+        if (profiler != null) {
+            profiler.begin("parse " + new File(new File(baseDirName, moduleDirectoryName), "pom.xml").getPath());
+            try {
+                m = new Module(baseDirName, moduleDirectoryName, pomCache);
+            } finally {
+                profiler.end();
+            }
+        } else {
+            m = new Module(baseDirName, moduleDirectoryName, pomCache);
+        }
+
+        if (newVersion != null) {
+            m.version(newVersion);
+        }
+        if (label != null) {
+            m.label(label);
+        }
+
+        modulesLoadedForUpdate.add(m);
+        reverseDependencyIndex = null;
+
+        return m;
+    }
+
+    /**
+     * Load all modules below the baseDir that matches this pattern.
+     *
+     * @param pattern Glob matching either the module path or, if it contains a ':', groupId:artifactId.
+     * @return The loaded modules, sorted on their path.
+     * @throws JDOMException If a pom.xml couldn't be parsed.
+     * @throws IOException If a pom.xml couldn't be read.
+     * @see ModuleLoader
+     */
+    public List<Module> loadAll(String pattern) throws JDOMException, IOException {
+        List<Module> result;
+        if (profiler != null) {
+            profiler.begin("loadAll " + pattern);
+            try {
+                result = ModuleLoader.loadAll(baseDirName, pattern, pomCache);
+            } finally {
+                profiler.end();
+            }
+        } else {
+            result = ModuleLoader.loadAll(baseDirName, pattern, pomCache);
+        }
+
+        modulesLoadedForUpdate.addAll(result);
+        reverseDependencyIndex = null;
+
+        return result;
+    }
+
+    /**
+     * Update every reference to this module, among all modules loaded so far, to the modules version.
+     *
+     * @param module Module whose version should be used everywhere.
+     * @param transitive If true, also propagate the referring modules that have a new version, and so on.
+     * @return Number of references found.
+     * @see ReverseDependencyIndex#propagate(Module, boolean)
+     */
+    public int propagate(Module module, boolean transitive) {
+        if (reverseDependencyIndex == null) {
+            reverseDependencyIndex = new ReverseDependencyIndex(modulesLoadedForUpdate);
+        }
+        return reverseDependencyIndex.propagate(module, transitive);
+    }
+
+    /**
+     * Include an additional scenario file.
+     *
+     * @param newScenarioFileName Scenario file to include.
+     * @throws IOException If the new scenario file could't be read.
+     * @throws EvalError   If the new scenario file could't be parsed.
+     */
+    public void source(String newScenarioFileName) throws IOException, EvalError {
+        File newScenarioFile = new File(newScenarioFileName);
+        if (newScenarioFile.isFile() || newScenarioFile.canRead()) {
+            sourceFile(newScenarioFile);
+        } else {
+            File scenarioParent = scenarioFile.getAbsoluteFile().getParentFile();
+            newScenarioFile = new File(scenarioParent, newScenarioFileName);
+            sourceFile(newScenarioFile.getAbsoluteFile());
+        }
+    }
+
+    private void sourceFile(File file) throws IOException, EvalError {
+        if (profiler != null) {
+            profiler.evaluate(interpreter, file);
+        } else {
+            interpreter.source(file.getPath());
+        }
+    }
+
+    /**
+     * @return All modules loaded for update by this scenario, in load order.
+     */
+    public List<Module> modules() {
+        return modulesLoadedForUpdate;
+    }
+
+    /**
+     * @return The scenario file.
+     */
+    public File scenarioFile() {
+        return scenarioFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return scenarioFile.getPath();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom.JDOMException;
+
+import bsh.EvalError;
+
+/**
+ * A set of scenarios evaluated in the same run.
+ *
+ * All scenarios share one PomCache but have their own interpreters. When every scenario has been evaluated,
+ * their modules are merged into one list. The same pom.xml loaded by two scenarios is only kept once, as
+ * long as both scenarios have done exactly the same changes to it. Otherwise it's reported as a conflict. A
+ * module that a scenario only loaded, without changing it, never conflicts.
+ */
+public class ScenarioBatch {
+
+    private final List<Scenario> scenarios = new LinkedList<Scenario>();
+    private final PomCache pomCache;
+
+    /**
+     * Constructor.
+     *
+     * @param baseDirName Filename of the base directory that modules are loaded relative to.
+     * @param scenarioFiles The scenario files to evaluate, in order.
+     * @param pomCache Cache of parsed pom.xml files shared by all scenarios.
+     */
+    public ScenarioBatch(String baseDirName, List<File> scenarioFiles, PomCache pomCache) {
+        this.pomCache = pomCache;
+        for (File scenarioFile : scenarioFiles) {
+            scenarios.add(new Scenario(baseDirName, scenarioFile, pomCache));
+        }
+    }
+
+    /**
+     * Read a batch file. Each non empty line, that doesn't start with a '#', names a scenario file. Relative
+     * names are relative to the directory of the batch file.
+     *
+     * @param batchFile File to read.
+     * @return The scenario files, in order.
+     * @throws IOException If the batch file couldn't be read.
+     */
+    public static List<File> scenarioFiles(File batchFile) throws IOException {
+        List<File> result = new LinkedList<File>();
+        File batchDir = batchFile.getAbsoluteFile().getParentFile();
+
+        for (String line : FileUtils.readLines(batchFile, "ISO-8859-1")) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            File scenarioFile = new File(line);
+            if (!scenarioFile.isAbsolute()) {
+                scenarioFile = new File(batchDir, line);
+            }
+            result.add(scenarioFile);
+        }
+
+        return result;
+    }
+
+    /**
+     * Evaluate all scenarios, one at a time.
+     *
+     * @throws EvalError If a scenario file couldn't be parsed.
+     * @throws IOException If a scenario file couldn't be read.
+     */
+    public void evaluate() throws EvalError, IOException {
+        for (Scenario scenario : scenarios) {
+            scenario.evaluate();
+        }
+    }
+
+    /**
+     * Measure the evaluation of all scenarios with this profiler.
+     *
+     * @param profiler Profiler to use, or null for no profiling.
+     */
+    public void profiler(ScenarioProfiler profiler) {
+        for (Scenario scenario : scenarios) {
+            scenario.profiler(profiler);
+        }
+    }
+
+    /**
+     * @return The scenarios of this batch.
+     */
+    public List<Scenario> scenarios() {
+        return scenarios;
+    }
+
+    /**
+     * @return Descriptions of all modules that has been changed differently by two or more scenarios. Empty if
+     * there are no conflicts.
+     */
+    public List<String> conflicts() {
+        List<String> result = new LinkedList<String>();
+        merge(result);
+        return result;
+    }
+
+    /**
+     * @return All modules loaded by all the scenarios, with modules loaded by several scenarios only present once.
+     * @throws IllegalStateException If any module has been changed differently by two scenarios.
+     */
+    public List<Module> modules() {
+        List<String> conflicts = new LinkedList<String>();
+        List<Module> result = merge(conflicts);
+
+        if (!conflicts.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Conflicting scenarios:");
+            for (String conflict : conflicts) {
+                sb.append("\n  ").append(conflict);
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+
+        return result;
+    }
+
+    private List<Module> merge(List<String> conflicts) {
+        List<Module> result = new LinkedList<Module>();
+        Map<File, Module> firstModule = new HashMap<File, Module>();
+        Map<File, Scenario> firstScenario = new HashMap<File, Scenario>();
+
+        for (Scenario scenario : scenarios) {
+            for (Module module : scenario.modules()) {
+                File key = module.pomFile().getAbsoluteFile();
+                Scenario otherScenario = firstScenario.get(key);
+
+                if (otherScenario == null) {
+                    firstModule.put(key, module);
+                    firstScenario.put(key, scenario);
+                    result.add(module);
+                } else if (otherScenario == scenario) {
+                    // Loaded more than once by the same scenario. Keep it as a single scenario run would.
+                    result.add(module);
+                } else if (!modified(module)) {
+                    // Only loaded by this scenario. Keep the one already there.
+                } else if (!modified(firstModule.get(key))) {
+                    // Only loaded by the other scenario. Keep the one that has been changed instead.
+                    Module unchanged = firstModule.get(key);
+                    for (int i = 0; i < result.size(); i++) {
+                        if (result.get(i) == unchanged) {
+                            result.set(i, module);
+                        }
+                    }
+                    firstModule.put(key, module);
+                    firstScenario.put(key, scenario);
+                } else {
+                    String conflict = conflict(firstModule.get(key), otherScenario, module, scenario);
+                    if (conflict != null) {
+                        conflicts.add(conflict);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return true if the module has been given a label or a commit message, or its pom.xml has been changed.
+     */
+    private boolean modified(Module module) {
+        if (module.label() != null || module.commitMessage() != null) {
+            return true;
+        }
+        try {
+            return !module.outputString().equals(Module.outputString(pomCache.document(module.pomFile())));
+        } catch (JDOMException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String conflict(Module first, Scenario firstScenario, Module second, Scenario secondScenario) {
+        String prefix = first.ga() + " (" + first.pomFile().getPath() + "): ";
+        String in = " in " + firstScenario + " and ";
+
+        if (!equal(first.version(), second.version())) {
+            return prefix + "version " + first.version() + in + second.version() + " in " + secondScenario;
+        }
+        if (!equal(first.label(), second.label())) {
+            return prefix + "label " + first.label() + in + second.label() + " in " + secondScenario;
+        }
+        if (!equal(first.commitMessage(), second.commitMessage())) {
+            return prefix + "commit message \"" + first.commitMessage() + "\"" + in + "\"" + second.commitMessage()
+                    + "\" in " + secondScenario;
+        }
+        if (!first.outputString().equals(second.outputString())) {
+            return prefix + "different changes in " + firstScenario + " and " + secondScenario;
+        }
+        return null;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
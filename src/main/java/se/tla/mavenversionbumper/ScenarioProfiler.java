@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.Parser;
+import bsh.Token;
+
+/**
+ * Measures where the time goes while a scenario is evaluated.
+ *
+ * Scenario files are evaluated one top level statement at a time and the wall time, and the number of bytes
+ * allocated by the evaluating thread if the JVM can tell, is attributed to the statement by file and line.
+ * Included files and pom.xml parsing are measured as nested sections, so the time of a statement is split
+ * into its own (self) time and the time spent in what it triggered.
+ *
+ * Sections may be measured by several threads at the same time. Each thread has its own nesting of sections, and
+ * the totals of all threads are summed up per section. Allocations are only counted for the thread measuring a
+ * section, so the parsing done by the worker threads of loadAll is only included in its wall time.
+ */
+public class ScenarioProfiler {
+
+    private static final int STATEMENTTEXTLENGTH = 60;
+
+    private final Map<String, Section> sections = new LinkedHashMap<String, Section>();
+    private final ThreadLocal<LinkedList<Frame>> stacks = new ThreadLocal<LinkedList<Frame>>() {
+        @Override
+        protected LinkedList<Frame> initialValue() {
+            return new LinkedList<Frame>();
+        }
+    };
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Method allocatedBytesMethod;
+
+    public ScenarioProfiler() {
+        Method method = null;
+        try {
+            Class<?> extendedMXBean = Class.forName("com.sun.management.ThreadMXBean");
+            method = extendedMXBean.getMethod("getThreadAllocatedBytes", long.class);
+            if (!extendedMXBean.isInstance(threadMXBean) || (Long) method.invoke(threadMXBean, Thread.currentThread().getId()) < 0) {
+                method = null;
+            }
+        } catch (Exception e) {
+            // Not a JVM that can measure allocations. Only measure time.
+            method = null;
+        }
+        allocatedBytesMethod = method;
+    }
+
+    /**
+     * Evaluate this scenario file one top level statement at a time in the interpreters global name space.
+     *
+     * @param interpreter Interpreter to use.
+     * @param file Scenario file to evaluate.
+     * @throws IOException If the file couldn't be read.
+     * @throws EvalError If the file couldn't be parsed or evaluated.
+     */
+    public void evaluate(Interpreter interpreter, File file) throws IOException, EvalError {
+        String fileName = file.getPath();
+        String contents = FileUtils.readFileToString(file);
+        String[] lines = contents.split("\r\n|\r|\n", -1);
+
+        Parser parser = new Parser(new StringReader(contents));
+        Token previous = parser.token;
+        while (!parser.Line()) {
+            parser.popNode();
+            Token first = previous.next;
+            Token last = parser.token;
+            previous = last;
+
+            begin(fileName + ":" + first.beginLine + "  " + statementText(lines, first.beginLine), fileName);
+            try {
+                interpreter.eval(new StringReader(sourceOf(first, last)), interpreter.getNameSpace(), fileName);
+            } finally {
+                end();
+            }
+        }
+    }
+
+    /**
+     * Start measuring a section. Must be followed by a call to end().
+     *
+     * @param name Name of the section. Sections with the same name are summed up.
+     */
+    public void begin(String name) {
+        begin(name, null);
+    }
+
+    private void begin(String name, String fileName) {
+        Section section;
+        synchronized (sections) {
+            section = sections.get(name);
+            if (section == null) {
+                section = new Section(name, fileName);
+                sections.put(name, section);
+            }
+        }
+        stacks.get().addFirst(new Frame(section, System.nanoTime(), allocatedBytes()));
+    }
+
+    /**
+     * Stop measuring the latest section begun by this thread.
+     */
+    public void end() {
+        LinkedList<Frame> stack = stacks.get();
+        Frame frame = stack.removeFirst();
+        long nanos = System.nanoTime() - frame.startNanos;
+        long bytes = allocatedBytes() - frame.startBytes;
+
+        synchronized (sections) {
+            frame.section.count++;
+            frame.section.totalNanos += nanos;
+            frame.section.selfNanos += nanos - frame.childNanos;
+            frame.section.totalBytes += bytes;
+            frame.section.selfBytes += bytes - frame.childBytes;
+        }
+
+        if (!stack.isEmpty()) {
+            Frame parent = stack.getFirst();
+            parent.childNanos += nanos;
+            parent.childBytes += bytes;
+        }
+    }
+
+    /**
+     * @return A report of all measured sections, the most expensive first.
+     */
+    public String report() {
+        synchronized (sections) {
+            return reportOfSections();
+        }
+    }
+
+    private String reportOfSections() {
+        List<Section> sorted = new ArrayList<Section>(sections.values());
+        Collections.sort(sorted, new Comparator<Section>() {
+            @Override
+            public int compare(Section a, Section b) {
+                return a.selfNanos < b.selfNanos ? 1 : (a.selfNanos == b.selfNanos ? 0 : -1);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Profile, sorted by self time:\n");
+        sb.append(String.format("%10s %10s %12s %6s  %s%n", "self ms", "total ms", "self alloc", "count", "statement"));
+        for (Section section : sorted) {
+            sb.append(String.format("%10.1f %10.1f %12s %6d  %s%n",
+                    section.selfNanos / 1000000.0, section.totalNanos / 1000000.0,
+                    allocatedBytesMethod != null ? String.valueOf(section.selfBytes) : "n/a",
+                    section.count, section.name));
+        }
+
+        Map<String, Long> files = new LinkedHashMap<String, Long>();
+        for (Section section : sorted) {
+            if (section.fileName != null) {
+                Long nanos = files.get(section.fileName);
+                files.put(section.fileName, (nanos == null ? 0 : nanos) + section.selfNanos);
+            }
+        }
+        sb.append("Self time per scenario file:\n");
+        for (Map.Entry<String, Long> entry : files.entrySet()) {
+            sb.append(String.format("%10.1f  %s%n", entry.getValue() / 1000000.0, entry.getKey()));
+        }
+        return sb.toString();
+    }
+
+    private long allocatedBytes() {
+        if (allocatedBytesMethod == null) {
+            return 0;
+        }
+        try {
+            return (Long) allocatedBytesMethod.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rebuild the source of the statement from its tokens, keeping the line numbers of the file so that any
+     * error messages still points to the right place.
+     */
+    private static String sourceOf(Token first, Token last) {
+        StringBuilder sb = new StringBuilder();
+        int line = 1;
+        for (Token token = first; ; token = token.next) {
+            while (line < token.beginLine) {
+                sb.append('\n');
+                line++;
+            }
+            sb.append(token.image).append(' ');
+            line = token.endLine;
+            if (token == last) {
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String statementText(String[] lines, int lineNumber) {
+        String text = lineNumber <= lines.length ? lines[lineNumber - 1].trim() : "";
+        if (text.length() > STATEMENTTEXTLENGTH) {
+            text = text.substring(0, STATEMENTTEXTLENGTH) + "...";
+        }
+        return text;
+    }
+
+    private static class Section {
+        private final String name;
+        private final String fileName;
+        private int count;
+        private long totalNanos;
+        private long selfNanos;
+        private long totalBytes;
+        private long selfBytes;
+
+        private Section(String name, String fileName) {
+            this.name = name;
+            this.fileName = fileName;
+        }
+    }
+
+    private static class Frame {
+        private final Section section;
+        private final long startNanos;
+        private final long startBytes;
+        private long childNanos;
+        private long childBytes;
+
+        private Frame(Section section, long startNanos, long startBytes) {
+            this.section = section;
+            this.startNanos = startNanos;
+            this.startBytes = startBytes;
+        }
+    }
+}
@@ -16,15 +16,26 @@
 
 package se.tla.mavenversionbumper.vcs;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteStreamHandler;
-import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.Executor;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import se.tla.mavenversionbumper.Module;
 
 /**
@@ -34,9 +45,46 @@ import se.tla.mavenversionbumper.Module;
 public abstract class AbstractVersionControl implements VersionControl {
 
     public static final String VERSIONCONTROL = "versioncontrol";
-    private static final int DEFAULTTIMEOUT = 60000;
+    protected static final int DEFAULTTIMEOUT = 60000;
+    private static final int PIPESIZE = 65536;
+    /**
+     * Keeps command lines well below the 32k characters Windows allows, and far below ARG_MAX elsewhere.
+     */
+    protected static final int MAXCOMMANDLINELENGTH = 30000;
+
+    /**
+     * The number of commands a version control may run at the same time.
+     */
+    public static final String CONCURRENCY = "versioncontrol.concurrency";
+    private static final String CONCURRENCYDEFAULT = "4";
+
+    private final CommandRunner runner;
 
-    private Executor executor = new DefaultExecutor();
+    protected AbstractVersionControl() {
+        this(new Properties());
+    }
+
+    protected AbstractVersionControl(Properties controlProperties) {
+        this(controlProperties, 1);
+    }
+
+    /**
+     * @param minimumConcurrency The number of commands that must be allowed to run at the same time, even if
+     * versioncontrol.concurrency is lower, for a version control with a concurrency setting of its own.
+     */
+    protected AbstractVersionControl(Properties controlProperties, int minimumConcurrency) {
+        String concurrencyProperty = controlProperties.getProperty(CONCURRENCY, CONCURRENCYDEFAULT);
+        int concurrency;
+        try {
+            concurrency = Integer.parseInt(concurrencyProperty);
+        } catch (NumberFormatException e) {
+            concurrency = 0;
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("The property " + CONCURRENCY + " must be a positive integer");
+        }
+        runner = new CommandRunner(getClass().getSimpleName().toLowerCase(), Math.max(concurrency, minimumConcurrency));
+    }
 
     /**
      * {@inheritDoc}
@@ -56,6 +104,64 @@ public abstract class AbstractVersionControl implements VersionControl {
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit(List<Module> modules) {
+        commit(modules, Progress.NONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void label(List<Module> modules) {
+        label(modules, Progress.NONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        runner.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void preparedEarlier(Module module) {
+        // Default is to not need it.
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String committedRevision(Module module) {
+        // Default is to not need it.
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void committedEarlier(Module module, String revision) {
+        // Default is to not need it.
+    }
+
+    /**
+     * @param count Number of files that one command handles.
+     * @param timeoutPerFile Time out in ms for each of them.
+     * @return Time out in ms for the whole command.
+     */
+    protected static int timeoutFor(int count, int timeoutPerFile) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) timeoutPerFile * Math.max(count, 1));
+    }
+
     /**
      * Execute this command line, optionally in this working directory. Timeout of command is set to 60 seconds
      * @param cmdLine Command line to execute.
@@ -83,31 +189,202 @@ public abstract class AbstractVersionControl implements VersionControl {
      * @param executeStreamHandler Special stream handler to use, or null for use of the default.
      */
     protected void execute(CommandLine cmdLine, File workDir, int timeout, ExecuteStreamHandler executeStreamHandler) {
+        if (executeStreamHandler == null) {
+            executeStreamHandler = new ExposingPumpStreamHandler(System.out, System.err);
+        }
+        runner.run(cmdLine, workDir, timeout, executeStreamHandler);
+    }
+
+    /**
+     * Execute this command line, optionally in this working directory, and capture what it writes to standard out.
+     * Timeout of command is set to 60 seconds.
+     * @param cmdLine Command line to execute.
+     * @param workDir Working directory to set before execution, or null if process default working directory should be used.
+     * @return Everything the command wrote to standard out.
+     */
+    protected byte[] executeWithOutput(CommandLine cmdLine, File workDir) {
+        return executeWithOutput(cmdLine, workDir, DEFAULTTIMEOUT);
+    }
+
+    /**
+     * Execute this command line, optionally in this working directory, and capture what it writes to standard out.
+     * @param cmdLine Command line to execute.
+     * @param workDir Working directory to set before execution, or null if process default working directory should be used.
+     * @param timeout Time out in ms. If -1, don't set any time out.
+     * @return Everything the command wrote to standard out.
+     */
+    protected byte[] executeWithOutput(CommandLine cmdLine, File workDir, int timeout) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        execute(cmdLine, workDir, timeout, new ExposingPumpStreamHandler(bos, System.err));
+        return bos.toByteArray();
+    }
 
-        if (timeout != -1) {
-            executor.setWatchdog(new ExecuteWatchdog(timeout));
+    /**
+     * Reads what a command writes to standard out, while the command runs.
+     */
+    protected interface OutputParser<T> {
+        /**
+         * @param output What the command writes to standard out. Anything left unread is thrown away.
+         * @return The result of the parsing.
+         */
+        T parse(InputStream output) throws IOException;
+    }
+
+    /**
+     * Execute this command line, optionally in this working directory, and let this parser read what it writes to
+     * standard out as it is written, through a pipe, instead of collecting all of it first. Timeout of command is
+     * set to 60 seconds.
+     * @param cmdLine Command line to execute.
+     * @param workDir Working directory to set before execution, or null if process default working directory should be used.
+     * @param parser Parser of the output.
+     * @return The result of the parser.
+     */
+    protected <T> T executeAndParse(CommandLine cmdLine, File workDir, final OutputParser<T> parser) {
+        final PipedInputStream in = new PipedInputStream(PIPESIZE);
+        PipedOutputStream out;
+        try {
+            out = new PipedOutputStream(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        if (workDir != null) {
-            executor.setWorkingDirectory(workDir);
+
+        final List<T> result = new ArrayList<T>(1);
+        final List<Exception> failure = new ArrayList<Exception>(1);
+        Thread reader = new Thread("output parser of " + cmdLine.getExecutable()) {
+            @Override
+            public void run() {
+                try {
+                    // The parser must not close the pipe, the rest of the output is read below.
+                    result.add(parser.parse(new CloseShieldInputStream(in)));
+                } catch (Exception e) {
+                    failure.add(e);
+                } finally {
+                    // Keep reading, so the command isn't blocked writing to a full pipe.
+                    try {
+                        IOUtils.copy(in, new NullOutputStream());
+                    } catch (IOException e) {
+                        // The command has ended.
+                    }
+                    IOUtils.closeQuietly(in);
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            execute(cmdLine, workDir, DEFAULTTIMEOUT, new ExposingPumpStreamHandler(out, System.err));
+        } finally {
+            IOUtils.closeQuietly(out);
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while parsing the output of " + cmdLine, e);
+            }
         }
-        if (executeStreamHandler != null) {
-            executor.setStreamHandler(executeStreamHandler);
+
+        if (!failure.isEmpty()) {
+            Exception e = failure.get(0);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException("Unable to parse the output of " + cmdLine, e);
         }
+        return result.get(0);
+    }
 
-        System.out.println("Running command:   " + cmdLine.toString());
+    /**
+     * Execute this command line in the background, optionally in this working directory, and capture what it writes
+     * to standard out. Timeout of command is set to 60 seconds.
+     * @param cmdLine Command line to execute.
+     * @param workDir Working directory to set before execution, or null if process default working directory should be used.
+     * @return Everything the command wrote to standard out, once it is done.
+     */
+    protected Future<byte[]> submitWithOutput(CommandLine cmdLine, File workDir) {
+        return runner.submit(cmdLine, workDir, DEFAULTTIMEOUT);
+    }
 
+    /**
+     * Wait for a command submitted with submitWithOutput.
+     * @return Everything the command wrote to standard out.
+     */
+    protected static byte[] output(Future<byte[]> future) {
         try {
-            executor.execute(cmdLine);
-        } catch (IOException e) {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Execute this command line, optionally in this working directory, feed it this input on standard in and
+     * capture what it writes to standard out. Timeout of command is set to 60 seconds.
+     * @param cmdLine Command line to execute.
+     * @param workDir Working directory to set before execution, or null if process default working directory should be used.
+     * @param input Everything the command should read from standard in.
+     * @return Everything the command wrote to standard out.
+     */
+    protected byte[] executeWithInput(CommandLine cmdLine, File workDir, byte[] input) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        execute(cmdLine, workDir, DEFAULTTIMEOUT,
+                new ExposingPumpStreamHandler(bos, System.err, new ByteArrayInputStream(input)));
+        return bos.toByteArray();
+    }
+
+    /**
+     * Refuse to continue if any pom.xml failed the preflight.
+     * @param problems The reason each failing pom.xml can't be handled, by file.
+     * @throws IllegalStateException If there are any problems.
+     */
+    protected static void failOnProblems(Map<File, String> problems) {
+        if (problems.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Nothing has been modified, since ");
+        sb.append(problems.size()).append(problems.size() == 1 ? " pom.xml" : " pom.xml files").append(" can't be updated:");
+        for (Map.Entry<File, String> entry : problems.entrySet()) {
+            sb.append("\n  ").append(entry.getKey().getPath()).append(": ").append(entry.getValue());
+        }
+        throw new IllegalStateException(sb.toString());
+    }
+
+    /**
+     * Split these arguments into chunks that each fits on one command line.
+     * @param arguments Arguments to split, typically file names.
+     * @param fixedLength Length of the part of the command line that is repeated for each chunk.
+     * @return The arguments in the same order, split into at least one chunk.
+     */
+    protected static List<List<String>> chunks(List<String> arguments, int fixedLength) {
+        List<List<String>> result = new ArrayList<List<String>>();
+        List<String> chunk = new ArrayList<String>();
+        int length = fixedLength;
+        for (String argument : arguments) {
+            // Room for a separating space and quotes.
+            int argumentLength = argument.length() + 3;
+            if (!chunk.isEmpty() && length + argumentLength > MAXCOMMANDLINELENGTH) {
+                result.add(chunk);
+                chunk = new ArrayList<String>();
+                length = fixedLength;
+            }
+            chunk.add(argument);
+            length += argumentLength;
         }
+        result.add(chunk);
+        return result;
     }
 
     public Executor getExecutor() {
-        return executor;
+        return runner.getExecutor();
     }
 
     public void setExecutor(Executor executor) {
-        this.executor = executor;
+        runner.setExecutor(executor);
     }
 }
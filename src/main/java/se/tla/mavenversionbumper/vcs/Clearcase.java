@@ -1,39 +1,90 @@
 package se.tla.mavenversionbumper.vcs;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 import se.tla.mavenversionbumper.Module;
 
 /**
  * Implements VersionControl for the Clearcase versioning system.
  *
- * Requires access to the command line interface cleartool.
+ * Requires access to the command line interface cleartool. With cleartool.session=true all commands are run by one
+ * single interactive cleartool, see {@link ClearcaseSession}.
  */
 public class Clearcase extends AbstractVersionControl {
     public static final String ACRONYM = "clearcase";
+    private static final Logger logger = Logger.getLogger(Clearcase.class);
 
     protected static final String COMMANDPATH = "cleartool.path";
     private static final String COMMANDPATHDEFAULT = "cleartool";
     protected static final String LABELTIMEOUT = "cleartool.labeltimeout";
     private static final String LABELDEFAULTTIMEOUT = "900000"; // 15 minutes.
+    protected static final String ELEMENTTIMEOUT = "cleartool.elementtimeout";
+    private static final String ELEMENTDEFAULTTIMEOUT = String.valueOf(DEFAULTTIMEOUT);
     protected static final String CHECKOUTRESERVED = "cleartool.checkoutreserved";
     private static final String CHECKOUTRESERVEDDEFAULT = "true";
+    protected static final String SESSION = "cleartool.session";
+    private static final String SESSIONDEFAULT = "false";
+    protected static final String LABELCONCURRENCY = "cleartool.labelconcurrency";
+    private static final String LABELCONCURRENCYDEFAULT = "1";
+    protected static final String LABELCONCURRENCYPERVOB = "cleartool.labelconcurrencypervob";
+    private static final String LABELCONCURRENCYPERVOBDEFAULT = "1";
 
-    private final Set<Module> checkedOut = new HashSet<Module>();
+    /**
+     * Format for lscheckout listing whether each checkout is reserved, and the element.
+     */
+    private static final String RESERVEDFORMAT = "%Rf %En\\n";
+
+    private final Set<File> checkedOut = new HashSet<File>();
+    private final Map<String, Set<String>> labelTypesPerVob = new HashMap<String, Set<String>>();
     private final String commandPath;
     private final int labelTimeout;
+    /**
+     * Time out per element of a checkout, checkin or uncheckout, that may handle many elements at once.
+     */
+    private final int elementTimeout;
     private final boolean checkoutReserved;
+    private final boolean useSession;
+    private final int labelConcurrency;
+    private final int labelConcurrencyPerVob;
+    private ClearcaseSession session;
+    /**
+     * The own session of a thread that labels in parallel with others, so they don't wait for each other.
+     */
+    private final ThreadLocal<ClearcaseSession> workerSession = new ThreadLocal<ClearcaseSession>();
 
     public Clearcase(Properties controlProperties) {
+        // Room for every mklabel that cleartool.labelconcurrency allows, even above versioncontrol.concurrency.
+        super(controlProperties, positiveInteger(controlProperties, LABELCONCURRENCY, LABELCONCURRENCYDEFAULT));
+
         String commandProperty = controlProperties.getProperty(COMMANDPATH, COMMANDPATHDEFAULT);
         if (System.getProperty("os.name").toLowerCase().contains("windows") &&
                 ! commandProperty.toLowerCase().endsWith(".exe")) {
@@ -47,9 +98,28 @@ public class Clearcase extends AbstractVersionControl {
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("The property " + LABELTIMEOUT + " must be an integer");
         }
+        this.elementTimeout = positiveInteger(controlProperties, ELEMENTTIMEOUT, ELEMENTDEFAULTTIMEOUT);
 
         String checkoutReservedProperty = controlProperties.getProperty(CHECKOUTRESERVED, CHECKOUTRESERVEDDEFAULT);
         this.checkoutReserved = Boolean.parseBoolean(checkoutReservedProperty);
+
+        this.useSession = Boolean.parseBoolean(controlProperties.getProperty(SESSION, SESSIONDEFAULT));
+
+        this.labelConcurrency = positiveInteger(controlProperties, LABELCONCURRENCY, LABELCONCURRENCYDEFAULT);
+        this.labelConcurrencyPerVob =
+                positiveInteger(controlProperties, LABELCONCURRENCYPERVOB, LABELCONCURRENCYPERVOBDEFAULT);
+    }
+
+    private static int positiveInteger(Properties controlProperties, String name, String defaultValue) {
+        try {
+            int value = Integer.parseInt(controlProperties.getProperty(name, defaultValue));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("The property " + name + " must be a positive integer");
     }
 
     /**
@@ -71,17 +141,34 @@ public class Clearcase extends AbstractVersionControl {
                 throw new IllegalArgumentException("Labels cant start with hyphen ('-')");
             }
         }
-        for (Module module: modules) {
-            checkout(module);
-        }
+        checkout(modules);
         return null;
     }
 
+    /**
+     * The pom.xml is still checked out in this view, by the earlier run.
+     */
+    @Override
+    public void preparedEarlier(Module module) {
+        checkedOut.add(module.pomFile().getAbsoluteFile());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        closeSession();
+        super.close();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public String after(List<Module> modules) {
+        closeSession();
+
         // Remove duplicate label names.
         Set<String> labels = new TreeSet<String>();
         for (Module module : modules) {
@@ -104,126 +191,956 @@ public class Clearcase extends AbstractVersionControl {
     }
 
     /**
-     * Perform a checkout of the specific modules pom.xml file.
-     * @param module Module to perform the checkout for.
+     * Refuses pom.xml files that are already checked out in this view, or checked out reserved in another view. They
+     * are found with lscheckout, batched as many files as fits on a command line. Files that cleartool can't list
+     * checkouts for, like files outside of any VOB, fail the whole preflight.
      */
-    private void checkout(Module module) {
-        if (! checkedOut.contains(module)) {
-            Map<String, Object> map = new HashMap<String, Object>();
-            map.put("file", module.pomFile());
+    @Override
+    public void preflight(List<Module> modules) {
+        Set<File> files = new LinkedHashSet<File>();
+        for (Module module : modules) {
+            File file = module.pomFile().getAbsoluteFile();
+            if (! checkedOut.contains(file)) {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
 
-            CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("checkout");
-            if (checkoutReserved) {
-                cmdLine.addArgument("-reserved");
-            } else {
-                cmdLine.addArgument("-unreserved");
+        Map<File, String> problems = new LinkedHashMap<File, String>();
+        List<String> options = Arrays.asList("lscheckout", "-fmt", RESERVEDFORMAT);
+        for (List<String> chunk : chunks(paths(files), fixedLength(options, null))) {
+            Set<File> inView = checkedOutInView(chunk);
+            if (inView == null) {
+                throw new IllegalStateException("Unable to list the checkouts of " + chunk + ", are they all in a VOB?");
             }
-            cmdLine.addArgument("-nc");
-            cmdLine.addArgument("${file}");
-            cmdLine.setSubstitutionMap(map);
+            Set<File> reserved = new HashSet<File>();
+            for (String line : nonEmptyLines(cleartoolWithOutput(command(options, null, chunk)))) {
+                if (line.startsWith("reserved ")) {
+                    reserved.add(new File(line.substring("reserved ".length()).trim()).getAbsoluteFile());
+                }
+            }
+            for (String path : chunk) {
+                File file = new File(path);
+                if (inView.contains(file)) {
+                    problems.put(file, "already checked out in this view");
+                } else if (reserved.contains(file)) {
+                    problems.put(file, "checked out reserved in another view");
+                }
+            }
+        }
+        failOnProblems(problems);
+    }
 
-            execute(cmdLine, null);
+    /**
+     * Check out the pom.xml files of these modules that aren't already checked out. As many files as fits on a
+     * command line are checked out by each cleartool invocation.
+     * @param modules Modules to perform the checkout for.
+     */
+    private void checkout(List<Module> modules) {
+        Set<File> files = new LinkedHashSet<File>();
+        for (Module module : modules) {
+            File file = module.pomFile().getAbsoluteFile();
+            if (! checkedOut.contains(file)) {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
 
-            checkedOut.add(module);
+        List<String> options = Arrays.asList("checkout", checkoutReserved ? "-reserved" : "-unreserved", "-nc");
+        for (List<String> chunk : chunks(paths(files), fixedLength(options, null))) {
+            try {
+                cleartool(command(options, null, chunk), timeoutFor(chunk.size(), elementTimeout));
+            } catch (RuntimeException e) {
+                // Some files may have been checked out before the failure. Remember those, so they can be restored.
+                Set<File> nowCheckedOut = checkedOutInView(chunk);
+                List<String> failed = new ArrayList<String>();
+                for (String path : chunk) {
+                    File file = new File(path);
+                    if (nowCheckedOut != null && nowCheckedOut.contains(file)) {
+                        checkedOut.add(file);
+                    } else {
+                        failed.add(path);
+                    }
+                }
+                throw new RuntimeException(failureMessage("check out", nowCheckedOut, chunk, failed), e);
+            }
+            for (String path : chunk) {
+                checkedOut.add(new File(path));
+            }
         }
     }
 
-
     /**
-     * {@inheritDoc}
+     * Cancels the checkouts of the pom.xml files that are checked out in the view. They are found with one
+     * lscheckout, and unchecked out with one uncheckout, or more if the files doesn't fit on one command line.
      */
     @Override
     public void restore(List<Module> modules) {
+        Set<File> files = new LinkedHashSet<File>();
         for (Module module : modules) {
-            Map<String, Object> map = new HashMap<String, Object>();
-            map.put("file", module.pomFile());
-
-            CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("uncheckout");
-            cmdLine.addArgument("-rm");
-            cmdLine.addArgument("${file}");
-            cmdLine.setSubstitutionMap(map);
-
-            execute(cmdLine, null);
+            files.add(module.pomFile().getAbsoluteFile());
+        }
 
-            checkedOut.remove(module);
+        List<String> options = Arrays.asList("uncheckout", "-rm");
+        for (List<String> chunk : chunks(paths(files), fixedLength(options, null))) {
+            Set<File> inView = checkedOutInView(chunk);
+            List<String> toRestore = new ArrayList<String>();
+            for (String path : chunk) {
+                // If lscheckout failed, try them all.
+                if (inView == null || inView.contains(new File(path))) {
+                    toRestore.add(path);
+                } else {
+                    checkedOut.remove(new File(path));
+                }
+            }
+            if (! toRestore.isEmpty()) {
+                cleartool(command(options, null, toRestore), timeoutFor(toRestore.size(), elementTimeout));
+                for (String path : toRestore) {
+                    checkedOut.remove(new File(path));
+                }
+            }
         }
+        closeSession();
     }
 
     /**
-     * {@inheritDoc}
+     * Checks in the pom.xml files with one cleartool invocation per commit message, or more if they don't fit on
+     * one command line. A commit message with line breaks, or with both kinds of quotes, is given in a file.
      */
     @Override
-    public void commit(List<Module> modules) {
+    public void commit(List<Module> modules, Progress progress) {
+        Map<String, Map<File, List<Module>>> modulesPerMessage = new LinkedHashMap<String, Map<File, List<Module>>>();
         for (Module module : modules) {
-            Map<String, Object> map = new HashMap<String, Object>();
-            map.put("file", module.pomFile());
-
-            CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("checkin");
             String message = module.commitMessage();
-            if (message != null && message.length() > 0) {
-                cmdLine.addArgument("-c");
-                cmdLine.addArgument("${comment}");
-                map.put("comment", message);
-            } else {
-                cmdLine.addArgument("-nc");
+            if (message == null) {
+                message = "";
             }
-            cmdLine.addArgument("${file}");
-            cmdLine.setSubstitutionMap(map);
+            Map<File, List<Module>> modulesPerFile = modulesPerMessage.get(message);
+            if (modulesPerFile == null) {
+                modulesPerFile = new LinkedHashMap<File, List<Module>>();
+                modulesPerMessage.put(message, modulesPerFile);
+            }
+            File file = module.pomFile().getAbsoluteFile();
+            List<Module> fileModules = modulesPerFile.get(file);
+            if (fileModules == null) {
+                fileModules = new ArrayList<Module>();
+                modulesPerFile.put(file, fileModules);
+            }
+            fileModules.add(module);
+        }
+
+        for (Map.Entry<String, Map<File, List<Module>>> entry : modulesPerMessage.entrySet()) {
+            String comment = entry.getKey().length() > 0 ? entry.getKey() : null;
+            File commentFile = comment != null && needsCommentFile(comment) ? commentFile(comment) : null;
+            try {
+                checkin(entry.getValue(), comment, commentFile, progress);
+            } finally {
+                if (commentFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    commentFile.delete();
+                }
+            }
+        }
+    }
 
-            execute(cmdLine, null);
+    /**
+     * Check in these files, with this comment, or with the comment in this file.
+     * @param modulesPerFile The modules of each file.
+     * @param commentFile File holding the comment, or null if the comment is given on the command line.
+     */
+    private void checkin(Map<File, List<Module>> modulesPerFile, String comment, File commentFile, Progress progress) {
+        List<String> options;
+        if (commentFile != null) {
+            options = Arrays.asList("checkin", "-cfile", commentFile.getPath());
+            comment = null;
+        } else {
+            options = comment != null ? Arrays.asList("checkin") : Arrays.asList("checkin", "-nc");
+        }
 
-            checkedOut.remove(module);
+        for (List<String> chunk : chunks(paths(modulesPerFile.keySet()), fixedLength(options, comment))) {
+            try {
+                cleartool(command(options, comment, chunk), timeoutFor(chunk.size(), elementTimeout));
+            } catch (RuntimeException e) {
+                // The files that still are checked out are the ones that failed.
+                Set<File> stillCheckedOut = checkedOutInView(chunk);
+                List<String> failed = new ArrayList<String>();
+                List<Module> checkedIn = new ArrayList<Module>();
+                for (String path : chunk) {
+                    File file = new File(path);
+                    if (stillCheckedOut != null && ! stillCheckedOut.contains(file)) {
+                        checkedOut.remove(file);
+                        checkedIn.addAll(modulesPerFile.get(file));
+                    } else {
+                        failed.add(path);
+                    }
+                }
+                if (! checkedIn.isEmpty()) {
+                    progress.done(checkedIn);
+                }
+                throw new RuntimeException(failureMessage("check in", stillCheckedOut, chunk, failed), e);
+            }
+            List<Module> checkedIn = new ArrayList<Module>();
+            for (String path : chunk) {
+                File file = new File(path);
+                checkedOut.remove(file);
+                checkedIn.addAll(modulesPerFile.get(file));
+            }
+            progress.done(checkedIn);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * A comment with line breaks can't be given on one command line, least of all in a session, where each line is
+     * a command of its own. Neither can one with both kinds of quotes, since it can't be quoted.
+     */
+    private static boolean needsCommentFile(String comment) {
+        return comment.indexOf('\n') != -1 || comment.indexOf('\r') != -1
+                || (comment.indexOf('"') != -1 && comment.indexOf('\'') != -1);
+    }
+
+    private static File commentFile(String comment) {
+        try {
+            File commentFile = File.createTempFile("versionbumper", ".comment");
+            commentFile.deleteOnExit();
+            // cleartool reads the comment file in the native encoding.
+            FileUtils.writeStringToFile(commentFile, comment);
+            return commentFile;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Run this cleartool command, in the session if there is one, and let it write to standard out.
+     */
+    private void cleartool(CommandLine cmdLine, int timeout) {
+        if (useSession) {
+            byte[] output = runInSession(cmdLine, timeout);
+            System.out.write(output, 0, output.length);
+            System.out.flush();
+        } else {
+            execute(cmdLine, null, timeout);
+        }
+    }
+
+    /**
+     * Run this cleartool command, in the session if there is one, and capture what it writes to standard out.
+     */
+    private byte[] cleartoolWithOutput(CommandLine cmdLine) {
+        if (useSession) {
+            return runInSession(cmdLine, DEFAULTTIMEOUT);
+        } else {
+            return executeWithOutput(cmdLine, null);
+        }
+    }
+
+    /**
+     * Run the command in the own session of this thread, if it has one, or else in the shared cleartool session.
+     * A session is started by the first command, and again after a command has timed out.
+     */
+    private byte[] runInSession(CommandLine cmdLine, int timeout) {
+        ClearcaseSession own = workerSession.get();
+        if (own != null) {
+            if (! own.isAlive()) {
+                own = startSession();
+                workerSession.set(own);
+            }
+            return runInSession(own, cmdLine, timeout);
+        }
+        synchronized (this) {
+            if (session == null || ! session.isAlive()) {
+                session = startSession();
+            }
+            return runInSession(session, cmdLine, timeout);
+        }
+    }
+
+    private ClearcaseSession startSession() {
+        try {
+            return new ClearcaseSession(commandPath);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] runInSession(ClearcaseSession session, CommandLine cmdLine, int timeout) {
+        logger.debug("Running command in session: " + cmdLine);
+        long start = System.currentTimeMillis();
+        byte[] output = null;
+        try {
+            output = session.run(cmdLine.getArguments(), timeout);
+            return output;
+        } finally {
+            // The session is one process, so there is no CPU time or RSS of the command itself.
+            CommandTelemetry.record(new CommandEvent("clearcase",
+                    CommandEvent.verb(cmdLine.getExecutable(), cmdLine.getArguments()), cmdLine.toString(), null,
+                    start, System.currentTimeMillis() - start, output != null ? 0 : 1,
+                    output != null ? output.length : 0, 0, CommandEvent.UNKNOWN, CommandEvent.UNKNOWN));
+        }
+    }
+
+    private synchronized void closeSession() {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            session = null;
+        }
+    }
+
+    private static List<String> paths(Set<File> files) {
+        List<String> result = new ArrayList<String>();
+        for (File file : files) {
+            result.add(file.getPath());
+        }
+        return result;
+    }
+
+    private int fixedLength(List<String> options, String comment) {
+        int length = commandPath.length();
+        for (String option : options) {
+            length += option.length() + 3;
+        }
+        if (comment != null) {
+            length += "-c".length() + comment.length() + 6;
+        }
+        return length;
+    }
+
+    /**
+     * Build a cleartool command line with these options, the comment if there is one, and these files.
+     */
+    private CommandLine command(List<String> options, String comment, List<String> files) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        CommandLine cmdLine = new CommandLine(commandPath);
+        for (String option : options) {
+            cmdLine.addArgument(option);
+        }
+        if (comment != null) {
+            cmdLine.addArgument("-c");
+            cmdLine.addArgument("${comment}");
+            map.put("comment", comment);
+        }
+        int index = 0;
+        for (String file : files) {
+            index++;
+            String argname = "file" + index;
+            map.put(argname, new File(file));
+            cmdLine.addArgument("${" + argname + "}");
+        }
+        cmdLine.setSubstitutionMap(map);
+        return cmdLine;
+    }
+
+    private static String failureMessage(String action, Set<File> known, List<String> chunk, List<String> failed) {
+        if (known == null) {
+            return "Failed to " + action + " some of " + chunk + ", unable to tell which ones";
+        }
+        return "Failed to " + action + " " + failed;
+    }
+
+    /**
+     * Find which of these files are checked out in the current view.
+     *
+     * @return The checked out files, or null if cleartool couldn't tell.
+     */
+    private Set<File> checkedOutInView(List<String> files) {
+        List<String> options = Arrays.asList("lscheckout", "-cview", "-short");
+        byte[] output;
+        try {
+            output = cleartoolWithOutput(command(options, null, files));
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        Set<File> result = new HashSet<File>();
+        try {
+            for (Object o : IOUtils.readLines(new ByteArrayInputStream(output), "ISO-8859-1")) {
+                String line = (String) o;
+                int extendedNaming = line.indexOf("@@");
+                if (extendedNaming > 0) {
+                    line = line.substring(0, extendedNaming);
+                }
+                if (line.trim().length() > 0) {
+                    result.add(new File(line.trim()).getAbsoluteFile());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the missing label types, in the VOB of each module, and applies the labels. Modules whose pom.xml, as
+     * selected by the view, already carries the label are skipped. They are found with one single find per label.
      */
     @Override
-    public void label(List<Module> modules) {
-        List<Module> modulesToLabel = new LinkedList<Module>();
+    public void label(List<Module> modules, Progress progress) {
+        Map<String, List<Module>> modulesPerLabel = new TreeMap<String, List<Module>>();
+        List<Module> unlabeled = new ArrayList<Module>();
         for (Module module : modules) {
             String label = module.label();
             if (label != null && label.length() > 0) {
-                modulesToLabel.add(module);
+                List<Module> labelModules = modulesPerLabel.get(label);
+                if (labelModules == null) {
+                    labelModules = new LinkedList<Module>();
+                    modulesPerLabel.put(label, labelModules);
+                }
+                labelModules.add(module);
+            } else {
+                unlabeled.add(module);
+            }
+        }
+        if (! unlabeled.isEmpty()) {
+            progress.done(unlabeled);
+        }
+        if (modulesPerLabel.isEmpty()) {
+            return;
+        }
+
+        // Label types are per VOB.
+        Set<File> dirs = new LinkedHashSet<File>();
+        for (List<Module> labelModules : modulesPerLabel.values()) {
+            for (Module module : labelModules) {
+                dirs.add(module.pomFile().getParentFile());
             }
         }
+        Map<File, String> vobs = vobs(dirs);
 
-        // Remove duplicate label names.
+        // Skip modules that already are labeled.
         Set<String> labels = new TreeSet<String>();
+        List<Module> modulesToLabel = new LinkedList<Module>();
+        List<Module> labeled = new ArrayList<Module>();
+        for (Map.Entry<String, List<Module>> entry : modulesPerLabel.entrySet()) {
+            Set<File> alreadyLabeled = labeledInView(entry.getKey(), entry.getValue(), vobs);
+            for (Module module : entry.getValue()) {
+                if (alreadyLabeled.contains(module.pomFile().getAbsoluteFile())) {
+                    System.out.println(module.pomFile() + " is already labeled " + entry.getKey());
+                    labeled.add(module);
+                } else {
+                    labels.add(entry.getKey());
+                    modulesToLabel.add(module);
+                }
+            }
+        }
+        if (! labeled.isEmpty()) {
+            progress.done(labeled);
+        }
+
+        // Create the label types that don't exist in the VOB of a module.
+        Map<String, Set<String>> missingPerVob = new TreeMap<String, Set<String>>();
         for (Module module : modulesToLabel) {
-            labels.add(module.label());
+            String vob = vobs.get(module.pomFile().getParentFile());
+            if (! labelTypes(vob).contains(module.label())) {
+                Set<String> missing = missingPerVob.get(vob);
+                if (missing == null) {
+                    missing = new TreeSet<String>();
+                    missingPerVob.put(vob, missing);
+                }
+                missing.add(module.label());
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : missingPerVob.entrySet()) {
+            mklbtype(entry.getKey(), new ArrayList<String>(entry.getValue()));
         }
 
-        // Create label types.
+        // Apply the labels to the modules.
+        List<Labeling> labelings = new ArrayList<Labeling>();
         for (String label : labels) {
-            mklbtype(label);
+            labelings.addAll(labelings(label, modulesToLabel, vobs));
+        }
+        LabelProgress labelProgress = new LabelProgress(labelings, progress);
+        if (labelConcurrency == 1 || labelings.size() < 2) {
+            long start = System.currentTimeMillis();
+            AtomicInteger done = new AtomicInteger();
+            for (Labeling labeling : labelings) {
+                apply(labeling, done, labelings.size(), labelProgress);
+            }
+            if (labelings.size() > 1) {
+                System.out.println("Applied " + labelings.size() + " labels in " + seconds(start));
+            }
+        } else {
+            labelInParallel(labelings, vobs, labelProgress);
         }
+    }
 
-        // Apply the labels to the modules.
-        for (Module module : modulesToLabel) {
-            if (module.labelOnlyPomXml()) {
-                mklabel(module.label(), false, module.pomFile(), module.pomFile().getParentFile());
-            } else {
-                mklabel(module.label(), true, module.pomFile().getParentFile());
+    /**
+     * Find the mklabel needed to apply this label to the modules that should have it. A recursive label is skipped
+     * when a recursive label on an ancestor directory covers it, and so is a pom.xml only label. All pom.xml only
+     * labels in the same VOB are applied together, by as few mklabel as the command line length allows.
+     *
+     * @param vobs The VOB of each module directory.
+     */
+    private List<Labeling> labelings(String label, List<Module> modules, Map<File, String> vobs) {
+        PathTrie recursive = new PathTrie();
+        for (Module module : modules) {
+            if (label.equals(module.label()) && ! module.labelOnlyPomXml()) {
+                recursive.add(module.pomFile().getParentFile());
+            }
+        }
+
+        // The modules covered by each recursive label.
+        Map<File, List<Module>> modulesPerRoot = new HashMap<File, List<Module>>();
+        for (Module module : modules) {
+            File covering = recursive.covering(module.pomFile().getParentFile());
+            if (label.equals(module.label()) && covering != null) {
+                List<Module> rootModules = modulesPerRoot.get(covering);
+                if (rootModules == null) {
+                    rootModules = new ArrayList<Module>();
+                    modulesPerRoot.put(covering, rootModules);
+                }
+                rootModules.add(module);
+            }
+        }
+
+        List<Labeling> result = new ArrayList<Labeling>();
+        for (File dir : recursive.roots()) {
+            result.add(new Labeling(label, true, dir.getPath(), dir, Arrays.asList(dir), modulesPerRoot.get(dir)));
+        }
+
+        // The pom.xml files and their directories, with the first module directory, per VOB.
+        Map<String, Set<File>> pomTargetsPerVob = new LinkedHashMap<String, Set<File>>();
+        Map<String, File> dirPerVob = new HashMap<String, File>();
+        Map<String, Module> modulePerTarget = new HashMap<String, Module>();
+        for (Module module : modules) {
+            if (! label.equals(module.label())) {
+                continue;
+            }
+            File dir = module.pomFile().getParentFile();
+            File covering = recursive.covering(dir);
+            if (covering != null && ! covering.getAbsoluteFile().equals(dir.getAbsoluteFile())) {
+                System.out.println(dir + " is labeled " + label + " by the recursive label of " + covering);
+            }
+            if (module.labelOnlyPomXml() && covering == null) {
+                String vob = vobs.get(dir);
+                Set<File> pomTargets = pomTargetsPerVob.get(vob);
+                if (pomTargets == null) {
+                    pomTargets = new LinkedHashSet<File>();
+                    pomTargetsPerVob.put(vob, pomTargets);
+                    dirPerVob.put(vob, dir);
+                }
+                pomTargets.add(module.pomFile());
+                pomTargets.add(dir);
+                modulePerTarget.put(module.pomFile().getPath(), module);
+                modulePerTarget.put(dir.getPath(), module);
+            }
+        }
+        List<String> options = Arrays.asList("mklabel", "-replace", "-nc", label);
+        for (Map.Entry<String, Set<File>> entry : pomTargetsPerVob.entrySet()) {
+            for (List<String> chunk : chunks(paths(entry.getValue()), fixedLength(options, null))) {
+                List<File> targets = new ArrayList<File>();
+                Set<Module> chunkModules = new LinkedHashSet<Module>();
+                for (String path : chunk) {
+                    targets.add(new File(path));
+                    chunkModules.add(modulePerTarget.get(path));
+                }
+                String name = targets.size() == 2 ? targets.get(0).getPath() : targets.size() / 2 + " pom.xml files";
+                result.add(new Labeling(label, false, name, dirPerVob.get(entry.getKey()), targets,
+                        new ArrayList<Module>(chunkModules)));
             }
         }
+        return result;
     }
 
-    private void mklbtype(String label) {
-        Map<String, Object> map = new HashMap<String, Object>();
-        map.put("label", label);
+    /**
+     * One mklabel to apply.
+     */
+    private static class Labeling {
+        final String label;
+        final boolean recurse;
+        final String name;
+        final File dir;
+        final List<File> targets;
+        final List<Module> modules;
 
-        CommandLine cmdLine = new CommandLine(commandPath);
-        cmdLine.addArgument("mklbtype");
-        cmdLine.addArgument("-nc");
-        cmdLine.addArgument("${label}");
-        cmdLine.setSubstitutionMap(map);
+        /**
+         * @param name What is labeled, for the progress report.
+         * @param dir A directory in the VOB of the targets.
+         * @param modules The modules that are labeled once this, and any other Labeling of them, is applied.
+         */
+        Labeling(String label, boolean recurse, String name, File dir, List<File> targets, List<Module> modules) {
+            this.label = label;
+            this.recurse = recurse;
+            this.name = name;
+            this.dir = dir;
+            this.targets = targets;
+            this.modules = modules;
+        }
+    }
+
+    /**
+     * Reports a module as labeled when all Labeling of it are applied. A pom.xml and its directory may end up in
+     * different mklabel when they don't fit on the same command line.
+     */
+    private static class LabelProgress {
+        private final Map<Module, Integer> remaining = new IdentityHashMap<Module, Integer>();
+        private final Progress progress;
+
+        LabelProgress(List<Labeling> labelings, Progress progress) {
+            this.progress = progress;
+            for (Labeling labeling : labelings) {
+                for (Module module : labeling.modules) {
+                    Integer count = remaining.get(module);
+                    remaining.put(module, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        synchronized void applied(Labeling labeling) {
+            List<Module> labeled = new ArrayList<Module>();
+            for (Module module : labeling.modules) {
+                int count = remaining.get(module) - 1;
+                remaining.put(module, count);
+                if (count == 0) {
+                    labeled.add(module);
+                }
+            }
+            if (! labeled.isEmpty()) {
+                progress.done(labeled);
+            }
+        }
+    }
+
+    /**
+     * Apply the label and report the progress.
+     * @param done Number of labels applied so far, also the failed ones.
+     */
+    private void apply(Labeling labeling, AtomicInteger done, int total, LabelProgress labelProgress) {
+        long start = System.currentTimeMillis();
+        try {
+            mklabel(labeling.label, labeling.recurse, labeling.targets.toArray(new File[labeling.targets.size()]));
+        } catch (RuntimeException e) {
+            System.out.println("Failed to label " + labeling.name + " with " + labeling.label + " after "
+                    + seconds(start) + " (" + done.incrementAndGet() + "/" + total + ")");
+            throw e;
+        }
+        System.out.println("Labeled " + labeling.name + " with " + labeling.label + " in " + seconds(start)
+                + " (" + done.incrementAndGet() + "/" + total + ")");
+        labelProgress.applied(labeling);
+    }
+
+    private static String seconds(long start) {
+        return String.format("%.1f s", (System.currentTimeMillis() - start) / 1000.0);
+    }
+
+    /**
+     * Apply the labels with up to cleartool.labelconcurrency mklabel at a time, but no more than
+     * cleartool.labelconcurrencypervob at a time in each VOB, since a mklabel holds a lock on its VOB. All labels
+     * are tried even if some fail. With cleartool.session=true each worker runs its own cleartool session.
+     */
+    private void labelInParallel(List<Labeling> labelings, Map<File, String> vobs, final LabelProgress labelProgress) {
+        long start = System.currentTimeMillis();
+        Map<String, Queue<Labeling>> perVob = new LinkedHashMap<String, Queue<Labeling>>();
+        for (Labeling labeling : labelings) {
+            String vob = vobs.get(labeling.dir);
+            Queue<Labeling> queue = perVob.get(vob);
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<Labeling>();
+                perVob.put(vob, queue);
+            }
+            queue.add(labeling);
+        }
+
+        final int total = labelings.size();
+        final AtomicInteger done = new AtomicInteger();
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicReference<RuntimeException> firstFailure = new AtomicReference<RuntimeException>();
+
+        // Each worker labels from the queue of one VOB until it is empty.
+        List<Runnable> workers = new ArrayList<Runnable>();
+        for (final Queue<Labeling> queue : perVob.values()) {
+            for (int i = 0; i < Math.min(labelConcurrencyPerVob, queue.size()); i++) {
+                workers.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (useSession) {
+                            try {
+                                workerSession.set(startSession());
+                            } catch (RuntimeException e) {
+                                System.err.println("Unable to start a cleartool session, labeling in the shared one");
+                            }
+                        }
+                        try {
+                            for (Labeling labeling = queue.poll(); labeling != null; labeling = queue.poll()) {
+                                try {
+                                    apply(labeling, done, total, labelProgress);
+                                } catch (RuntimeException e) {
+                                    failures.add(labeling.name + " (" + labeling.label + ")");
+                                    firstFailure.compareAndSet(null, e);
+                                }
+                            }
+                        } finally {
+                            ClearcaseSession own = workerSession.get();
+                            workerSession.remove();
+                            if (own != null) {
+                                try {
+                                    own.close();
+                                } catch (IOException e) {
+                                    // The labels are applied, which is what matters.
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(labelConcurrency, workers.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Runnable worker : workers) {
+                futures.add(pool.submit(worker));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while labeling");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (! failures.isEmpty()) {
+            throw new RuntimeException("Failed to label " + failures, firstFailure.get());
+        }
+        System.out.println("Applied " + total + " labels in " + perVob.size() + " VOBs in " + seconds(start));
+    }
+
+    /**
+     * Find the VOB of each module directory, with as few describe as the command line length allows. If the VOBs
+     * can't be found, all directories are treated as being in the same VOB.
+     *
+     * @return The VOB tag per directory.
+     */
+    private Map<File, String> vobs(Set<File> dirs) {
+        Map<File, String> result = new HashMap<File, String>();
+        List<String> options = Arrays.asList("describe", "-short");
+        for (List<String> chunk : chunks(paths(dirs), fixedLength(options, null))) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            CommandLine cmdLine = new CommandLine(commandPath);
+            for (String option : options) {
+                cmdLine.addArgument(option);
+            }
+            int index = 0;
+            for (String dir : chunk) {
+                index++;
+                String argname = "vob" + index;
+                map.put(argname, "vob:" + dir);
+                cmdLine.addArgument("${" + argname + "}");
+            }
+            cmdLine.setSubstitutionMap(map);
+
+            List<String> lines;
+            try {
+                lines = nonEmptyLines(cleartoolWithOutput(cmdLine));
+            } catch (RuntimeException e) {
+                lines = null;
+            }
+            if (lines == null || lines.size() != chunk.size()) {
+                System.err.println("Unable to find the VOB of each module, treating them as if they all are in the VOB"
+                        + " of the current directory");
+                result.clear();
+                for (File dir : dirs) {
+                    result.put(dir, "");
+                }
+                return result;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                result.put(new File(chunk.get(i)), lines.get(i).trim());
+            }
+        }
+        return result;
+    }
+
+    private static List<String> nonEmptyLines(byte[] output) {
+        List<String> result = new ArrayList<String>();
+        try {
+            for (Object o : IOUtils.readLines(new ByteArrayInputStream(output), "ISO-8859-1")) {
+                String line = (String) o;
+                if (line.trim().length() > 0) {
+                    result.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Find which of these modules that already carry this label, in the versions selected by the view. A module
+     * labeled recursively only counts if nothing below its directory lacks the label, since an interrupted
+     * mklabel -recurse usually has labeled the pom.xml already. Only the directories whose pom.xml carries the label
+     * are searched for versions without it.
+     *
+     * @param vobs The VOB of each module directory.
+     * @return The pom.xml files of the labeled modules.
+     */
+    private Set<File> labeledInView(String label, List<Module> allModules, Map<File, String> vobs) {
+        Set<File> result = new HashSet<File>();
+        // Nothing can carry a label whose type doesn't exist yet in its VOB.
+        List<Module> modules = new ArrayList<Module>();
+        for (Module module : allModules) {
+            if (labelTypes(vobs.get(module.pomFile().getParentFile())).contains(label)) {
+                modules.add(module);
+            }
+        }
+        if (modules.isEmpty()) {
+            return result;
+        }
+
+        Set<File> pomFiles = new LinkedHashSet<File>();
+        for (Module module : modules) {
+            pomFiles.add(module.pomFile().getAbsoluteFile());
+        }
+        result.addAll(findVersions(pomFiles, true, "lbtype(" + label + ")"));
+
+        Set<File> dirs = new LinkedHashSet<File>();
+        for (Module module : modules) {
+            File file = module.pomFile().getAbsoluteFile();
+            if (! module.labelOnlyPomXml() && result.contains(file)) {
+                dirs.add(file.getParentFile());
+            }
+        }
+        if (! dirs.isEmpty()) {
+            Set<File> incomplete = new HashSet<File>();
+            for (File unlabeled : findVersions(dirs, false, "!lbtype(" + label + ")")) {
+                for (File current = unlabeled; current != null; current = current.getParentFile()) {
+                    if (dirs.contains(current)) {
+                        incomplete.add(current);
+                    }
+                }
+            }
+            for (Module module : modules) {
+                File file = module.pomFile().getAbsoluteFile();
+                if (! module.labelOnlyPomXml() && incomplete.contains(file.getParentFile())) {
+                    result.remove(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the elements whose version selected by the view matches this query, with as few find as the command line
+     * length allows.
+     * @param nrecurse If true, only the given files are looked at. Otherwise everything below the directories too.
+     * @return The elements found.
+     */
+    private Set<File> findVersions(Set<File> paths, boolean nrecurse, String query) {
+        List<String> options = Arrays.asList("find", "-nrecurse", "-cview", "-version", query, "-print");
+
+        Set<File> result = new HashSet<File>();
+        for (List<String> chunk : chunks(paths(paths), fixedLength(options, null))) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("query", query);
+            CommandLine cmdLine = new CommandLine(commandPath);
+            cmdLine.addArgument("find");
+            int index = 0;
+            for (String path : chunk) {
+                index++;
+                String argname = "file" + index;
+                map.put(argname, new File(path));
+                cmdLine.addArgument("${" + argname + "}");
+            }
+            if (nrecurse) {
+                cmdLine.addArgument("-nrecurse");
+            }
+            cmdLine.addArgument("-cview");
+            cmdLine.addArgument("-version");
+            cmdLine.addArgument("${query}");
+            cmdLine.addArgument("-print");
+            cmdLine.setSubstitutionMap(map);
+
+            for (String line : nonEmptyLines(cleartoolWithOutput(cmdLine))) {
+                int extendedNaming = line.indexOf("@@");
+                if (extendedNaming > 0) {
+                    result.add(new File(line.substring(0, extendedNaming)).getAbsoluteFile());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The label types in this VOB. They are listed by the first call for the VOB, and then kept up to date by
+     * mklbtype.
+     *
+     * @param vob VOB tag, or "" for the VOB of the current directory.
+     */
+    private synchronized Set<String> labelTypes(String vob) {
+        Set<String> labelTypes = labelTypesPerVob.get(vob);
+        if (labelTypes == null) {
+            labelTypes = new HashSet<String>();
+            labelTypesPerVob.put(vob, labelTypes);
+            Map<String, Object> map = new HashMap<String, Object>();
+            CommandLine cmdLine = new CommandLine(commandPath);
+            cmdLine.addArgument("lstype");
+            cmdLine.addArgument("-kind");
+            cmdLine.addArgument("lbtype");
+            cmdLine.addArgument("-short");
+            if (vob.length() > 0) {
+                cmdLine.addArgument("-invob");
+                cmdLine.addArgument("${vob}");
+                map.put("vob", vob);
+            }
+            cmdLine.setSubstitutionMap(map);
+            try {
+                for (String line : nonEmptyLines(cleartoolWithOutput(cmdLine))) {
+                    labelTypes.add(line.trim());
+                }
+            } catch (RuntimeException e) {
+                // Then all label types are created, and mklbtype tells if any of them already existed.
+                System.err.println("Unable to list the label types: " + e.getMessage());
+            }
+        }
+        return labelTypes;
+    }
+
+    /**
+     * Create these label types in this VOB, with as few mklbtype as the command line length allows.
+     *
+     * @param vob VOB tag, or "" for the VOB of the current directory.
+     */
+    private synchronized void mklbtype(String vob, List<String> labels) {
+        if (labels.isEmpty()) {
+            return;
+        }
+        List<String> selectors = new ArrayList<String>();
+        for (String label : labels) {
+            selectors.add(vob.length() > 0 ? label + "@" + vob : label);
+        }
+        List<String> options = Arrays.asList("mklbtype", "-nc");
+        for (List<String> chunk : chunks(selectors, fixedLength(options, null))) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            CommandLine cmdLine = new CommandLine(commandPath);
+            for (String option : options) {
+                cmdLine.addArgument(option);
+            }
+            int index = 0;
+            for (String label : chunk) {
+                index++;
+                String argname = "label" + index;
+                map.put(argname, label);
+                cmdLine.addArgument("${" + argname + "}");
+            }
+            cmdLine.setSubstitutionMap(map);
 
-        execute(cmdLine, null);
+            cleartool(cmdLine, DEFAULTTIMEOUT);
+            for (String selector : chunk) {
+                labelTypes(vob).add(labels.get(selectors.indexOf(selector)));
+            }
+        }
     }
 
     private void mklabel(String label, boolean recurse, File ... targets) {
@@ -249,6 +1166,6 @@ public class Clearcase extends AbstractVersionControl {
 
         cmdLine.setSubstitutionMap(map);
 
-        execute(cmdLine, null, labelTimeout);
+        cleartool(cmdLine, labelTimeout);
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One interactive cleartool process that runs one command at a time, read from standard in. This saves the start
+ * of a new cleartool, and the attach to the view and VOBs, for each command.
+ *
+ * Interactive cleartool has no exit code per command. The end of each command is found by letting cleartool echo
+ * a unique marker on standard out and on standard error after it, and a command has failed if it wrote a
+ * "cleartool: Error:" line to standard error.
+ */
+class ClearcaseSession implements Closeable {
+    private static final String PROMPT = "cleartool> ";
+    private static final String ERROR = "cleartool: Error:";
+    private static final String CHARSET = "ISO-8859-1";
+    /**
+     * Put on a queue when the stream has ended.
+     */
+    private static final String END = new String("end of stream");
+
+    private final Process process;
+    private final OutputStream commands;
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<String>();
+    private final BlockingQueue<String> errors = new LinkedBlockingQueue<String>();
+    private int count;
+    private boolean alive = true;
+
+    /**
+     * Start cleartool.
+     * @param commandPath The cleartool command.
+     * @throws IOException If cleartool couldn't be started.
+     */
+    ClearcaseSession(String commandPath) throws IOException {
+        process = new ProcessBuilder(commandPath).start();
+        commands = process.getOutputStream();
+        startReader(process.getInputStream(), output, "cleartool stdout");
+        startReader(process.getErrorStream(), errors, "cleartool stderr");
+    }
+
+    private static void startReader(final InputStream stream, final BlockingQueue<String> queue, String name) {
+        Thread reader = new Thread(name) {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(stream, CHARSET));
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        queue.add(line);
+                    }
+                } catch (IOException e) {
+                    // Treated as the end of the stream.
+                } finally {
+                    queue.add(END);
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return false if cleartool has stopped, or has been stopped because of a time out.
+     */
+    synchronized boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Run one command and wait for it to finish.
+     * @param arguments The arguments to cleartool, each one already quoted if needed.
+     * @param timeout Time out in ms. If -1, wait forever.
+     * @return Everything the command wrote to standard out.
+     * @throws RuntimeException If the command failed, timed out or cleartool stopped.
+     */
+    synchronized byte[] run(String[] arguments, int timeout) {
+        if (! alive) {
+            throw new IllegalStateException("The cleartool session has stopped");
+        }
+        long deadline = timeout == -1 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        String marker = "mavenversionbumper-" + (++count) + "-" + System.nanoTime();
+
+        StringBuilder sb = new StringBuilder();
+        for (String argument : arguments) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(argument);
+        }
+        String commandLine = sb.toString();
+        // The rest of the line would run as commands of their own.
+        if (commandLine.indexOf('\n') != -1 || commandLine.indexOf('\r') != -1) {
+            throw new IllegalArgumentException("A cleartool command in a session can't span lines: " + commandLine);
+        }
+        try {
+            commands.write((commandLine + "\n"
+                    + "shell echo " + marker + "\n"
+                    + "shell echo " + marker + " 1>&2\n").getBytes(CHARSET));
+            commands.flush();
+        } catch (IOException e) {
+            stop();
+            throw new RuntimeException("Unable to send command to cleartool: " + commandLine, e);
+        }
+
+        List<String> outputLines = readUntil(output, marker, deadline, commandLine);
+        List<String> errorLines = readUntil(errors, marker, deadline, commandLine);
+
+        boolean failed = false;
+        StringBuilder errorText = new StringBuilder();
+        for (String line : errorLines) {
+            errorText.append(line).append('\n');
+            if (line.startsWith(ERROR)) {
+                failed = true;
+            }
+        }
+        if (failed) {
+            throw new RuntimeException("cleartool " + commandLine + " failed:\n" + errorText);
+        }
+        if (errorText.length() > 0) {
+            System.err.print(errorText);
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            for (String line : outputLines) {
+                result.write((line + "\n").getBytes(CHARSET));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result.toByteArray();
+    }
+
+    private List<String> readUntil(BlockingQueue<String> queue, String marker, long deadline, String commandLine) {
+        List<String> lines = new ArrayList<String>();
+        while (true) {
+            String line;
+            try {
+                line = queue.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stop();
+                throw new RuntimeException("Interrupted while waiting for cleartool " + commandLine, e);
+            }
+            if (line == null) {
+                stop();
+                throw new RuntimeException("Timed out waiting for cleartool " + commandLine);
+            }
+            if (line == END) {
+                stop();
+                throw new RuntimeException("cleartool stopped unexpectedly while running " + commandLine);
+            }
+            while (line.startsWith(PROMPT)) {
+                line = line.substring(PROMPT.length());
+            }
+            if (line.trim().equals(marker)) {
+                return lines;
+            }
+            lines.add(line);
+        }
+    }
+
+    private void stop() {
+        alive = false;
+        process.destroy();
+    }
+
+    /**
+     * Ask cleartool to quit, and wait for it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (! alive) {
+            return;
+        }
+        alive = false;
+        try {
+            commands.write("quit\n".getBytes(CHARSET));
+            commands.close();
+            process.waitFor();
+        } catch (IOException e) {
+            process.destroy();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import java.io.File;
+
+/**
+ * What is known about one version control command after it has run.
+ */
+public class CommandEvent {
+    /**
+     * Used for values that couldn't be measured.
+     */
+    public static final long UNKNOWN = -1;
+
+    private final String backend;
+    private final String verb;
+    private final String commandLine;
+    private final File workDir;
+    private final long start;
+    private final long wallMillis;
+    private final int exitCode;
+    private final long stdoutBytes;
+    private final long stderrBytes;
+    private final long childCpuMillis;
+    private final long peakRssKb;
+
+    /**
+     * @param backend The version control that ran the command, like "git".
+     * @param verb The command and its sub command, like "git commit".
+     * @param commandLine The whole command line.
+     * @param workDir The working directory, or null for the working directory of this process.
+     * @param start When the command was started, in ms since the epoch.
+     * @param wallMillis How long the command ran.
+     * @param exitCode The exit code of the command.
+     * @param stdoutBytes Number of bytes written to standard out.
+     * @param stderrBytes Number of bytes written to standard error.
+     * @param childCpuMillis User and system CPU time of the command, or UNKNOWN.
+     * @param peakRssKb Peak resident set size of the command in kB, or UNKNOWN.
+     */
+    public CommandEvent(String backend, String verb, String commandLine, File workDir, long start, long wallMillis,
+                        int exitCode, long stdoutBytes, long stderrBytes, long childCpuMillis, long peakRssKb) {
+        this.backend = backend;
+        this.verb = verb;
+        this.commandLine = commandLine;
+        this.workDir = workDir;
+        this.start = start;
+        this.wallMillis = wallMillis;
+        this.exitCode = exitCode;
+        this.stdoutBytes = stdoutBytes;
+        this.stderrBytes = stderrBytes;
+        this.childCpuMillis = childCpuMillis;
+        this.peakRssKb = peakRssKb;
+    }
+
+    /**
+     * @return The verb of a command line: the executable, without path and .exe, followed by the first argument
+     * unless it is an option.
+     */
+    static String verb(String executable, String[] arguments) {
+        String name = new File(executable).getName();
+        if (name.toLowerCase().endsWith(".exe")) {
+            name = name.substring(0, name.length() - ".exe".length());
+        }
+        if (arguments.length > 0 && arguments[0].length() > 0 && !arguments[0].startsWith("-")) {
+            return name + " " + arguments[0];
+        }
+        return name;
+    }
+
+    public String backend() {
+        return backend;
+    }
+
+    public String verb() {
+        return verb;
+    }
+
+    public String commandLine() {
+        return commandLine;
+    }
+
+    public File workDir() {
+        return workDir;
+    }
+
+    public long start() {
+        return start;
+    }
+
+    public long wallMillis() {
+        return wallMillis;
+    }
+
+    public int exitCode() {
+        return exitCode;
+    }
+
+    public long stdoutBytes() {
+        return stdoutBytes;
+    }
+
+    public long stderrBytes() {
+        return stderrBytes;
+    }
+
+    public long childCpuMillis() {
+        return childCpuMillis;
+    }
+
+    public long peakRssKb() {
+        return peakRssKb;
+    }
+
+    @Override
+    public String toString() {
+        return backend + ": " + commandLine + (workDir != null ? " in " + workDir : "") + ", exit " + exitCode
+                + ", " + wallMillis + " ms, " + stdoutBytes + "/" + stderrBytes + " bytes out/err"
+                + (childCpuMillis != UNKNOWN ? ", " + childCpuMillis + " ms CPU" : "")
+                + (peakRssKb != UNKNOWN ? ", " + peakRssKb + " kB peak RSS" : "");
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteStreamHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.Executor;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands for one version control. Each command gets its own DefaultExecutor, so no settings are shared
+ * between commands and they can run at the same time, but no more than a limited number at a time.
+ *
+ * A CommandEvent is recorded in CommandTelemetry for each command.
+ *
+ * Commands can also be submitted to run in the background. They are then run on virtual threads when the JVM has
+ * them, and on a pool with one daemon thread per allowed command otherwise. The threads are stopped by close().
+ */
+class CommandRunner {
+    private static final Logger logger = Logger.getLogger(CommandRunner.class);
+
+    private final String backend;
+    private final int concurrency;
+    private final Semaphore permits;
+    private ExecutorService pool;
+    private Executor executor;
+
+    /**
+     * @param backend Name of the version control, for the CommandEvents.
+     * @param concurrency The number of commands that may run at the same time.
+     */
+    CommandRunner(String backend, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one command must be allowed to run");
+        }
+        this.backend = backend;
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * @return The executor shared by all commands, or null if each command gets its own DefaultExecutor.
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Let all commands use this executor, one at a time since it keeps its settings between commands.
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run the command in this thread, once there is room for it.
+     * @param cmdLine Command line to execute.
+     * @param workDir Working directory, or null if process default working directory should be used.
+     * @param timeout Time out in ms. If -1, don't set any time out.
+     * @param executeStreamHandler Stream handler of the command.
+     */
+    void run(CommandLine cmdLine, File workDir, int timeout, ExecuteStreamHandler executeStreamHandler) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to run " + cmdLine, e);
+        }
+        try {
+            Executor shared = executor;
+            if (shared == null) {
+                runAndRecord(new TrackingExecutor(), cmdLine, workDir, timeout, executeStreamHandler);
+            } else {
+                synchronized (shared) {
+                    runAndRecord(shared, cmdLine, workDir, timeout, executeStreamHandler);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Run the command and record a CommandEvent for it, also when it fails. The CPU time is the time of the children
+     * of this process that ended while the command ran, so it also includes other commands that ended then.
+     */
+    private void runAndRecord(Executor executor, CommandLine cmdLine, File workDir, int timeout,
+                              ExecuteStreamHandler executeStreamHandler) {
+        CountingOutputStream out = null;
+        CountingOutputStream err = null;
+        if (executeStreamHandler instanceof ExposingPumpStreamHandler) {
+            ExposingPumpStreamHandler handler = (ExposingPumpStreamHandler) executeStreamHandler;
+            out = new CountingOutputStream(handler.getOutputStream());
+            err = new CountingOutputStream(handler.getErrorStream());
+            executeStreamHandler = new ExposingPumpStreamHandler(out, err, handler.getInputStream());
+        }
+
+        long start = System.currentTimeMillis();
+        long cpuBefore = ProcStats.childCpuMillis();
+        int exitCode = -1;
+        try {
+            exitCode = execute(executor, cmdLine, workDir, timeout, executeStreamHandler);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ExecuteException) {
+                exitCode = ((ExecuteException) e.getCause()).getExitValue();
+            }
+            throw e;
+        } finally {
+            long wallMillis = System.currentTimeMillis() - start;
+            long cpuAfter = ProcStats.childCpuMillis();
+            long peakRssKb = executor instanceof TrackingExecutor
+                    ? ((TrackingExecutor) executor).stopSampling() : CommandEvent.UNKNOWN;
+            CommandTelemetry.record(new CommandEvent(backend, CommandEvent.verb(cmdLine.getExecutable(), cmdLine.getArguments()),
+                    cmdLine.toString(), workDir, start, wallMillis, exitCode,
+                    out != null ? out.getByteCount() : 0, err != null ? err.getByteCount() : 0,
+                    cpuBefore == CommandEvent.UNKNOWN || cpuAfter == CommandEvent.UNKNOWN
+                            ? CommandEvent.UNKNOWN : cpuAfter - cpuBefore,
+                    peakRssKb));
+        }
+    }
+
+    /**
+     * A DefaultExecutor that samples the peak RSS of the process it launches, as long as the process is there to
+     * be read.
+     */
+    private static class TrackingExecutor extends DefaultExecutor {
+        private static final int SAMPLEINTERVAL = 20;
+        private volatile long peakRssKb = CommandEvent.UNKNOWN;
+        private volatile boolean done;
+        private Thread sampler;
+
+        @Override
+        @SuppressWarnings("rawtypes") // DefaultExecutor in commons-exec 1.1 declares the environment as a raw Map.
+        protected Process launch(CommandLine command, Map env, File dir) throws IOException {
+            Process process = super.launch(command, env, dir);
+            final long pid = ProcStats.pid(process);
+            if (pid != CommandEvent.UNKNOWN && ProcStats.available()) {
+                sampler = new Thread("rss-sampler-" + pid) {
+                    @Override
+                    public void run() {
+                        while (!done) {
+                            peakRssKb = Math.max(peakRssKb, ProcStats.peakRssKb(pid));
+                            try {
+                                Thread.sleep(SAMPLEINTERVAL);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                };
+                sampler.setDaemon(true);
+                sampler.start();
+            }
+            return process;
+        }
+
+        /**
+         * @return The largest peak RSS seen, in kB, or UNKNOWN.
+         */
+        long stopSampling() {
+            done = true;
+            if (sampler != null) {
+                sampler.interrupt();
+            }
+            return peakRssKb;
+        }
+    }
+
+    /**
+     * Run the command in the background.
+     * @return Everything the command wrote to standard out. The future fails with a RuntimeException if the
+     * command fails.
+     */
+    Future<byte[]> submit(final CommandLine cmdLine, final File workDir, final int timeout) {
+        return pool().submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                run(cmdLine, workDir, timeout, new ExposingPumpStreamHandler(bos, System.err));
+                return bos.toByteArray();
+            }
+        });
+    }
+
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = virtualThreadPool();
+            if (pool == null) {
+                final AtomicInteger count = new AtomicInteger();
+                pool = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "command-runner-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Stop the threads of the background commands, once the commands already submitted have run. Commands submitted
+     * after this get new threads.
+     */
+    synchronized void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * @return An executor service that starts a virtual thread per task, or null if the JVM has no virtual threads.
+     */
+    private static ExecutorService virtualThreadPool() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static int execute(Executor executor, CommandLine cmdLine, File workDir, int timeout,
+                               ExecuteStreamHandler executeStreamHandler) {
+        if (timeout != -1) {
+            executor.setWatchdog(new ExecuteWatchdog(timeout));
+        }
+        if (workDir != null) {
+            executor.setWorkingDirectory(workDir);
+        }
+        executor.setStreamHandler(executeStreamHandler);
+
+        logger.debug("Running command: " + cmdLine);
+
+        try {
+            return executor.execute(cmdLine);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
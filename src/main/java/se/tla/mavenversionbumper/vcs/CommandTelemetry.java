@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects a CommandEvent for every version control command of the run, and summarizes them per version control
+ * and verb.
+ */
+public class CommandTelemetry {
+    private static final List<CommandEvent> EVENTS = new ArrayList<CommandEvent>();
+
+    private CommandTelemetry() {
+    }
+
+    public static void record(CommandEvent event) {
+        synchronized (EVENTS) {
+            EVENTS.add(event);
+        }
+    }
+
+    /**
+     * @return All events so far, in the order the commands finished.
+     */
+    public static List<CommandEvent> events() {
+        synchronized (EVENTS) {
+            return new ArrayList<CommandEvent>(EVENTS);
+        }
+    }
+
+    public static void clear() {
+        synchronized (EVENTS) {
+            EVENTS.clear();
+        }
+    }
+
+    /**
+     * @return A table with the number of commands, the total wall and CPU time, the largest peak RSS, the output
+     * and the number of failures, per version control and verb. The verbs that took the longest are listed first.
+     * Null if no commands have been run.
+     */
+    public static String summary() {
+        List<CommandEvent> events = events();
+        if (events.isEmpty()) {
+            return null;
+        }
+
+        Map<String, Total> totals = new LinkedHashMap<String, Total>();
+        for (CommandEvent event : events) {
+            String key = event.backend() + "\t" + event.verb();
+            Total total = totals.get(key);
+            if (total == null) {
+                total = new Total(event.backend(), event.verb());
+                totals.put(key, total);
+            }
+            total.add(event);
+        }
+
+        List<Total> sorted = new ArrayList<Total>(totals.values());
+        Collections.sort(sorted, new Comparator<Total>() {
+            @Override
+            public int compare(Total t1, Total t2) {
+                return t1.wallMillis > t2.wallMillis ? -1 : (t1.wallMillis < t2.wallMillis ? 1 : 0);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-12s %-22s %6s %10s %10s %10s %10s %10s %6s%n",
+                "Backend", "Verb", "Count", "Wall s", "CPU s", "RSS MB", "Out kB", "Err kB", "Failed"));
+        for (Total total : sorted) {
+            sb.append(String.format("%-12s %-22s %6d %10.2f %10s %10s %10.1f %10.1f %6d%n",
+                    total.backend, total.verb, total.count, total.wallMillis / 1000.0,
+                    total.cpuMillis == CommandEvent.UNKNOWN ? "-" : String.format("%.2f", total.cpuMillis / 1000.0),
+                    total.peakRssKb == CommandEvent.UNKNOWN ? "-" : String.format("%.1f", total.peakRssKb / 1024.0),
+                    total.stdoutBytes / 1024.0, total.stderrBytes / 1024.0, total.failed));
+        }
+        return sb.toString();
+    }
+
+    private static class Total {
+        final String backend;
+        final String verb;
+        int count;
+        int failed;
+        long wallMillis;
+        long cpuMillis = CommandEvent.UNKNOWN;
+        long peakRssKb = CommandEvent.UNKNOWN;
+        long stdoutBytes;
+        long stderrBytes;
+
+        Total(String backend, String verb) {
+            this.backend = backend;
+            this.verb = verb;
+        }
+
+        void add(CommandEvent event) {
+            count++;
+            if (event.exitCode() != 0) {
+                failed++;
+            }
+            wallMillis += event.wallMillis();
+            if (event.childCpuMillis() != CommandEvent.UNKNOWN) {
+                cpuMillis = Math.max(cpuMillis, 0) + event.childCpuMillis();
+            }
+            peakRssKb = Math.max(peakRssKb, event.peakRssKb());
+            stdoutBytes += event.stdoutBytes();
+            stderrBytes += event.stderrBytes();
+        }
+    }
+}
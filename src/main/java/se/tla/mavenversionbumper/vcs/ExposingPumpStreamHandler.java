@@ -18,6 +18,7 @@ package se.tla.mavenversionbumper.vcs;
 
 import org.apache.commons.exec.PumpStreamHandler;
 
+import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
@@ -25,8 +26,21 @@ import java.io.OutputStream;
  */
 public class ExposingPumpStreamHandler extends PumpStreamHandler {
 
+    private final InputStream inputStream;
+
     public ExposingPumpStreamHandler(OutputStream outputStream) {
         super(outputStream);
+        this.inputStream = null;
+    }
+
+    public ExposingPumpStreamHandler(OutputStream outputStream, OutputStream errorStream) {
+        super(outputStream, errorStream);
+        this.inputStream = null;
+    }
+
+    public ExposingPumpStreamHandler(OutputStream outputStream, OutputStream errorStream, InputStream inputStream) {
+        super(outputStream, errorStream, inputStream);
+        this.inputStream = inputStream;
     }
 
     public OutputStream getOutputStream() {
@@ -35,4 +49,7 @@ public class ExposingPumpStreamHandler extends PumpStreamHandler {
     public OutputStream getErrorStream() {
         return getErr();
     }
+    public InputStream getInputStream() {
+        return inputStream;
+    }
 }
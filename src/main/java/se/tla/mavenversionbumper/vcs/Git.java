@@ -17,18 +17,28 @@
 package se.tla.mavenversionbumper.vcs;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.FileUtils;
 import se.tla.mavenversionbumper.Module;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
 
 /**
  * Implements VersionControl for the Git versioning system.
  *
- * Requires access to the command line interface git.
+ * Requires access to the command line interface git, unless git.inprocess is set.
  */
 public class Git extends AbstractVersionControl {
     public static final String ACRONYM = "git";
@@ -37,83 +47,537 @@ public class Git extends AbstractVersionControl {
     private static final String COMMANDPATHDEFAULT = "git";
 
     private final String commandPath;
+    private final List<File> repositoryRoots = new LinkedList<File>();
+
+    protected static final String ANNOTATEDTAGS = "git.annotatedtags";
+    private static final String ANNOTATEDTAGSDEFAULT = "false";
+    private final boolean annotatedTags;
+
+    protected static final String INPROCESS = "git.inprocess";
+    private static final String INPROCESSDEFAULT = "false";
+    private final boolean inProcess;
+    private final Map<File, GitRepository> repositories = new HashMap<File, GitRepository>();
 
     public Git(Properties controlProperties) {
+        super(controlProperties);
+
+        commandPath = commandPath(controlProperties);
+
+        annotatedTags = Boolean.parseBoolean(controlProperties.getProperty(ANNOTATEDTAGS, ANNOTATEDTAGSDEFAULT));
+        inProcess = Boolean.parseBoolean(controlProperties.getProperty(INPROCESS, INPROCESSDEFAULT));
+    }
+
+    /**
+     * @param controlProperties Version control properties, that may give git.path.
+     * @return The git command.
+     */
+    public static String commandPath(Properties controlProperties) {
         String commandProperty = controlProperties.getProperty(COMMANDPATH, COMMANDPATHDEFAULT);
         if (System.getProperty("os.name").toLowerCase().contains("windows") &&
                 ! commandProperty.toLowerCase().endsWith(".exe")) {
             commandProperty += ".exe";
         }
-        commandPath = commandProperty;
+        return commandProperty;
     }
 
     /**
-     * {@inheritDoc}
+     * Checks out the pom.xml files that differ from the index. They are found with one git status per repository,
+     * all run at the same time, and checked out with one git checkout per repository through a pathspec file.
      */
     @Override
     public void restore(List<Module> modules) {
+        Map<File, List<File>> filesPerRoot = new LinkedHashMap<File, List<File>>();
         for (Module module : modules) {
-            File parentDir = module.pomFile().getParentFile();
+            File root = repositoryRoot(module.pomFile().getParentFile());
+            List<File> files = filesPerRoot.get(root);
+            if (files == null) {
+                files = new LinkedList<File>();
+                filesPerRoot.put(root, files);
+            }
+            files.add(module.pomFile());
+        }
+
+        // Ask all repositories at the same time.
+        Map<File, Future<byte[]>> statuses = new HashMap<File, Future<byte[]>>();
+        for (File root : filesPerRoot.keySet()) {
+            CommandLine cmdLine = new CommandLine(commandPath);
+            cmdLine.addArgument("status");
+            cmdLine.addArgument("--porcelain");
+            cmdLine.addArgument("-z");
+            cmdLine.addArgument("--untracked-files=no");
+            statuses.put(root, submitWithOutput(cmdLine, root));
+        }
+
+        for (Map.Entry<File, List<File>> entry : filesPerRoot.entrySet()) {
+            File root = entry.getKey();
+            Set<String> modified = modifiedInWorkTree(output(statuses.get(root)));
+            Set<String> paths = new TreeSet<String>();
+            List<File> files = new LinkedList<File>();
+            for (File file : entry.getValue()) {
+                String path = relativePath(root, file);
+                if (modified.contains(path) && paths.add(path)) {
+                    files.add(file);
+                }
+            }
+            if (files.isEmpty()) {
+                continue;
+            }
+
+            File pathspecFile = pathspecFile(root, files);
+            try {
+                Map<String, Object> map = new HashMap<String, Object>();
+                map.put("pathspec", pathspecFile);
 
-            Map<String, Object> map = new HashMap<String, Object>();
-            map.put("file", module.pomFile().getName());
+                CommandLine cmdLine = new CommandLine(commandPath);
+                cmdLine.addArgument("checkout");
+                cmdLine.addArgument("--pathspec-from-file=${pathspec}");
+                cmdLine.addArgument("--pathspec-file-nul");
+                cmdLine.setSubstitutionMap(map);
+
+                execute(cmdLine, root);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                pathspecFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @param status The output of git status --porcelain -z.
+     * @return The paths, relative to the repository root, of the tracked files that differ from the index.
+     */
+    private static Set<String> modifiedInWorkTree(byte[] status) {
+        Set<String> result = new TreeSet<String>();
+        for (Map.Entry<String, String> entry : statusEntries(status).entrySet()) {
+            if (entry.getValue().charAt(1) != ' ') {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
 
+    /**
+     * @param status The output of git status --porcelain -z.
+     * @return The two letter status of each reported path, relative to the repository root.
+     */
+    private static Map<String, String> statusEntries(byte[] status) {
+        String[] entries;
+        try {
+            entries = new String(status, "UTF-8").split("\0");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        Map<String, String> result = new HashMap<String, String>();
+        for (int i = 0; i < entries.length; i++) {
+            // XY SP <path>, followed by the original path for renames and copies.
+            String entry = entries[i];
+            if (entry.length() < 4) {
+                continue;
+            }
+            result.put(entry.substring(3), entry.substring(0, 2));
+            if (entry.charAt(0) == 'R' || entry.charAt(0) == 'C') {
+                i++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Refuses pom.xml files that are outside of any repository, untracked or already changed, in the index or in the
+     * work tree. Each repository is asked with one git status, all run at the same time.
+     */
+    @Override
+    public void preflight(List<Module> modules) {
+        Map<File, String> problems = new LinkedHashMap<File, String>();
+        Map<File, List<File>> filesPerRoot = new LinkedHashMap<File, List<File>>();
+        for (Module module : modules) {
+            File file = module.pomFile();
+            File root;
+            try {
+                root = repositoryRoot(file.getParentFile());
+            } catch (RuntimeException e) {
+                problems.put(file, "not in a git repository");
+                continue;
+            }
+            List<File> files = filesPerRoot.get(root);
+            if (files == null) {
+                files = new LinkedList<File>();
+                filesPerRoot.put(root, files);
+            }
+            files.add(file);
+        }
+
+        Map<File, Future<byte[]>> statuses = new HashMap<File, Future<byte[]>>();
+        for (File root : filesPerRoot.keySet()) {
             CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("checkout");
-            cmdLine.addArgument("${file}");
-            cmdLine.setSubstitutionMap(map);
+            cmdLine.addArgument("status");
+            cmdLine.addArgument("--porcelain");
+            cmdLine.addArgument("-z");
+            cmdLine.addArgument("--untracked-files=all");
+            statuses.put(root, submitWithOutput(cmdLine, root));
+        }
 
-            execute(cmdLine, parentDir);
+        for (Map.Entry<File, List<File>> entry : filesPerRoot.entrySet()) {
+            File root = entry.getKey();
+            Map<String, String> status = statusEntries(output(statuses.get(root)));
+            for (File file : entry.getValue()) {
+                String xy = status.get(relativePath(root, file));
+                if (xy == null) {
+                    continue;
+                }
+                if (xy.equals("??")) {
+                    problems.put(file, "not tracked by git");
+                } else {
+                    problems.put(file, "has uncommitted changes (" + xy.trim() + ")");
+                }
+            }
         }
+        failOnProblems(problems);
     }
 
     /**
-     * {@inheritDoc}
+     * Commits all modules in the same repository, and with the same commit message, together in one commit.
+     * The files are passed to git through a pathspec file to avoid any limits on the length of the command line.
+     * With git.inprocess the commits are instead written directly to the repository, without running git.
      */
     @Override
-    public void commit(List<Module> modules) {
+    public void commit(List<Module> modules, Progress progress) {
+        Map<String, List<Module>> modulesPerCommit = new HashMap<String, List<Module>>();
+        Map<String, List<File>> filesPerCommit = new LinkedHashMap<String, List<File>>();
+        Map<String, File> rootPerCommit = new HashMap<String, File>();
+        Map<String, String> messagePerCommit = new HashMap<String, String>();
+
         for (Module module : modules) {
 
             if (!module.pomFile().exists()) {
                 throw new IllegalArgumentException("File to commit does not exist.");
             }
 
-            File parentDir = module.pomFile().getParentFile();
+            File root = repositoryRoot(module.pomFile().getParentFile());
+            String message = module.commitMessage();
+            String key = root.getPath() + "\n" + message;
 
-            Map<String, Object> map = new HashMap<String, Object>();
-            map.put("file", module.pomFile().getName());
-            map.put("message", module.commitMessage());
+            List<File> files = filesPerCommit.get(key);
+            if (files == null) {
+                files = new LinkedList<File>();
+                filesPerCommit.put(key, files);
+                modulesPerCommit.put(key, new ArrayList<Module>());
+                rootPerCommit.put(key, root);
+                messagePerCommit.put(key, message);
+            }
+            files.add(module.pomFile());
+            modulesPerCommit.get(key).add(module);
+        }
 
-            CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("commit");
-            cmdLine.addArgument("-m");
-            cmdLine.addArgument("${message}");
-            cmdLine.addArgument("${file}");
-            cmdLine.setSubstitutionMap(map);
+        for (Map.Entry<String, List<File>> entry : filesPerCommit.entrySet()) {
+            File root = rootPerCommit.get(entry.getKey());
+            if (inProcess) {
+                try {
+                    if (repository(root).commit(entry.getValue(), messagePerCommit.get(entry.getKey())) == null) {
+                        System.out.println("Nothing to commit in " + root);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                progress.done(modulesPerCommit.get(entry.getKey()));
+                continue;
+            }
+
+            File pathspecFile = pathspecFile(root, entry.getValue());
+            try {
+                Map<String, Object> map = new HashMap<String, Object>();
+                map.put("message", messagePerCommit.get(entry.getKey()));
+                map.put("pathspec", pathspecFile);
+
+                CommandLine cmdLine = new CommandLine(commandPath);
+                cmdLine.addArgument("commit");
+                cmdLine.addArgument("-m");
+                cmdLine.addArgument("${message}");
+                cmdLine.addArgument("--pathspec-from-file=${pathspec}");
+                cmdLine.addArgument("--pathspec-file-nul");
+                cmdLine.setSubstitutionMap(map);
+
+                execute(cmdLine, root);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                pathspecFile.delete();
+            }
+            progress.done(modulesPerCommit.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Find the root of the repository this directory belongs to. Only asks git when the directory isn't below
+     * an already known root, or when it is in a repository nested within a known root.
+     *
+     * @param dir Directory in a git repository.
+     * @return The top level directory of the repository.
+     */
+    protected File repositoryRoot(File dir) {
+        File canonicalDir = canonical(dir);
+
+        for (File root : repositoryRoots) {
+            if (isInRepository(canonicalDir, root)) {
+                return root;
+            }
+        }
+
+        File root;
+        if (inProcess) {
+            root = GitRepository.findWorkTree(canonicalDir);
+            if (root == null) {
+                throw new IllegalStateException("Not in a git repository: " + dir);
+            }
+        } else {
+            String output = gitOutput(dir, "rev-parse", "--show-toplevel").trim();
+            if (output.length() == 0) {
+                throw new IllegalStateException("Not in a git repository: " + dir);
+            }
+            root = canonical(new File(output.split("\n")[0]));
+        }
+        repositoryRoots.add(0, root);
+        return root;
+    }
+
+    private static boolean isInRepository(File dir, File root) {
+        for (File current = dir; current != null; current = current.getParentFile()) {
+            if (current.equals(root)) {
+                return true;
+            }
+            if (new File(current, ".git").exists()) {
+                // The root of another repository.
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * @return The path of the file relative to the repository root, with '/' as separator.
+     */
+    private static String relativePath(File root, File file) {
+        String rootPath = root.getPath();
+        String path = canonical(file).getPath();
+        if (path.startsWith(rootPath + File.separator)) {
+            path = path.substring(rootPath.length() + 1);
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Write the paths of these files, relative to the repository root and separated with NUL, to a temporary file.
+     */
+    private static File pathspecFile(File root, List<File> files) {
+        StringBuilder sb = new StringBuilder();
+        for (File file : files) {
+            sb.append(relativePath(root, file)).append('\0');
+        }
 
-            execute(cmdLine, parentDir);
+        try {
+            File pathspecFile = File.createTempFile("versionbumper", ".pathspec");
+            pathspecFile.deleteOnExit();
+            FileUtils.write(pathspecFile, sb.toString(), "UTF-8");
+            return pathspecFile;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Tags the current HEAD of each repository with all distinct labels of the modules in that repository.
+     * Tags that already points at HEAD are left alone. All other tags of a repository are created, or moved,
+     * in one single update-ref transaction.
      */
     @Override
-    public void label(List<Module> modules) {
+    public void label(List<Module> modules, Progress progress) {
+        Map<File, Set<String>> labelsPerRoot = new LinkedHashMap<File, Set<String>>();
+        Map<File, List<Module>> modulesPerRoot = new HashMap<File, List<Module>>();
+        List<Module> unlabeled = new ArrayList<Module>();
         for (Module module : modules) {
             String label = module.label();
             if (label != null && label.length() > 0) {
-                Map<String, Object> map = new HashMap<String, Object>();
-                map.put("tag", label);
+                File root = repositoryRoot(module.pomFile().getParentFile());
+                Set<String> labels = labelsPerRoot.get(root);
+                if (labels == null) {
+                    labels = new TreeSet<String>();
+                    labelsPerRoot.put(root, labels);
+                    modulesPerRoot.put(root, new ArrayList<Module>());
+                }
+                labels.add(label);
+                modulesPerRoot.get(root).add(module);
+            } else {
+                unlabeled.add(module);
+            }
+        }
+        if (!unlabeled.isEmpty()) {
+            progress.done(unlabeled);
+        }
 
-                CommandLine cmdLine = new CommandLine(commandPath);
-                cmdLine.addArgument("tag");
-                cmdLine.addArgument("-f");
-                cmdLine.addArgument("${tag}");
-                cmdLine.setSubstitutionMap(map);
+        for (Map.Entry<File, Set<String>> entry : labelsPerRoot.entrySet()) {
+            File root = entry.getKey();
+            if (inProcess) {
+                try {
+                    labelInProcess(repository(root), entry.getValue());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                progress.done(modulesPerRoot.get(root));
+                continue;
+            }
 
-                execute(cmdLine, module.pomFile().getParentFile());
+            String head = gitOutput(root, "rev-parse", "HEAD").trim();
+            Map<String, String> existingTags = tags(root);
+
+            List<String> labels = new ArrayList<String>();
+            for (String label : entry.getValue()) {
+                if (head.equals(existingTags.get(label))) {
+                    System.out.println("Tag " + label + " already points at HEAD in " + root);
+                } else {
+                    labels.add(label);
+                }
+            }
+            if (labels.isEmpty()) {
+                progress.done(modulesPerRoot.get(root));
+                continue;
             }
+
+            List<String> targets;
+            if (annotatedTags) {
+                targets = createTagObjects(root, head, labels);
+            } else {
+                targets = Collections.nCopies(labels.size(), "HEAD");
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < labels.size(); i++) {
+                sb.append("update refs/tags/").append(labels.get(i)).append(' ').append(targets.get(i)).append('\n');
+            }
+
+            CommandLine cmdLine = new CommandLine(commandPath);
+            cmdLine.addArgument("update-ref");
+            cmdLine.addArgument("--stdin");
+
+            executeWithInput(cmdLine, root, utf8(sb.toString()));
+            progress.done(modulesPerRoot.get(root));
+        }
+    }
+
+    private void labelInProcess(GitRepository repository, Set<String> labels) throws IOException {
+        String head = repository.head();
+        if (head == null) {
+            throw new IllegalStateException("Nothing to tag in " + repository.workTree());
+        }
+        for (String label : labels) {
+            String refName = "refs/tags/" + label;
+            if (head.equals(repository.peel(repository.resolve(refName)))) {
+                System.out.println("Tag " + label + " already points at HEAD in " + repository.workTree());
+                continue;
+            }
+            String target = annotatedTags ? repository.writeTag(label, head) : head;
+            repository.updateRef(refName, null, target, null);
+        }
+    }
+
+    private GitRepository repository(File root) throws IOException {
+        GitRepository repository = repositories.get(root);
+        if (repository == null) {
+            repository = new GitRepository(root);
+            repositories.put(root, repository);
+        }
+        return repository;
+    }
+
+    /**
+     * Write one annotated tag object per label, all pointing at HEAD, with a single hash-object invocation.
+     *
+     * @return The object ids of the tag objects, in the same order as the labels.
+     */
+    private List<String> createTagObjects(File root, String head, List<String> labels) {
+        String tagger = gitOutput(root, "var", "GIT_COMMITTER_IDENT").trim();
+
+        List<File> tagFiles = new LinkedList<File>();
+        try {
+            StringBuilder paths = new StringBuilder();
+            for (String label : labels) {
+                File tagFile = File.createTempFile("versionbumper", ".tag");
+                tagFile.deleteOnExit();
+                tagFiles.add(tagFile);
+                FileUtils.write(tagFile, "object " + head + "\ntype commit\ntag " + label + "\ntagger " + tagger
+                        + "\n\n" + label + "\n", "UTF-8");
+                paths.append(tagFile.getAbsolutePath()).append('\n');
+            }
+
+            CommandLine cmdLine = new CommandLine(commandPath);
+            cmdLine.addArgument("hash-object");
+            cmdLine.addArgument("-t");
+            cmdLine.addArgument("tag");
+            cmdLine.addArgument("-w");
+            cmdLine.addArgument("--stdin-paths");
+
+            String output = new String(executeWithInput(cmdLine, root, utf8(paths.toString())), "UTF-8");
+            List<String> result = new ArrayList<String>();
+            for (String line : output.split("\n")) {
+                if (line.trim().length() > 0) {
+                    result.add(line.trim());
+                }
+            }
+            if (result.size() != labels.size()) {
+                throw new IllegalStateException("Expected " + labels.size() + " tag objects from git but got " + result.size());
+            }
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (File tagFile : tagFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                tagFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return All tags in the repository and the commit each of them points at.
+     */
+    private Map<String, String> tags(File root) {
+        String output = gitOutput(root, "for-each-ref", "--format=%(refname)%09%(objectname)%09%(*objectname)", "refs/tags");
+
+        Map<String, String> result = new HashMap<String, String>();
+        for (String line : output.split("\n")) {
+            String[] parts = line.trim().split("\t");
+            if (parts.length >= 2 && parts[0].startsWith("refs/tags/")) {
+                // Annotated tags are peeled to the commit they point at.
+                result.put(parts[0].substring("refs/tags/".length()), parts.length > 2 ? parts[2] : parts[1]);
+            }
+        }
+        return result;
+    }
+
+    private String gitOutput(File workDir, String... arguments) {
+        CommandLine cmdLine = new CommandLine(commandPath);
+        for (String argument : arguments) {
+            cmdLine.addArgument(argument);
+        }
+        try {
+            return new String(executeWithOutput(cmdLine, workDir), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
         }
     }
 }
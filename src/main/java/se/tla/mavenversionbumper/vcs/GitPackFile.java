@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads objects from a git pack file through its version 1 or version 2 index. Both kinds of deltas are resolved.
+ */
+class GitPackFile {
+    private static final String[] TYPES = { null, "commit", "tree", "blob", "tag" };
+    private static final int OFS_DELTA = 6;
+    private static final int REF_DELTA = 7;
+
+    private final File packFile;
+    private final int[] fanout = new int[256];
+    private final byte[] ids;
+    private final long[] offsets;
+
+    GitPackFile(File indexFile) throws IOException {
+        String name = indexFile.getName();
+        packFile = new File(indexFile.getParentFile(), name.substring(0, name.length() - ".idx".length()) + ".pack");
+
+        byte[] index = FileUtils.readFileToByteArray(indexFile);
+        int pos = 0;
+        int version = 1;
+        if ((index[0] & 0xff) == 0xff && index[1] == 't' && index[2] == 'O' && index[3] == 'c') {
+            version = readInt(index, 4);
+            if (version != 2) {
+                throw new IOException("Unsupported pack index version " + version + ": " + indexFile);
+            }
+            pos = 8;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            fanout[i] = readInt(index, pos + 4 * i);
+        }
+        pos += 4 * 256;
+
+        int count = fanout[255];
+        ids = new byte[20 * count];
+        offsets = new long[count];
+        if (version == 1) {
+            for (int i = 0; i < count; i++) {
+                offsets[i] = readInt(index, pos) & 0xffffffffL;
+                System.arraycopy(index, pos + 4, ids, 20 * i, 20);
+                pos += 24;
+            }
+        } else {
+            System.arraycopy(index, pos, ids, 0, 20 * count);
+            // Skip the CRC32 table.
+            pos += 24 * count;
+            int largeOffsets = pos + 4 * count;
+            for (int i = 0; i < count; i++) {
+                int offset = readInt(index, pos + 4 * i);
+                if (offset < 0) {
+                    offsets[i] = readLong(index, largeOffsets + 8 * (offset & 0x7fffffff));
+                } else {
+                    offsets[i] = offset;
+                }
+            }
+        }
+    }
+
+    boolean contains(byte[] id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * @return The object, or null if it isn't in this pack.
+     */
+    GitRepository.GitObject read(byte[] id, GitRepository repository) throws IOException {
+        int position = find(id);
+        if (position < 0) {
+            return null;
+        }
+
+        RandomAccessFile pack = new RandomAccessFile(packFile, "r");
+        try {
+            return readAt(pack, offsets[position], repository);
+        } finally {
+            pack.close();
+        }
+    }
+
+    private int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0 : fanout[first - 1];
+        int high = fanout[first] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compare(middle, id);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int position, byte[] id) {
+        for (int i = 0; i < 20; i++) {
+            int diff = (ids[20 * position + i] & 0xff) - (id[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private GitRepository.GitObject readAt(RandomAccessFile pack, long offset, GitRepository repository) throws IOException {
+        pack.seek(offset);
+        int c = readByte(pack);
+        int type = (c >> 4) & 7;
+        long size = c & 15;
+        int shift = 4;
+        while ((c & 0x80) != 0) {
+            c = readByte(pack);
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        }
+
+        if (type == OFS_DELTA) {
+            c = readByte(pack);
+            long distance = c & 0x7f;
+            while ((c & 0x80) != 0) {
+                c = readByte(pack);
+                distance = ((distance + 1) << 7) | (c & 0x7f);
+            }
+            byte[] delta = inflate(pack, size);
+            GitRepository.GitObject base = readAt(pack, offset - distance, repository);
+            return new GitRepository.GitObject(base.type, applyDelta(base.data, delta));
+        }
+
+        if (type == REF_DELTA) {
+            byte[] baseId = new byte[20];
+            pack.readFully(baseId);
+            byte[] delta = inflate(pack, size);
+            GitRepository.GitObject base = repository.readObject(GitRepository.toHex(baseId));
+            return new GitRepository.GitObject(base.type, applyDelta(base.data, delta));
+        }
+
+        if (type < 1 || type >= TYPES.length) {
+            throw new IOException("Unknown object type " + type + " at " + offset + " in " + packFile);
+        }
+        return new GitRepository.GitObject(TYPES[type], inflate(pack, size));
+    }
+
+    private static byte[] inflate(RandomAccessFile pack, long size) throws IOException {
+        byte[] result = new byte[(int) size];
+        byte[] buffer = new byte[8192];
+        Inflater inflater = new Inflater();
+        try {
+            int length = 0;
+            while (length < result.length) {
+                if (inflater.needsInput()) {
+                    int read = pack.read(buffer);
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of pack file");
+                    }
+                    inflater.setInput(buffer, 0, read);
+                }
+                int inflated = inflater.inflate(result, length, result.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated object in pack file");
+                }
+                length += inflated;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] pos = { 0 };
+        long baseSize = readVarInt(delta, pos);
+        if (baseSize != base.length) {
+            throw new IOException("Delta base has size " + base.length + ", expected " + baseSize);
+        }
+        byte[] result = new byte[(int) readVarInt(delta, pos)];
+
+        int length = 0;
+        int p = pos[0];
+        while (p < delta.length) {
+            int cmd = delta[p++] & 0xff;
+            if ((cmd & 0x80) != 0) {
+                long copyOffset = 0;
+                int copySize = 0;
+                for (int i = 0; i < 4; i++) {
+                    if ((cmd & (1 << i)) != 0) {
+                        copyOffset |= (long) (delta[p++] & 0xff) << (8 * i);
+                    }
+                }
+                for (int i = 0; i < 3; i++) {
+                    if ((cmd & (0x10 << i)) != 0) {
+                        copySize |= (delta[p++] & 0xff) << (8 * i);
+                    }
+                }
+                if (copySize == 0) {
+                    copySize = 0x10000;
+                }
+                System.arraycopy(base, (int) copyOffset, result, length, copySize);
+                length += copySize;
+            } else if (cmd != 0) {
+                System.arraycopy(delta, p, result, length, cmd);
+                p += cmd;
+                length += cmd;
+            } else {
+                throw new IOException("Invalid delta instruction");
+            }
+        }
+        if (length != result.length) {
+            throw new IOException("Delta produced " + length + " bytes, expected " + result.length);
+        }
+        return result;
+    }
+
+    private static long readVarInt(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = data[pos[0]++] & 0xff;
+            value |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return value;
+    }
+
+    private static int readByte(RandomAccessFile pack) throws IOException {
+        int c = pack.read();
+        if (c < 0) {
+            throw new EOFException("Unexpected end of pack file");
+        }
+        return c;
+    }
+
+    static int readInt(byte[] data, int pos) {
+        return ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16) | ((data[pos + 2] & 0xff) << 8)
+                | (data[pos + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        return ((long) readInt(data, pos) << 32) | (readInt(data, pos + 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,817 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes the objects, refs and index of a git repository directly, without the git command line tool.
+ *
+ * New objects are always written as zlib compressed loose objects. Packed objects are only read. Refs and the index
+ * are updated through lock files, the same way git does it, so a concurrently running git fails instead of
+ * overwriting the changes. No hooks are run and no filters, like core.autocrlf, are applied to the committed files.
+ */
+public class GitRepository {
+    private static final String TREE_MODE = "40000";
+    private static final String FILE_MODE = "100644";
+
+    private final File workTree;
+    private final File gitDir;
+    private final File commonDir;
+    private final List<File> objectDirs = new ArrayList<File>();
+    private List<GitPackFile> packs;
+    private Map<String, String> config;
+
+    public GitRepository(File workTree) throws IOException {
+        this.workTree = workTree.getCanonicalFile();
+
+        File dotGit = new File(this.workTree, ".git");
+        if (dotGit.isFile()) {
+            // A linked work tree or a submodule.
+            String content = FileUtils.readFileToString(dotGit, "UTF-8").trim();
+            if (!content.startsWith("gitdir:")) {
+                throw new IOException("Unknown content in " + dotGit);
+            }
+            gitDir = resolve(this.workTree, content.substring("gitdir:".length()).trim());
+        } else {
+            gitDir = dotGit;
+        }
+
+        File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.isFile()) {
+            commonDir = resolve(gitDir, FileUtils.readFileToString(commonDirFile, "UTF-8").trim());
+        } else {
+            commonDir = gitDir;
+        }
+
+        File objects = new File(commonDir, "objects");
+        if (!objects.isDirectory()) {
+            throw new IOException("Not a git repository: " + this.workTree);
+        }
+        objectDirs.add(objects);
+        File alternates = new File(objects, "info/alternates");
+        if (alternates.isFile()) {
+            for (Object line : FileUtils.readLines(alternates, "UTF-8")) {
+                String path = ((String) line).trim();
+                if (path.length() > 0 && !path.startsWith("#")) {
+                    objectDirs.add(resolve(objects, path));
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the work tree that this directory belongs to.
+     *
+     * @return The top level directory, or null if the directory isn't in a git repository.
+     */
+    public static File findWorkTree(File dir) {
+        for (File current = dir.getAbsoluteFile(); current != null; current = current.getParentFile()) {
+            if (new File(current, ".git").exists()) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    public File workTree() {
+        return workTree;
+    }
+
+    /**
+     * @return The commit that HEAD points at, or null if the current branch doesn't have any commits yet.
+     */
+    public String head() throws IOException {
+        return resolve("HEAD");
+    }
+
+    /**
+     * Resolve a ref, following symbolic refs, from the loose refs or the packed refs.
+     *
+     * @return The object id, or null if there is no such ref.
+     */
+    public String resolve(String refName) throws IOException {
+        File refFile = refFile(refName);
+        if (refFile.isFile()) {
+            String content = FileUtils.readFileToString(refFile, "UTF-8").trim();
+            if (content.startsWith("ref:")) {
+                return resolve(content.substring("ref:".length()).trim());
+            }
+            return content;
+        }
+        return packedRefs().get(refName);
+    }
+
+    /**
+     * Follow annotated tags until something that isn't a tag is found.
+     *
+     * @return The id of the object, or null if the id is null.
+     */
+    public String peel(String id) throws IOException {
+        while (id != null) {
+            GitObject object = readObject(id);
+            if (!object.type.equals("tag")) {
+                return id;
+            }
+            id = header(object, "object");
+        }
+        return null;
+    }
+
+    /**
+     * Commit the current content of the files, together with what's already committed in HEAD, on the current
+     * branch. The entries of the files in the index are updated to the new content. All other files in the index
+     * are left as they are.
+     *
+     * @param files Files to commit, all tracked in this repository.
+     * @param message The commit message.
+     * @return The id of the new commit, or null if none of the files was changed.
+     */
+    public String commit(List<File> files, String message) throws IOException {
+        String autocrlf = config().get("core.autocrlf");
+        if ("true".equalsIgnoreCase(autocrlf) || "input".equalsIgnoreCase(autocrlf)) {
+            throw new IllegalStateException("core.autocrlf isn't supported when committing without git in " + workTree);
+        }
+
+        File indexFile = new File(gitDir, "index");
+        File indexLock = lock(indexFile);
+        try {
+            DirCache index = new DirCache(FileUtils.readFileToByteArray(indexFile));
+
+            Map<String, Object> changes = new TreeMap<String, Object>();
+            Map<String, String> blobs = new LinkedHashMap<String, String>();
+            for (File file : files) {
+                String path = relativePath(file);
+                if (!index.entries.containsKey(path)) {
+                    throw new IllegalArgumentException(file + " isn't tracked by git");
+                }
+                String blob = writeObject("blob", FileUtils.readFileToByteArray(file));
+                blobs.put(path, blob);
+                addChange(changes, path, blob);
+            }
+
+            String headRef = headRef();
+            String parent = head();
+            String parentTree = parent == null ? null : header(readObject(parent), "tree");
+            String tree = writeTree(parentTree, changes);
+            if (tree.equals(parentTree)) {
+                return null;
+            }
+
+            String committer = ident("COMMITTER");
+            StringBuilder sb = new StringBuilder();
+            sb.append("tree ").append(tree).append('\n');
+            if (parent != null) {
+                sb.append("parent ").append(parent).append('\n');
+            }
+            sb.append("author ").append(ident("AUTHOR")).append('\n');
+            sb.append("committer ").append(committer).append('\n');
+            sb.append('\n').append(message);
+            if (!message.endsWith("\n")) {
+                sb.append('\n');
+            }
+            String commit = writeObject("commit", sb.toString().getBytes("UTF-8"));
+
+            String subject = message.split("\n")[0];
+            updateRef(headRef, parent, commit, (parent == null ? "commit (initial): " : "commit: ") + subject);
+
+            for (File file : files) {
+                index.update(relativePath(file), blobs.get(relativePath(file)), file);
+            }
+            writeLocked(indexLock, indexFile, index.write());
+
+            return commit;
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            indexLock.delete();
+        }
+    }
+
+    /**
+     * Write an annotated tag object.
+     *
+     * @return The id of the tag object.
+     */
+    public String writeTag(String label, String target) throws IOException {
+        String type = readObject(target).type;
+        String tag = "object " + target + "\ntype " + type + "\ntag " + label + "\ntagger " + ident("COMMITTER")
+                + "\n\n" + label + "\n";
+        return writeObject("tag", tag.getBytes("UTF-8"));
+    }
+
+    /**
+     * Update a ref through a lock file.
+     *
+     * @param refName Full name of the ref, like refs/tags/REL_1.
+     * @param expected The id the ref must have before the update, or null if it doesn't matter.
+     * @param id The new id.
+     * @param logMessage Message for the reflog, or null to only log if the reflog already exists.
+     */
+    public void updateRef(String refName, String expected, String id, String logMessage) throws IOException {
+        checkRefName(refName);
+
+        File refFile = refFile(refName);
+        File lock = lock(refFile);
+        try {
+            String current = resolve(refName);
+            if (expected != null && !expected.equals(current)) {
+                throw new IllegalStateException(refName + " is at " + current + ", expected " + expected);
+            }
+            writeLocked(lock, refFile, (id + "\n").getBytes("UTF-8"));
+
+            String ident = ident("COMMITTER");
+            reflog(refName, current, id, ident, logMessage);
+            if (refName.equals(headRef()) && !refName.equals("HEAD")) {
+                reflog("HEAD", current, id, ident, logMessage);
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            lock.delete();
+        }
+    }
+
+    /**
+     * Write an object, unless it already exists.
+     *
+     * @return The id of the object.
+     */
+    public String writeObject(String type, byte[] data) throws IOException {
+        byte[] header = (type + " " + data.length + "\0").getBytes("UTF-8");
+        MessageDigest digest = sha1();
+        digest.update(header);
+        digest.update(data);
+        byte[] rawId = digest.digest();
+        String id = toHex(rawId);
+
+        if (hasObject(id, rawId)) {
+            return id;
+        }
+
+        File dir = new File(objectDirs.get(0), id.substring(0, 2));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        File tmp = File.createTempFile("tmp_obj_", "", dir);
+        try {
+            OutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp), new Deflater(Deflater.BEST_SPEED));
+            try {
+                out.write(header);
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            File objectFile = new File(dir, id.substring(2));
+            //noinspection ResultOfMethodCallIgnored
+            tmp.setReadOnly();
+            if (!tmp.renameTo(objectFile) && !objectFile.exists()) {
+                throw new IOException("Unable to write " + objectFile);
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+        return id;
+    }
+
+    /**
+     * Read an object, loose or packed.
+     */
+    public GitObject readObject(String id) throws IOException {
+        for (File objectDir : objectDirs) {
+            File objectFile = new File(objectDir, id.substring(0, 2) + "/" + id.substring(2));
+            if (objectFile.isFile()) {
+                return readLooseObject(objectFile);
+            }
+        }
+        byte[] rawId = fromHex(id);
+        for (GitPackFile pack : packs()) {
+            GitObject object = pack.read(rawId, this);
+            if (object != null) {
+                return object;
+            }
+        }
+        throw new IOException("Missing object " + id + " in " + workTree);
+    }
+
+    private boolean hasObject(String id, byte[] rawId) throws IOException {
+        for (File objectDir : objectDirs) {
+            if (new File(objectDir, id.substring(0, 2) + "/" + id.substring(2)).isFile()) {
+                return true;
+            }
+        }
+        for (GitPackFile pack : packs()) {
+            if (pack.contains(rawId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static GitObject readLooseObject(File objectFile) throws IOException {
+        InputStream in = new InflaterInputStream(new FileInputStream(objectFile));
+        byte[] content;
+        try {
+            content = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        int space = indexOf(content, (byte) ' ', 0);
+        int nul = indexOf(content, (byte) 0, 0);
+        if (space < 0 || nul < space) {
+            throw new IOException("Corrupt object " + objectFile);
+        }
+        String type = new String(content, 0, space, "UTF-8");
+        byte[] data = new byte[content.length - nul - 1];
+        System.arraycopy(content, nul + 1, data, 0, data.length);
+        return new GitObject(type, data);
+    }
+
+    private List<GitPackFile> packs() throws IOException {
+        if (packs == null) {
+            packs = new ArrayList<GitPackFile>();
+            for (File objectDir : objectDirs) {
+                File[] indexFiles = new File(objectDir, "pack").listFiles();
+                if (indexFiles != null) {
+                    for (File indexFile : indexFiles) {
+                        if (indexFile.getName().endsWith(".idx")) {
+                            packs.add(new GitPackFile(indexFile));
+                        }
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Nest the path into the map of changes, one map per directory level.
+     */
+    @SuppressWarnings("unchecked")
+    private static void addChange(Map<String, Object> changes, String path, String blob) {
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            changes.put(path, blob);
+            return;
+        }
+        String name = path.substring(0, slash);
+        Object sub = changes.get(name);
+        if (!(sub instanceof Map)) {
+            sub = new TreeMap<String, Object>();
+            changes.put(name, sub);
+        }
+        addChange((Map<String, Object>) sub, path.substring(slash + 1), blob);
+    }
+
+    /**
+     * Write a copy of the tree with the changes applied, and all changed subtrees.
+     *
+     * @param treeId The existing tree, or null to start from an empty tree.
+     * @return The id of the new tree.
+     */
+    @SuppressWarnings("unchecked")
+    private String writeTree(String treeId, Map<String, Object> changes) throws IOException {
+        Map<String, TreeEntry> entries = new LinkedHashMap<String, TreeEntry>();
+        if (treeId != null) {
+            for (TreeEntry entry : readTree(treeId)) {
+                entries.put(entry.name, entry);
+            }
+        }
+
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            String name = change.getKey();
+            TreeEntry existing = entries.get(name);
+            if (change.getValue() instanceof Map) {
+                String subTree = existing != null && existing.isTree() ? existing.id : null;
+                entries.put(name, new TreeEntry(TREE_MODE, name,
+                        writeTree(subTree, (Map<String, Object>) change.getValue())));
+            } else {
+                String mode = existing != null && !existing.isTree() ? existing.mode : FILE_MODE;
+                entries.put(name, new TreeEntry(mode, name, (String) change.getValue()));
+            }
+        }
+
+        List<TreeEntry> sorted = new ArrayList<TreeEntry>(entries.values());
+        Collections.sort(sorted, new Comparator<TreeEntry>() {
+            public int compare(TreeEntry o1, TreeEntry o2) {
+                return o1.sortKey().compareTo(o2.sortKey());
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (TreeEntry entry : sorted) {
+            out.write((entry.mode + " " + entry.name).getBytes("ISO-8859-1"));
+            out.write(0);
+            out.write(fromHex(entry.id));
+        }
+        return writeObject("tree", out.toByteArray());
+    }
+
+    private List<TreeEntry> readTree(String treeId) throws IOException {
+        GitObject tree = readObject(treeId);
+        if (!tree.type.equals("tree")) {
+            throw new IOException(treeId + " isn't a tree");
+        }
+
+        List<TreeEntry> result = new ArrayList<TreeEntry>();
+        byte[] data = tree.data;
+        int pos = 0;
+        while (pos < data.length) {
+            int space = indexOf(data, (byte) ' ', pos);
+            int nul = indexOf(data, (byte) 0, space);
+            byte[] id = new byte[20];
+            System.arraycopy(data, nul + 1, id, 0, 20);
+            result.add(new TreeEntry(new String(data, pos, space - pos, "ISO-8859-1"),
+                    new String(data, space + 1, nul - space - 1, "ISO-8859-1"), toHex(id)));
+            pos = nul + 21;
+        }
+        return result;
+    }
+
+    /**
+     * @return The path of the file relative to the work tree, as the bytes git stores for it.
+     */
+    private String relativePath(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        String root = workTree.getPath() + File.separator;
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException(file + " isn't in " + workTree);
+        }
+        path = path.substring(root.length()).replace(File.separatorChar, '/');
+        return new String(path.getBytes("UTF-8"), "ISO-8859-1");
+    }
+
+    private static String header(GitObject object, String name) throws UnsupportedEncodingException {
+        for (String line : new String(object.data, "UTF-8").split("\n")) {
+            if (line.length() == 0) {
+                break;
+            }
+            if (line.startsWith(name + " ")) {
+                return line.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The ref that HEAD points at, or HEAD if it is detached.
+     */
+    private String headRef() throws IOException {
+        String content = FileUtils.readFileToString(new File(gitDir, "HEAD"), "UTF-8").trim();
+        if (content.startsWith("ref:")) {
+            return content.substring("ref:".length()).trim();
+        }
+        return "HEAD";
+    }
+
+    private File refFile(String refName) {
+        if (refName.startsWith("refs/")) {
+            return new File(commonDir, refName);
+        }
+        return new File(gitDir, refName);
+    }
+
+    private Map<String, String> packedRefs() throws IOException {
+        Map<String, String> result = new HashMap<String, String>();
+        File packedRefs = new File(commonDir, "packed-refs");
+        if (packedRefs.isFile()) {
+            for (Object o : FileUtils.readLines(packedRefs, "UTF-8")) {
+                String line = (String) o;
+                if (line.startsWith("#") || line.startsWith("^")) {
+                    continue;
+                }
+                String[] parts = line.trim().split(" ");
+                if (parts.length == 2) {
+                    result.put(parts[1], parts[0]);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void reflog(String refName, String oldId, String newId, String ident, String message) throws IOException {
+        File log = new File(refName.startsWith("refs/") ? commonDir : gitDir, "logs/" + refName);
+        if (message == null) {
+            if (!log.isFile()) {
+                return;
+            }
+            message = "";
+        }
+        if (oldId == null) {
+            oldId = "0000000000000000000000000000000000000000";
+        }
+        String line = oldId + " " + newId + " " + ident + "\t" + message + "\n";
+        FileUtils.writeStringToFile(log, line, "UTF-8", true);
+    }
+
+    private static void checkRefName(String refName) {
+        if (refName.equals("HEAD")) {
+            return;
+        }
+        boolean valid = refName.startsWith("refs/") && !refName.contains("..") && !refName.contains("//")
+                && !refName.contains("@{") && !refName.endsWith("/") && !refName.endsWith(".")
+                && !refName.endsWith(".lock") && !refName.contains("/.");
+        for (int i = 0; valid && i < refName.length(); i++) {
+            char c = refName.charAt(i);
+            valid = c > ' ' && c != 127 && "~^:?*[\\".indexOf(c) < 0;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid git ref name: " + refName);
+        }
+    }
+
+    private static File lock(File file) throws IOException {
+        File lock = new File(file.getPath() + ".lock");
+        File dir = lock.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        if (!lock.createNewFile()) {
+            throw new IllegalStateException("Unable to create " + lock + ", is another git process running?");
+        }
+        return lock;
+    }
+
+    private static void writeLocked(File lock, File target, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(lock);
+        try {
+            out.write(content);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!lock.renameTo(target)) {
+            // Windows can't rename onto an existing file.
+            //noinspection ResultOfMethodCallIgnored
+            target.delete();
+            if (!lock.renameTo(target)) {
+                throw new IOException("Unable to rename " + lock + " to " + target);
+            }
+        }
+    }
+
+    /**
+     * @param kind AUTHOR or COMMITTER.
+     * @return Name, email and the current time, the way git writes them in commits and tags.
+     */
+    private String ident(String kind) {
+        String name = System.getenv("GIT_" + kind + "_NAME");
+        if (name == null) {
+            name = config().get("user.name");
+        }
+        String email = System.getenv("GIT_" + kind + "_EMAIL");
+        if (email == null) {
+            email = config().get("user.email");
+        }
+        if (name == null || email == null) {
+            throw new IllegalStateException("user.name and user.email must be configured for " + workTree);
+        }
+
+        long now = System.currentTimeMillis();
+        int offset = TimeZone.getDefault().getOffset(now) / 60000;
+        char sign = offset < 0 ? '-' : '+';
+        offset = Math.abs(offset);
+        return String.format("%s <%s> %d %c%02d%02d", name, email, now / 1000, sign, offset / 60, offset % 60);
+    }
+
+    /**
+     * The git configuration, with the repository config overriding the global config.
+     */
+    private Map<String, String> config() {
+        if (config == null) {
+            config = new HashMap<String, String>();
+            String home = System.getProperty("user.home");
+            String xdg = System.getenv("XDG_CONFIG_HOME");
+            readConfig(new File(xdg != null ? xdg : home + "/.config", "git/config"));
+            readConfig(new File(home, ".gitconfig"));
+            readConfig(new File(commonDir, "config"));
+        }
+        return config;
+    }
+
+    private void readConfig(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            String section = "";
+            for (Object o : FileUtils.readLines(file, "UTF-8")) {
+                String line = ((String) o).trim();
+                if (line.length() == 0 || line.startsWith("#") || line.startsWith(";")) {
+                    continue;
+                }
+                if (line.startsWith("[")) {
+                    String header = line.substring(1, line.indexOf(']')).trim();
+                    int quote = header.indexOf('"');
+                    if (quote >= 0) {
+                        section = header.substring(0, quote).trim().toLowerCase() + "."
+                                + header.substring(quote + 1, header.lastIndexOf('"'));
+                    } else {
+                        section = header.toLowerCase();
+                    }
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                String key = (eq < 0 ? line : line.substring(0, eq)).trim().toLowerCase();
+                String value = eq < 0 ? "true" : line.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                config.put(section + "." + key, value);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static File resolve(File base, String path) throws IOException {
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(base, path);
+        }
+        return file.getCanonicalFile();
+    }
+
+    private static int indexOf(byte[] data, byte b, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return sb.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * The type and content of an object.
+     */
+    public static class GitObject {
+        public final String type;
+        public final byte[] data;
+
+        GitObject(String type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private static class TreeEntry {
+        final String mode;
+        final String name;
+        final String id;
+
+        TreeEntry(String mode, String name, String id) {
+            this.mode = mode;
+            this.name = name;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return mode.equals(TREE_MODE);
+        }
+
+        /**
+         * Git sorts trees as if their names ended with a slash.
+         */
+        String sortKey() {
+            return isTree() ? name + "/" : name;
+        }
+    }
+
+    /**
+     * The index file, version 2 or 3. Entries are updated in place. The cached trees become stale when entries
+     * change, so that extension is dropped, as are the extensions that holds offsets into the file.
+     */
+    private static class DirCache {
+        private final byte[] data;
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+        private final int entriesEnd;
+        private final List<int[]> extensions = new LinkedList<int[]>();
+
+        DirCache(byte[] data) throws IOException {
+            this.data = data;
+            if (data.length < 32 || data[0] != 'D' || data[1] != 'I' || data[2] != 'R' || data[3] != 'C') {
+                throw new IOException("Not a git index file");
+            }
+            int version = GitPackFile.readInt(data, 4);
+            if (version != 2 && version != 3) {
+                throw new IllegalStateException("Index version " + version + " isn't supported when committing without git");
+            }
+
+            int count = GitPackFile.readInt(data, 8);
+            int pos = 12;
+            for (int i = 0; i < count; i++) {
+                int flags = ((data[pos + 60] & 0xff) << 8) | (data[pos + 61] & 0xff);
+                int headerLength = (flags & 0x4000) != 0 ? 64 : 62;
+                int nameEnd = indexOf(data, (byte) 0, pos + headerLength);
+                int nameLength = nameEnd - pos - headerLength;
+                int stage = (flags >> 12) & 3;
+                if (stage == 0) {
+                    entries.put(new String(data, pos + headerLength, nameLength, "ISO-8859-1"), pos);
+                }
+                pos += (headerLength + nameLength + 8) & ~7;
+            }
+            entriesEnd = pos;
+
+            while (pos < data.length - 20) {
+                String signature = new String(data, pos, 4, "ISO-8859-1");
+                int length = 8 + GitPackFile.readInt(data, pos + 4);
+                if (signature.charAt(0) < 'A' || signature.charAt(0) > 'Z') {
+                    throw new IllegalStateException("The index extension " + signature + " isn't supported when committing without git");
+                }
+                if (!signature.equals("TREE") && !signature.equals("EOIE") && !signature.equals("IEOT")) {
+                    extensions.add(new int[] { pos, length });
+                }
+                pos += length;
+            }
+        }
+
+        void update(String path, String blob, File file) {
+            int pos = entries.get(path);
+            long modified = file.lastModified();
+            writeInt(pos + 8, (int) (modified / 1000));
+            writeInt(pos + 12, (int) (modified % 1000) * 1000000);
+            writeInt(pos + 36, (int) file.length());
+            System.arraycopy(fromHex(blob), 0, data, pos + 40, 20);
+        }
+
+        byte[] write() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            out.write(data, 0, entriesEnd);
+            for (int[] extension : extensions) {
+                out.write(data, extension[0], extension[1]);
+            }
+            byte[] content = out.toByteArray();
+            out.write(sha1().digest(content), 0, 20);
+            return out.toByteArray();
+        }
+
+        private void writeInt(int pos, int value) {
+            data[pos] = (byte) (value >>> 24);
+            data[pos + 1] = (byte) (value >>> 16);
+            data[pos + 2] = (byte) (value >>> 8);
+            data[pos + 3] = (byte) value;
+        }
+    }
+}
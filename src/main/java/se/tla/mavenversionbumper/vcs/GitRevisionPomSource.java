@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.log4j.Logger;
+import se.tla.mavenversionbumper.PomSource;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reads the pom.xml files of a git revision, without checking it out.
+ *
+ * The blob ids of all pom.xml files are read from the tree of the revision with one ls-tree. The content is then
+ * streamed, on demand, through one long-lived cat-file --batch process. Only the directories that leads to a
+ * pom.xml are known to exist.
+ *
+ * Like all other git commands, the commands are logged and recorded in CommandTelemetry. The cat-file process is
+ * recorded once it is closed.
+ */
+public class GitRevisionPomSource implements PomSource, Closeable {
+    private static final Logger logger = Logger.getLogger(GitRevisionPomSource.class);
+    private static final String POMFILENAME = "pom.xml";
+
+    private final File root;
+    private final Map<String, String> blobs = new HashMap<String, String>();
+    private final Map<String, Set<String>> directories = new HashMap<String, Set<String>>();
+    private final CommandRunner runner = new CommandRunner(Git.ACRONYM, 1);
+    private final String catFileCommand;
+    private final long catFileStart;
+    private final Process catFile;
+    private final OutputStream requests;
+    private final CountingInputStream responseCount;
+    private final DataInputStream responses;
+
+    /**
+     * @param dir A directory in the work tree of the repository.
+     * @param revision The revision to read, like a tag, a branch or a commit id.
+     * @param commandPath The git command.
+     * @throws IOException If the revision couldn't be read.
+     */
+    public GitRevisionPomSource(File dir, String revision, String commandPath) throws IOException {
+        root = new File(run(dir, commandPath, "rev-parse", "--show-toplevel").trim()).getCanonicalFile();
+
+        String tree = run(root, commandPath, "ls-tree", "-r", "-z", "--full-tree", revision);
+        for (String entry : tree.split("\0")) {
+            // <mode> SP <type> SP <object> TAB <path>
+            int tab = entry.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            String path = entry.substring(tab + 1);
+            String[] fields = entry.substring(0, tab).split(" ");
+            if (fields.length == 3 && fields[1].equals("blob")
+                    && (path.equals(POMFILENAME) || path.endsWith("/" + POMFILENAME))) {
+                blobs.put(path, fields[2]);
+                addDirectories(path);
+            }
+        }
+
+        catFileCommand = commandPath + " cat-file --batch";
+        logger.debug("Running command: " + catFileCommand);
+        catFileStart = System.currentTimeMillis();
+        catFile = new ProcessBuilder(commandPath, "cat-file", "--batch").directory(root).start();
+        requests = catFile.getOutputStream();
+        responseCount = new CountingInputStream(catFile.getInputStream());
+        responses = new DataInputStream(new BufferedInputStream(responseCount));
+    }
+
+    private void addDirectories(String path) {
+        String child = null;
+        String dir = path;
+        while (true) {
+            int slash = dir.lastIndexOf('/');
+            String parent = slash < 0 ? "" : dir.substring(0, slash);
+            String name = slash < 0 ? dir : dir.substring(slash + 1);
+            Set<String> children = directories.get(parent);
+            if (children == null) {
+                children = new TreeSet<String>();
+                directories.put(parent, children);
+            }
+            if (child != null) {
+                children.add(child);
+            }
+            if (parent.length() == 0) {
+                return;
+            }
+            child = parent.substring(parent.lastIndexOf('/') + 1);
+            dir = parent;
+        }
+    }
+
+    @Override
+    public boolean isDirectory(File dir) {
+        String path = relativePath(dir);
+        return path != null && directories.containsKey(path);
+    }
+
+    @Override
+    public boolean isFile(File file) {
+        String path = relativePath(file);
+        return path != null && blobs.containsKey(path);
+    }
+
+    @Override
+    public List<String> directories(File dir) {
+        String path = relativePath(dir);
+        Set<String> children = path == null ? null : directories.get(path);
+        return children == null ? new ArrayList<String>() : new ArrayList<String>(children);
+    }
+
+    /**
+     * Read the file through the cat-file process. Modules may be loaded in parallel, so one file is read at a time.
+     */
+    @Override
+    public synchronized InputStream open(File file) throws IOException {
+        String path = relativePath(file);
+        String blob = path == null ? null : blobs.get(path);
+        if (blob == null) {
+            throw new IOException("No such file in the revision: " + file);
+        }
+
+        requests.write((blob + "\n").getBytes("UTF-8"));
+        requests.flush();
+
+        // <object> SP <type> SP <size> LF <content> LF
+        String header = readLine();
+        String[] fields = header.split(" ");
+        if (fields.length != 3) {
+            throw new IOException("Unable to read " + file + " from git: " + header);
+        }
+        byte[] content = new byte[Integer.parseInt(fields[2])];
+        responses.readFully(content);
+        responses.readByte();
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * Stop the cat-file process.
+     */
+    @Override
+    public void close() throws IOException {
+        requests.close();
+        int exitCode = -1;
+        try {
+            exitCode = catFile.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            responses.close();
+            CommandTelemetry.record(new CommandEvent(Git.ACRONYM, "git cat-file", catFileCommand, root, catFileStart,
+                    System.currentTimeMillis() - catFileStart, exitCode, responseCount.getByteCount(), 0,
+                    CommandEvent.UNKNOWN, CommandEvent.UNKNOWN));
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int c = responses.read(); c != '\n'; c = responses.read()) {
+            if (c < 0) {
+                throw new IOException("git cat-file stopped unexpectedly");
+            }
+            line.write(c);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * @return Path relative to the repository root, with '/' as separator, or null if outside the repository.
+     */
+    private String relativePath(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        String rootPath = root.getPath();
+        if (path.equals(rootPath)) {
+            return "";
+        }
+        if (!path.startsWith(rootPath + File.separator)) {
+            return null;
+        }
+        return path.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+    }
+
+    private String run(File dir, String commandPath, String... arguments) throws IOException {
+        CommandLine cmdLine = new CommandLine(commandPath);
+        for (String argument : arguments) {
+            cmdLine.addArgument(argument, false);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        try {
+            runner.run(cmdLine, dir, AbstractVersionControl.DEFAULTTIMEOUT, new ExposingPumpStreamHandler(output, errors));
+        } catch (RuntimeException e) {
+            throw new IOException("git " + arguments[0] + " failed: " + errors.toString("UTF-8").trim(), e);
+        }
+        return output.toString("UTF-8");
+    }
+}
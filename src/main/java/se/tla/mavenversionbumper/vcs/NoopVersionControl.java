@@ -24,6 +24,11 @@ import java.util.List;
  * A placebo version control system.
  */
 public class NoopVersionControl implements VersionControl {
+    @Override
+    public void preflight(List<Module> modules) {
+        // Do nothing.
+    }
+
     @Override
     public String before(List<Module> modules) {
         // Do nothing.
@@ -36,6 +41,11 @@ public class NoopVersionControl implements VersionControl {
         return null;
     }
 
+    @Override
+    public void close() {
+        // Do nothing.
+    }
+
     @Override
     public void restore(List<Module> modules) {
         // Do nothing.
@@ -46,8 +56,33 @@ public class NoopVersionControl implements VersionControl {
         // Do nothing.
     }
 
+    @Override
+    public void commit(List<Module> modules, Progress progress) {
+        // Do nothing.
+    }
+
+    @Override
+    public void preparedEarlier(Module module) {
+        // Do nothing.
+    }
+
+    @Override
+    public String committedRevision(Module module) {
+        return null;
+    }
+
+    @Override
+    public void committedEarlier(Module module, String revision) {
+        // Do nothing.
+    }
+
     @Override
     public void label(List<Module> modules) {
         // Do nothing.
     }
+
+    @Override
+    public void label(List<Module> modules, Progress progress) {
+        // Do nothing.
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directories stored as a trie of their path names, to find directories that are covered by an ancestor. Used to
+ * skip a recursive label when a recursive label on an ancestor directory already applies it.
+ */
+class PathTrie {
+    private final Map<String, PathTrie> children = new LinkedHashMap<String, PathTrie>();
+    private File directory;
+
+    /**
+     * Add this directory. The first added File for a path is the one that is kept.
+     */
+    void add(File dir) {
+        PathTrie node = this;
+        for (String name : names(dir)) {
+            PathTrie child = node.children.get(name);
+            if (child == null) {
+                child = new PathTrie();
+                node.children.put(name, child);
+            }
+            node = child;
+        }
+        if (node.directory == null) {
+            node.directory = dir;
+        }
+    }
+
+    /**
+     * @return The topmost added directory that is this path or an ancestor of it, or null if there is none.
+     */
+    File covering(File path) {
+        PathTrie node = this;
+        for (String name : names(path)) {
+            node = node.children.get(name);
+            if (node == null) {
+                return null;
+            }
+            if (node.directory != null) {
+                return node.directory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The added directories that don't have an added ancestor, in the order they were first added below
+     * their common ancestor.
+     */
+    List<File> roots() {
+        List<File> result = new ArrayList<File>();
+        collectRoots(result);
+        return result;
+    }
+
+    private void collectRoots(List<File> result) {
+        if (directory != null) {
+            result.add(directory);
+            return;
+        }
+        for (PathTrie child : children.values()) {
+            child.collectRoots(result);
+        }
+    }
+
+    /**
+     * @return The names in the absolute path, with "." and ".." resolved.
+     */
+    private static List<String> names(File path) {
+        List<String> result = new ArrayList<String>();
+        for (String name : path.getAbsolutePath().split("[/\\\\]")) {
+            if (name.length() == 0 || name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (! result.isEmpty()) {
+                    result.remove(result.size() - 1);
+                }
+            } else {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+}
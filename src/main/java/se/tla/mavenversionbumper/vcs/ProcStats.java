@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * Reads the CPU time and memory use of processes from /proc on Linux. Everything is CommandEvent.UNKNOWN
+ * elsewhere.
+ */
+class ProcStats {
+    private static final File SELF_STAT = new File("/proc/self/stat");
+    /**
+     * The unit of the times in /proc/[pid]/stat, USER_HZ, is 100 on all common Linux platforms.
+     */
+    private static final long TICKS_PER_SECOND = 100;
+
+    private ProcStats() {
+    }
+
+    static boolean available() {
+        return SELF_STAT.canRead();
+    }
+
+    /**
+     * @return The user and system CPU time of all children of this process that have been waited for, in ms.
+     */
+    static long childCpuMillis() {
+        if (!available()) {
+            return CommandEvent.UNKNOWN;
+        }
+        try {
+            String stat = FileUtils.readFileToString(SELF_STAT);
+            // The command name, within parentheses, may contain spaces. The fields after it starts with field 3.
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+            long cutime = Long.parseLong(fields[16 - 3]);
+            long cstime = Long.parseLong(fields[17 - 3]);
+            return (cutime + cstime) * 1000 / TICKS_PER_SECOND;
+        } catch (IOException e) {
+            return CommandEvent.UNKNOWN;
+        } catch (RuntimeException e) {
+            return CommandEvent.UNKNOWN;
+        }
+    }
+
+    /**
+     * @return The peak resident set size of the process in kB, or UNKNOWN if it has ended.
+     */
+    static long peakRssKb(long pid) {
+        try {
+            for (Object line : FileUtils.readLines(new File("/proc/" + pid + "/status"))) {
+                String s = (String) line;
+                if (s.startsWith("VmHWM:")) {
+                    return Long.parseLong(s.substring("VmHWM:".length()).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException e) {
+            // Gone.
+        } catch (NumberFormatException e) {
+            // Not Linux as we know it.
+        }
+        return CommandEvent.UNKNOWN;
+    }
+
+    /**
+     * @return The process id, through Process.pid() from Java 9 or the pid field of the Unix implementation of
+     * older versions, or UNKNOWN.
+     */
+    static long pid(Process process) {
+        try {
+            return ((Number) Process.class.getMethod("pid").invoke(process)).longValue();
+        } catch (Exception e) {
+            // Older than Java 9.
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception e) {
+            return CommandEvent.UNKNOWN;
+        }
+    }
+}
@@ -17,29 +17,48 @@
 package se.tla.mavenversionbumper.vcs;
 
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.ExecuteStreamHandler;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 import se.tla.mavenversionbumper.Module;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Implements VersionControl for the Subversion versioning system.
  *
- * Requires access to the command line interface svn.
+ * Requires access to the command line interface svn, and svnmucc for labeling unless svn.svnmucc is false.
  */
 public class Subversion extends AbstractVersionControl {
     public static final String ACRONYM = "subversion";
 
     protected static final String COMMANDPATH = "svn.path";
     private static final String COMMANDPATHDEFAULT = "svn";
-    private static final String REPOSITORY_ROOT = "Repository Root: ";
     private final String commandPath;
 
     protected static final String TAGSBASE = "svn.tagsbase";
@@ -49,7 +68,28 @@ public class Subversion extends AbstractVersionControl {
     protected static final String ALTREPOBASE = "svn.alternaterepositorybase";
     private final String alternateRepositoryBase;
 
+    protected static final String SVNMUCC = "svn.svnmucc";
+    private static final String SVNMUCCDEFAULT = "true";
+    private final boolean useSvnmucc;
+
+    protected static final String SVNMUCCPATH = "svn.svnmucc.path";
+    private static final String SVNMUCCPATHDEFAULT = "svnmucc";
+    private final String svnmuccPath;
+
+    private final Map<File, Info> infoPerPath = new HashMap<File, Info>();
+    private final Map<File, Info> infoPerWorkingCopy = new HashMap<File, Info>();
+
+    /**
+     * The svn status items that have nothing to revert.
+     */
+    private static final Set<String> UNCHANGED =
+            new HashSet<String>(Arrays.asList("normal", "unversioned", "ignored", "external", "none"));
+    private static final Pattern COMMITTED_REVISION = Pattern.compile("Committed revision (\\d+)\\.");
+    private final Map<File, String> committedRevisions = new HashMap<File, String>();
+
     public Subversion(Properties controlProperties) {
+        super(controlProperties);
+
         String commandProperty = controlProperties.getProperty(COMMANDPATH, COMMANDPATHDEFAULT);
         if (System.getProperty("os.name").toLowerCase().contains("windows") &&
                 ! commandProperty.toLowerCase().endsWith(".exe")) {
@@ -59,100 +99,817 @@ public class Subversion extends AbstractVersionControl {
 
         tagsBase = controlProperties.getProperty(TAGSBASE, TAGSBASEDEFAULT);
         alternateRepositoryBase = controlProperties.getProperty(ALTREPOBASE);
+
+        useSvnmucc = Boolean.parseBoolean(controlProperties.getProperty(SVNMUCC, SVNMUCCDEFAULT));
+        String svnmuccProperty = controlProperties.getProperty(SVNMUCCPATH, SVNMUCCPATHDEFAULT);
+        if (System.getProperty("os.name").toLowerCase().contains("windows") &&
+                ! svnmuccProperty.toLowerCase().endsWith(".exe")) {
+            svnmuccProperty += ".exe";
+        }
+        svnmuccPath = svnmuccProperty;
     }
 
+    /**
+     * Reverts the pom.xml files that have local modifications. They are found with one svn status, or more running
+     * at the same time if the files doesn't fit on one command line, and reverted with one svn revert.
+     */
     @Override
     public void restore(List<Module> modules) {
+        Set<String> paths = new LinkedHashSet<String>();
         for (Module module : modules) {
-            Map<String, Object> map = new HashMap<String, Object>();
+            paths.add(canonical(module.pomFile()).getPath());
+        }
 
+        List<Future<byte[]>> statuses = new ArrayList<Future<byte[]>>();
+        for (List<String> chunk : chunks(new ArrayList<String>(paths), commandPath.length() + " status --xml".length())) {
             CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("revert");
+            cmdLine.addArgument("status").addArgument("--xml");
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (int i = 0; i < chunk.size(); i++) {
+                cmdLine.addArgument("${path" + i + "}");
+                map.put("path" + i, new File(chunk.get(i)));
+            }
+            cmdLine.setSubstitutionMap(map);
+
+            statuses.add(submitWithOutput(cmdLine, null));
+        }
+        Set<File> modified = new HashSet<File>();
+        for (Future<byte[]> status : statuses) {
+            modified.addAll(parseStatus(output(status)));
+        }
 
-            cmdLine.addArgument("${file}");
-            map.put("file", module.pomFile());
+        List<Module> modulesToRevert = new ArrayList<Module>();
+        Set<File> files = new HashSet<File>();
+        for (Module module : modules) {
+            File file = canonical(module.pomFile());
+            if (modified.contains(file) && files.add(file)) {
+                modulesToRevert.add(module);
+            }
+        }
+        if (modulesToRevert.isEmpty()) {
+            return;
+        }
 
+        File targetsFile = targetsFile(modulesToRevert);
+        try {
+            Map<String, Object> map = new HashMap<String, Object>();
+            CommandLine cmdLine = new CommandLine(commandPath);
+            cmdLine.addArgument("revert");
+            cmdLine.addArgument("--targets").addArgument("${targets}");
+            map.put("targets", targetsFile);
             cmdLine.setSubstitutionMap(map);
+
             execute(cmdLine, null);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            targetsFile.delete();
         }
     }
 
+    /**
+     * Refuses pom.xml files that are outside of any working copy, unversioned or already changed. They are asked for
+     * with one svn status, or more running at the same time if the files doesn't fit on one command line.
+     */
     @Override
-    public void commit(List<Module> modules) {
+    public void preflight(List<Module> modules) {
+        Map<File, String> problems = new LinkedHashMap<File, String>();
+        Set<String> paths = new LinkedHashSet<String>();
         for (Module module : modules) {
-            Map<String, Object> map = new HashMap<String, Object>();
+            File file = canonical(module.pomFile());
+            if (isInWorkingCopy(file)) {
+                paths.add(file.getPath());
+            } else {
+                problems.put(file, "not in a Subversion working copy");
+            }
+        }
 
-            CommandLine cmdLine = new CommandLine(commandPath);
-            cmdLine.addArgument("commit");
+        List<Future<byte[]>> statuses = new ArrayList<Future<byte[]>>();
+        if (!paths.isEmpty()) {
+            for (List<String> chunk : chunks(new ArrayList<String>(paths), commandPath.length() + " status --xml".length())) {
+                CommandLine cmdLine = new CommandLine(commandPath);
+                cmdLine.addArgument("status").addArgument("--xml");
+                Map<String, Object> map = new HashMap<String, Object>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    cmdLine.addArgument("${path" + i + "}");
+                    map.put("path" + i, new File(chunk.get(i)));
+                }
+                cmdLine.setSubstitutionMap(map);
 
-            if (module.commitMessage() != null) {
-                cmdLine.addArgument("-m").addArgument("${message}");
-                map.put("message", module.commitMessage());
-            } else {
-                cmdLine.addArgument("-m").addArgument("");
+                statuses.add(submitWithOutput(cmdLine, null));
             }
+        }
+        Map<File, String> items = new HashMap<File, String>();
+        for (Future<byte[]> status : statuses) {
+            items.putAll(parseStatusItems(output(status)));
+        }
 
-            cmdLine.addArgument("${file}");
-            map.put("file", module.pomFile());
+        for (String path : paths) {
+            File file = new File(path);
+            String item = items.get(file);
+            if (item == null || item.equals("normal") || item.equals("none") || item.equals("external")) {
+                continue;
+            }
+            if (item.equals("unversioned") || item.equals("ignored")) {
+                problems.put(file, "not under version control");
+            } else {
+                problems.put(file, "has uncommitted changes (" + item + ")");
+            }
+        }
+        failOnProblems(problems);
+    }
 
-            cmdLine.setSubstitutionMap(map);
-            execute(cmdLine, null);
+    private static boolean isInWorkingCopy(File file) {
+        for (File current = file.getParentFile(); current != null; current = current.getParentFile()) {
+            if (new File(current, ".svn").isDirectory()) {
+                return true;
+            }
         }
+        return false;
     }
 
+    /**
+     * Commits all modules in the same working copy, and with the same commit message, together in one commit. The
+     * files are passed to svn through a targets file to avoid any limits on the length of the command line. The
+     * revision of each commit is remembered for the modules in it, before progress is told about them.
+     */
     @Override
-    public void label(List<Module> modules) {
+    public void commit(List<Module> modules, Progress progress) {
+        List<File> dirs = new ArrayList<File>();
+        for (Module module : modules) {
+            dirs.add(module.pomFile().getParentFile());
+        }
+        Map<File, Info> infos = info(dirs);
 
+        Map<String, List<Module>> modulesPerCommit = new LinkedHashMap<String, List<Module>>();
         for (Module module : modules) {
-            String label = module.label();
-            if (label != null) {
-                String repositoryUrl = extractRepositoryUrl(module);
+            File dir = canonical(module.pomFile().getParentFile());
+            File workingCopy = infos.get(dir).workingCopy;
+            String message = module.commitMessage() == null ? "" : module.commitMessage();
+            // Without a known working copy root, as with svn 1.6, each directory is committed on its own.
+            String key = (workingCopy != null ? workingCopy : dir).getPath() + "\n" + message;
+
+            List<Module> commitModules = modulesPerCommit.get(key);
+            if (commitModules == null) {
+                commitModules = new ArrayList<Module>();
+                modulesPerCommit.put(key, commitModules);
+            }
+            commitModules.add(module);
+        }
+
+        for (List<Module> commitModules : modulesPerCommit.values()) {
+            String message = commitModules.get(0).commitMessage();
+            File targetsFile = targetsFile(commitModules);
+            try {
                 Map<String, Object> map = new HashMap<String, Object>();
 
                 CommandLine cmdLine = new CommandLine(commandPath);
-                cmdLine
-                        .addArgument("copy")
-                        .addArgument("-m").addArgument("");
+                cmdLine.addArgument("commit");
+
+                if (message != null) {
+                    cmdLine.addArgument("-m").addArgument("${message}");
+                    map.put("message", message);
+                } else {
+                    cmdLine.addArgument("-m").addArgument("");
+                }
+
+                cmdLine.addArgument("--targets").addArgument("${targets}");
+                map.put("targets", targetsFile);
 
-                cmdLine.addArgument("${src}");
+                cmdLine.setSubstitutionMap(map);
+                // One commit may handle a whole working copy, so it gets the time of one commit per file.
+                String output = new String(executeWithOutput(cmdLine, null,
+                        timeoutFor(commitModules.size(), DEFAULTTIMEOUT)), "UTF-8");
+                System.out.print(output);
+
+                Matcher matcher = COMMITTED_REVISION.matcher(output);
+                if (matcher.find()) {
+                    for (Module module : commitModules) {
+                        committedRevisions.put(canonical(module.pomFile()), matcher.group(1));
+                    }
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                targetsFile.delete();
+            }
+            progress.done(commitModules);
+        }
+    }
+
+    /**
+     * @return The revision this module was committed in by this instance, or by an earlier run, or null if it hasn't
+     * been committed.
+     */
+    @Override
+    public String committedRevision(Module module) {
+        return committedRevisions.get(canonical(module.pomFile()));
+    }
+
+    /**
+     * Labels of modules committed by an earlier run are pinned to the revision they were committed in, just like
+     * the modules committed by this instance.
+     */
+    @Override
+    public void committedEarlier(Module module, String revision) {
+        committedRevisions.put(canonical(module.pomFile()), revision);
+    }
+
+    /**
+     * Write the paths of the pom.xml files of these modules, one per line, to a temporary file.
+     */
+    private static File targetsFile(List<Module> modules) {
+        List<String> paths = new ArrayList<String>();
+        for (Module module : modules) {
+            paths.add(module.pomFile().getAbsolutePath());
+        }
+        try {
+            File targetsFile = File.createTempFile("versionbumper", ".targets");
+            targetsFile.deleteOnExit();
+            // svn reads the targets file in the native encoding.
+            FileUtils.writeLines(targetsFile, null, paths);
+            return targetsFile;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies each labeled module to the tags base. Labels that already exist in the tags base are skipped, if they
+     * were copied from the same source, at the same revision, as they would be now. Otherwise nothing is copied and
+     * the run fails. The existing tags are listed with one single svn ls per repository. The repository of each module is found with one single svn info
+     * for all modules, or none at all if the working copies are already known.
+     *
+     * Unless an alternate repository base is given, the module is copied server side from its URL, pinned to the
+     * revision it was committed in, or to the revision of the working copy if it hasn't been committed.
+     *
+     * All copies to the same repository are made in one single commit with svnmucc. Modules copied to the same tag
+     * from the same source are only copied once. Progress is told about the modules of each repository once its
+     * copies are made.
+     */
+    @Override
+    public void label(List<Module> modules, Progress progress) {
+        Map<String, Set<String>> existingTagsPerRepository = new HashMap<String, Set<String>>();
+        Map<String, Map<String, String[]>> copiesPerRepository = new LinkedHashMap<String, Map<String, String[]>>();
+        Map<String, List<Module>> modulesPerRepository = new HashMap<String, List<Module>>();
+        Set<String> existingDests = new HashSet<String>();
+        List<Module> unlabeled = new ArrayList<Module>();
+
+        List<File> labeledDirs = new ArrayList<File>();
+        for (Module module : modules) {
+            if (module.label() != null) {
+                labeledDirs.add(module.pomFile().getParentFile());
+            }
+        }
+        Map<File, Info> infos = info(labeledDirs);
+
+        for (Module module : modules) {
+            String label = module.label();
+            if (label != null) {
+                String repositoryUrl = infos.get(canonical(module.pomFile().getParentFile())).repositoryRoot;
+
+                Set<String> existingTags = existingTagsPerRepository.get(repositoryUrl);
+                if (existingTags == null) {
+                    existingTags = existingTags(repositoryUrl);
+                    existingTagsPerRepository.put(repositoryUrl, existingTags);
+                }
+                String src;
+                String revision;
                 if (alternateRepositoryBase == null) {
-                    map.put("src", module.pomFile().getParentFile());
+                    // A server side copy of exactly what was committed, without looking at the working copy.
+                    Info info = infos.get(canonical(module.pomFile().getParentFile()));
+                    src = info.url;
+                    revision = committedRevision(module) != null ? committedRevision(module) : info.revision;
+                } else {
+                    src = repositoryUrl + "/" + alternateRepositoryBase;
+                    revision = "HEAD";
+                }
+                String dest = repositoryUrl + "/" + tagsBase + "/" + label;
+                if (existingTags.contains(label)) {
+                    existingDests.add(dest);
+                }
+
+                Map<String, String[]> copies = copiesPerRepository.get(repositoryUrl);
+                if (copies == null) {
+                    copies = new LinkedHashMap<String, String[]>();
+                    copiesPerRepository.put(repositoryUrl, copies);
+                }
+                List<Module> repositoryModules = modulesPerRepository.get(repositoryUrl);
+                if (repositoryModules == null) {
+                    repositoryModules = new ArrayList<Module>();
+                    modulesPerRepository.put(repositoryUrl, repositoryModules);
+                }
+                repositoryModules.add(module);
+
+                String[] copy = new String[] { revision, src };
+                String[] existing = copies.get(dest);
+                if (existing == null) {
+                    copies.put(dest, copy);
+                } else if (!Arrays.equals(existing, copy)) {
+                    throw new IllegalStateException("Tag " + label + " can't be copied from both " + existing[1] + "@"
+                            + existing[0] + " and " + src + "@" + revision);
+                }
+            } else {
+                unlabeled.add(module);
+            }
+        }
+
+        Map<String, String> problems = new TreeMap<String, String>();
+        for (Map.Entry<String, Map<String, String[]>> entry : copiesPerRepository.entrySet()) {
+            String repositoryUrl = entry.getKey();
+            Iterator<Map.Entry<String, String[]>> copies = entry.getValue().entrySet().iterator();
+            while (copies.hasNext()) {
+                Map.Entry<String, String[]> copy = copies.next();
+                String dest = copy.getKey();
+                if (!existingDests.contains(dest)) {
+                    continue;
+                }
+                String[] expected = copy.getValue();
+                String[] actual = copiedFrom(repositoryUrl, dest);
+                if (actual == null) {
+                    problems.put(dest, "exists, but isn't a copy");
+                } else if (!uriDecode(expected[1]).equals(uriDecode(actual[1]))
+                        || (!expected[0].equals("HEAD") && !expected[0].equals(actual[0]))) {
+                    // A copy of HEAD can't be told from one made before the source was changed.
+                    problems.put(dest, "exists as a copy of " + actual[1] + "@" + actual[0] + ", not of "
+                            + expected[1] + "@" + expected[0]);
                 } else {
-                    map.put("src", repositoryUrl + "/" + alternateRepositoryBase);
+                    System.out.println("Tag " + dest + " already exists as a copy of " + actual[1] + "@" + actual[0]);
+                    copies.remove();
                 }
+            }
+        }
+        if (!problems.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Nothing has been tagged, since ");
+            sb.append(problems.size()).append(problems.size() == 1 ? " tag" : " tags").append(" can't be made:");
+            for (Map.Entry<String, String> problem : problems.entrySet()) {
+                sb.append("\n  ").append(problem.getKey()).append(": ").append(problem.getValue());
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+        if (! unlabeled.isEmpty()) {
+            progress.done(unlabeled);
+        }
+
+        for (Map.Entry<String, Map<String, String[]>> entry : copiesPerRepository.entrySet()) {
+            Map<String, String[]> copies = entry.getValue();
+            if (useSvnmucc) {
+                if (! copies.isEmpty()) {
+                    copyInOneCommit(copies);
+                }
+            } else {
+                for (Map.Entry<String, String[]> copy : copies.entrySet()) {
+                    Map<String, Object> map = new HashMap<String, Object>();
+
+                    CommandLine cmdLine = new CommandLine(commandPath);
+                    cmdLine
+                            .addArgument("copy")
+                            .addArgument("-m").addArgument("");
+
+                    cmdLine.addArgument("${src}");
+                    String[] source = copy.getValue();
+                    map.put("src", source[0].equals("HEAD") ? source[1] : source[1] + "@" + source[0]);
+
+                    cmdLine.addArgument("${dest}");
+                    map.put("dest", copy.getKey());
+
+                    cmdLine.setSubstitutionMap(map);
+                    execute(cmdLine, null);
+                }
+            }
+            progress.done(modulesPerRepository.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Make all these copies, in the same repository, in one single commit with svnmucc. The operations are passed
+     * in an argument file to avoid any limits on the length of the command line.
+     *
+     * @param copies Source revision and URL, by destination URL.
+     */
+    private void copyInOneCommit(Map<String, String[]> copies) {
+        List<String> operations = new ArrayList<String>();
+        for (Map.Entry<String, String[]> copy : copies.entrySet()) {
+            operations.add("cp");
+            operations.add(copy.getValue()[0]);
+            operations.add(copy.getValue()[1]);
+            operations.add(copy.getKey());
+        }
 
-                cmdLine.addArgument("${dest}");
-                map.put("dest", repositoryUrl + "/" + tagsBase + "/" + label);
+        try {
+            File argumentsFile = File.createTempFile("versionbumper", ".args");
+            argumentsFile.deleteOnExit();
+            try {
+                FileUtils.writeLines(argumentsFile, null, operations);
 
+                Map<String, Object> map = new HashMap<String, Object>();
+                CommandLine cmdLine = new CommandLine(svnmuccPath);
+                cmdLine.addArgument("-m").addArgument("");
+                cmdLine.addArgument("-X").addArgument("${arguments}");
+                map.put("arguments", argumentsFile);
                 cmdLine.setSubstitutionMap(map);
+
                 execute(cmdLine, null);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                argumentsFile.delete();
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    private String extractRepositoryUrl(Module module) {
+    /**
+     * Find what an existing tag was copied from, with the oldest entry in its log, without following the copy.
+     *
+     * @return Source revision and URL, or null if the tag wasn't created as a copy.
+     */
+    private String[] copiedFrom(String repositoryUrl, String tagUrl) {
         CommandLine cmdLine = new CommandLine(commandPath);
-        cmdLine.addArgument("info").addArgument("${file}");
+        cmdLine.addArgument("log").addArgument("--xml").addArgument("-v").addArgument("--stop-on-copy");
+        cmdLine.addArgument("--limit").addArgument("1").addArgument("-r").addArgument("1:HEAD");
+        cmdLine.addArgument("${url}");
         Map<String, Object> map = new HashMap<String, Object>();
-        map.put("file", module.pomFile());
+        map.put("url", tagUrl);
         cmdLine.setSubstitutionMap(map);
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ExecuteStreamHandler streamHandler = new ExposingPumpStreamHandler(bos);
+        String tagPath = uriDecode(tagUrl.substring(repositoryUrl.length()));
+        String[] copyFrom = parseCopyFrom(executeWithOutput(cmdLine, null), tagPath);
+        if (copyFrom == null) {
+            return null;
+        }
+        return new String[] { copyFrom[0], repositoryUrl + uriEncode(copyFrom[1]) };
+    }
+
+    /**
+     * Parse the output of svn log --xml -v.
+     *
+     * @return The copyfrom-rev and copyfrom-path of the changed path with this repository path, or null if it isn't
+     * listed as a copy.
+     */
+    private static String[] parseCopyFrom(byte[] xml, final String path) {
+        final String[][] result = new String[1][];
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(xml), new DefaultHandler() {
+                private String[] current;
+                private final StringBuilder text = new StringBuilder();
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    text.setLength(0);
+                    if (qName.equals("path") && attributes.getValue("copyfrom-path") != null) {
+                        current = new String[] { attributes.getValue("copyfrom-rev"), attributes.getValue("copyfrom-path") };
+                    }
+                }
+
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    text.append(ch, start, length);
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) {
+                    if (qName.equals("path")) {
+                        if (current != null && text.toString().trim().equals(path)) {
+                            result[0] = current;
+                        }
+                        current = null;
+                    }
+                }
+            });
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        return result[0];
+    }
+
+    /**
+     * @return Names of everything in the tags base of this repository.
+     */
+    private Set<String> existingTags(String repositoryUrl) {
+        CommandLine cmdLine = new CommandLine(commandPath);
+        cmdLine.addArgument("ls").addArgument("${url}");
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("url", repositoryUrl + "/" + tagsBase);
+        cmdLine.setSubstitutionMap(map);
+
+        Set<String> result = new HashSet<String>();
+        try {
+            byte[] output = executeWithOutput(cmdLine, null);
+            for (Object o : IOUtils.readLines(new ByteArrayInputStream(output), "UTF-8")) {
+                String line = (String) o;
+                if (line.endsWith("/")) {
+                    result.add(line.substring(0, line.length() - 1));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Get the svn info of these paths. Paths in an already known working copy are answered from the cache. All others
+     * are asked for with one svn info, split only if the command line would get too long.
+     *
+     * @param paths Files or directories in Subversion working copies.
+     * @return The info of each path, by its canonical file.
+     */
+    protected Map<File, Info> info(Collection<File> paths) {
+        Map<File, Info> result = new HashMap<File, Info>();
+        Set<String> unknown = new LinkedHashSet<String>();
+        for (File path : paths) {
+            File canonicalPath = canonical(path);
+            Info info = cachedInfo(canonicalPath);
+            if (info != null) {
+                result.put(canonicalPath, info);
+            } else {
+                unknown.add(canonicalPath.getPath());
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            for (List<String> chunk : chunks(new ArrayList<String>(unknown), commandPath.length() + " info --xml".length())) {
+                CommandLine cmdLine = new CommandLine(commandPath);
+                cmdLine.addArgument("info").addArgument("--xml");
+                Map<String, Object> map = new HashMap<String, Object>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    cmdLine.addArgument("${path" + i + "}");
+                    map.put("path" + i, new File(chunk.get(i)));
+                }
+                cmdLine.setSubstitutionMap(map);
+
+                for (Info info : executeAndParse(cmdLine, null, INFOPARSER)) {
+                    infoPerPath.put(info.path, info);
+                    if (info.workingCopy != null && !infoPerWorkingCopy.containsKey(info.workingCopy)) {
+                        Info workingCopyInfo = info.at(info.workingCopy);
+                        if (workingCopyInfo != null) {
+                            infoPerWorkingCopy.put(info.workingCopy, workingCopyInfo);
+                        }
+                    }
+                }
+            }
+
+            for (String path : unknown) {
+                Info info = infoPerPath.get(new File(path));
+                if (info == null) {
+                    throw new IllegalStateException("No repository URL could be found for: " + path);
+                }
+                result.put(new File(path), info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The info of this path, or of the working copy it is in, or null if neither is known.
+     */
+    private Info cachedInfo(File path) {
+        Info info = infoPerPath.get(path);
+        if (info != null) {
+            return info;
+        }
+        for (File current = path; current != null; current = current.getParentFile()) {
+            info = infoPerWorkingCopy.get(current);
+            if (info != null) {
+                return info.at(path);
+            }
+            if (new File(current, ".svn").isDirectory()) {
+                // The root of another working copy.
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the output of svn info --xml as svn writes it.
+     */
+    private static final OutputParser<List<Info>> INFOPARSER = new OutputParser<List<Info>>() {
+        @Override
+        public List<Info> parse(InputStream output) {
+            return parseInfo(output);
+        }
+    };
+
+    /**
+     * Parse the output of svn info --xml.
+     */
+    private static List<Info> parseInfo(InputStream xml) {
+        final List<Info> result = new ArrayList<Info>();
         try {
-            execute(cmdLine, null, -1, streamHandler);
+            SAXParserFactory.newInstance().newSAXParser().parse(xml, new DefaultHandler() {
+                private Info current;
+                private final StringBuilder text = new StringBuilder();
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    text.setLength(0);
+                    if (qName.equals("entry")) {
+                        current = new Info(canonical(new File(attributes.getValue("path"))), attributes.getValue("revision"));
+                        result.add(current);
+                    }
+                }
 
-            List<String> lines = IOUtils.readLines(new ByteArrayInputStream(bos.toByteArray()), "ISO-8859-1");
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    text.append(ch, start, length);
+                }
 
-            for (String line : lines) {
-                if (line.startsWith(REPOSITORY_ROOT)) {
-                    return line.substring(REPOSITORY_ROOT.length());
+                @Override
+                public void endElement(String uri, String localName, String qName) {
+                    if (current == null) {
+                        return;
+                    }
+                    if (qName.equals("url")) {
+                        current.url = text.toString().trim();
+                    } else if (qName.equals("root")) {
+                        current.repositoryRoot = text.toString().trim();
+                    } else if (qName.equals("wcroot-abspath")) {
+                        current.workingCopy = canonical(new File(text.toString().trim()));
+                    } else if (qName.equals("entry")) {
+                        current = null;
+                    }
                 }
+            });
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return The paths that svn status --xml reports as changed, in content or properties.
+     */
+    private static Set<File> parseStatus(byte[] xml) {
+        Set<File> result = new HashSet<File>();
+        for (Map.Entry<File, String> entry : parseStatusItems(xml).entrySet()) {
+            if (!UNCHANGED.contains(entry.getValue())) {
+                result.add(entry.getKey());
             }
+        }
+        return result;
+    }
+
+    /**
+     * @return The status of each path reported by svn status --xml. Paths with changed properties, but otherwise
+     * unchanged, are reported as modified.
+     */
+    private static Map<File, String> parseStatusItems(byte[] xml) {
+        final Map<File, String> result = new HashMap<File, String>();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(xml), new DefaultHandler() {
+                private String path;
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if (qName.equals("entry")) {
+                        path = attributes.getValue("path");
+                    } else if (qName.equals("wc-status") && path != null) {
+                        String item = attributes.getValue("item");
+                        String props = attributes.getValue("props");
+                        if (UNCHANGED.contains(item) && ("modified".equals(props) || "conflicted".equals(props))) {
+                            item = "modified";
+                        }
+                        result.put(canonical(new File(path)), item);
+                    }
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) {
+                    if (qName.equals("entry")) {
+                        path = null;
+                    }
+                }
+            });
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
         }
+    }
+
+    /**
+     * What svn info tells about a path.
+     */
+    protected static class Info {
+        final File path;
+        final String revision;
+        String url;
+        String repositoryRoot;
+        File workingCopy;
+
+        Info(File path, String revision) {
+            this.path = path;
+            this.revision = revision;
+        }
+
+        /**
+         * The info of another path in the same working copy, with the URL moved accordingly. The revision is the
+         * one of this path, which is only right if the working copy isn't mixed.
+         *
+         * @return The info, or null if the URL can't be moved.
+         */
+        Info at(File otherPath) {
+            String from = relativePath(path);
+            String to = relativePath(otherPath);
+            if (from == null || to == null || url == null || !url.endsWith(from)) {
+                return null;
+            }
+            Info result = new Info(otherPath, revision);
+            String base = url.substring(0, url.length() - from.length());
+            result.url = base + to;
+            result.repositoryRoot = repositoryRoot;
+            result.workingCopy = workingCopy;
+            return result;
+        }
+
+        /**
+         * @return The path relative to the working copy root, URL encoded and starting with '/' unless empty.
+         */
+        private String relativePath(File file) {
+            String root = workingCopy.getPath();
+            String path = file.getPath();
+            if (path.equals(root)) {
+                return "";
+            }
+            if (!path.startsWith(root + File.separator)) {
+                return null;
+            }
+            return uriEncode(path.substring(root.length()).replace(File.separatorChar, '/'));
+        }
+    }
+
+    /**
+     * URL encode a path the way svn does it.
+     */
+    static String uriEncode(String path) {
+        StringBuilder sb = new StringBuilder();
+        byte[] bytes;
+        try {
+            bytes = path.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        for (byte b : bytes) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "/-_.!~*'()$&+,;=:@".indexOf(c) >= 0) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", (int) c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decode a URL encoded path. Anything that isn't a valid escape is kept as it is.
+     */
+    static String uriDecode(String path) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%' && i + 2 < path.length() && isHex(path.charAt(i + 1)) && isHex(path.charAt(i + 2))) {
+                bytes.write(Integer.parseInt(path.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                byte[] encoded;
+                try {
+                    encoded = String.valueOf(c).getBytes("UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        try {
+            return bytes.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        throw new IllegalStateException("No repository URL could be found for: " + module.ga());
+    private static boolean isHex(char c) {
+        return Character.digit(c, 16) >= 0;
     }
 }
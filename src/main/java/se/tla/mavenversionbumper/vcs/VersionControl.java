@@ -25,6 +25,15 @@ import java.util.List;
  */
 public interface VersionControl {
 
+    /**
+     * Called before any pom.xml is modified, to find the files that couldn't be committed anyway. These are typically
+     * files with local modifications, files checked out by someone else or files outside of the Version Control.
+     *
+     * @param modules Modules that are about to be modified.
+     * @throws IllegalStateException Listing the pom.xml files that can't be handled, and why.
+     */
+    void preflight(List<Module> modules);
+
     /**
      * Called before any work is done in the Version Control.
      * @param modules Modules to prepare for.
@@ -32,6 +41,13 @@ public interface VersionControl {
      */
     String before(List<Module> modules);
 
+    /**
+     * Tell the Version Control that this module was prepared by {@link #before(List)} in an earlier run, that was
+     * interrupted before the module was saved. It is neither refused by the preflight, nor prepared again.
+     * @param module Module.
+     */
+    void preparedEarlier(Module module);
+
     /**
      * Called after all other work is done in the Version Control.
      * @param modules Modules that has been handled by the Version Control.
@@ -39,6 +55,11 @@ public interface VersionControl {
      */
     String after(List<Module> modules);
 
+    /**
+     * Called when the Version Control won't be used anymore, also after a failure, to stop anything it has started.
+     */
+    void close();
+
     /**
      * Use the Version Control System to revert any changes made to these modules.
      *
@@ -55,9 +76,39 @@ public interface VersionControl {
      */
     void commit(List<Module> modules);
 
+    /**
+     * Commit these modules to the Version Control System, and tell about each commit as soon as it is done.
+     * @param modules Modules.
+     * @param progress Told about the modules of each commit.
+     */
+    void commit(List<Module> modules, Progress progress);
+
+    /**
+     * @param module Module committed by this Version Control.
+     * @return The revision the module was committed in, if the Version Control needs it to label the module later.
+     * null otherwise.
+     */
+    String committedRevision(Module module);
+
+    /**
+     * Tell the Version Control that this module was committed in this revision by an earlier run, that was
+     * interrupted before the module was labeled.
+     * @param module Module.
+     * @param revision Revision as given by {@link #committedRevision(Module)}.
+     */
+    void committedEarlier(Module module, String revision);
+
     /**
      * Apply any labels that has been registered in these modules.
      * @param modules Modules.
      */
     void label(List<Module> modules);
+
+    /**
+     * Apply any labels that has been registered in these modules, and tell about the modules as soon as they are
+     * labeled, or are found to be labeled already.
+     * @param modules Modules.
+     * @param progress Told about the labeled modules.
+     */
+    void label(List<Module> modules, Progress progress);
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ConsistencyChecker class.
+ */
+public class ConsistencyCheckerTest {
+
+    @Test
+    public void testInconsistentTree() throws Exception {
+        List<Module> modules = ModuleLoader.loadAll("target/test-classes/reverse-engineer", "**", null);
+
+        List<String> result = new ConsistencyChecker(modules).check();
+
+        assertEquals(2, result.size());
+        assertTrue(result.get(0), result.get(0).startsWith("commonsconfigtest:baseBA:1.2 "));
+        assertTrue(result.get(0), result.get(0).contains("! commonsconfigtest:baseA dependency 1.7"));
+        assertTrue(result.get(1), result.get(1).startsWith("commonsconfigtest:baseBB:1.2 "));
+        assertTrue(result.get(1), result.get(1).contains("! commonsconfigtest:baseC plugin 1.7"));
+    }
+
+    @Test
+    public void testPropertyReference() throws Exception {
+        Module simple = new Module("target/test-classes/sources", "simple");
+        Module withProperty = new Module("target/test-classes/sources", "dependencyAsProperty");
+
+        List<String> result = new ConsistencyChecker(Arrays.asList(simple, withProperty)).check();
+
+        assertEquals(1, result.size());
+        assertTrue(result.get(0), result.get(0).contains("dependency 4711 (property version)"));
+
+        withProperty.updateProperty("version", simple.version());
+        assertTrue(new ConsistencyChecker(Arrays.asList(simple, withProperty)).check().isEmpty());
+    }
+}
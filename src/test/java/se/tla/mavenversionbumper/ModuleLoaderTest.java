@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ModuleLoader class.
+ */
+public class ModuleLoaderTest {
+
+    private static final String BASEDIR = "target/test-classes/reverse-engineer";
+
+    @Test
+    public void testFindModulePaths() {
+        List<String> paths = ModuleLoader.findModulePaths(new File(BASEDIR));
+
+        assertEquals(Arrays.asList("", "baseA", "baseB", "baseB/baseBA", "baseB/baseBB", "baseB/baseBC", "baseC"), paths);
+    }
+
+    @Test
+    public void testLoadAllByPath() throws Exception {
+        assertEquals(7, ModuleLoader.loadAll(BASEDIR, "**", null).size());
+        assertEquals(3, ModuleLoader.loadAll(BASEDIR, "base?", null).size());
+
+        List<Module> modules = ModuleLoader.loadAll(BASEDIR, "baseB/*", new PomCache());
+        assertEquals(3, modules.size());
+        assertEquals("commonsconfigtest:baseBA", modules.get(0).ga());
+        assertEquals("commonsconfigtest:baseBC", modules.get(2).ga());
+    }
+
+    @Test
+    public void testLoadAllByCoordinates() throws Exception {
+        assertEquals(7, ModuleLoader.loadAll(BASEDIR, "commonsconfigtest:", null).size());
+        assertEquals(4, ModuleLoader.loadAll(BASEDIR, "commonsconfigtest:baseB*", null).size());
+        assertEquals(0, ModuleLoader.loadAll(BASEDIR, "other.*:*", null).size());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ReleaseDiff class.
+ */
+public class ReleaseDiffTest {
+
+    File from;
+    File to;
+
+    @Before
+    public void before() throws IOException {
+        from = createTempDir();
+        to = createTempDir();
+
+        pom(from, "", "parent", "1.0", null, "<properties><b.version>1.0</b.version></properties>");
+        pom(from, "a", "a", "1.0", "1.0", "<dependencies><dependency><groupId>se.tla</groupId><artifactId>b</artifactId><version>${b.version}</version></dependency></dependencies>");
+        pom(from, "b", "b", "1.0", "1.0", "");
+        pom(from, "c", "c", "1.0", "1.0", "");
+
+        pom(to, "", "parent", "1.0", null, "<properties><b.version>1.1</b.version></properties>");
+        pom(to, "a", "a", "1.0", "1.0", "<dependencies><dependency><groupId>se.tla</groupId><artifactId>b</artifactId><version>${b.version}</version></dependency></dependencies>");
+        pom(to, "b", "b", "1.1", "1.0", "");
+        pom(to, "d", "d", "1.0", "1.0", "");
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(from);
+        FileUtils.deleteDirectory(to);
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        ReleaseDiff diff = diff();
+
+        List<ReleaseDiff.Change> changes = diff.changes();
+        assertEquals(4, changes.size());
+        assertEquals("se.tla:a", changes.get(0).ga());
+        assertEquals("changed", changes.get(0).kind());
+        assertEquals("se.tla:b", changes.get(1).ga());
+        assertEquals("changed", changes.get(1).kind());
+        assertEquals("se.tla:d", changes.get(2).ga());
+        assertEquals("added", changes.get(2).kind());
+        assertEquals("se.tla:c", changes.get(3).ga());
+        assertEquals("removed", changes.get(3).kind());
+
+        String report = diff.report();
+        assertTrue(report, report.startsWith("Release diff REL_1 -> REL_2: 2 changed, 1 added, 1 removed, 1 unchanged\n"));
+        assertTrue(report, report.contains("~ se.tla:a 1.0 (a)\n    dependency se.tla:b 1.0 -> 1.1\n"));
+        assertTrue(report, report.contains("~ se.tla:b 1.0 -> 1.1 (b)\n"));
+        assertTrue(report, report.contains("+ se.tla:d 1.0 (d)\n"));
+        assertTrue(report, report.contains("- se.tla:c 1.0 (c)\n"));
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        String json = diff().json();
+
+        assertTrue(json, json.contains("\"from\": \"REL_1\""));
+        assertTrue(json, json.contains("{\"ga\": \"se.tla:b\", \"change\": \"changed\", \"path\": \"b\", \"fromVersion\": \"1.0\", \"toVersion\": \"1.1\""));
+        assertTrue(json, json.contains("{\"section\": \"dependency\", \"ga\": \"se.tla:b\", \"from\": \"1.0\", \"to\": \"1.1\"}"));
+        assertTrue(json, json.contains("\"change\": \"removed\", \"path\": \"c\", \"fromVersion\": \"1.0\", \"toVersion\": null"));
+    }
+
+    @Test
+    public void testNoChanges() throws Exception {
+        Map<String, ReleaseDiff.ModuleSummary> summary = summary(from);
+
+        ReleaseDiff diff = new ReleaseDiff("REL_1", summary, "REL_1", summary);
+
+        assertTrue(diff.changes().isEmpty());
+        assertEquals("Release diff REL_1 -> REL_1: 0 changed, 0 added, 0 removed, 4 unchanged\n", diff.report());
+    }
+
+    private ReleaseDiff diff() throws Exception {
+        return new ReleaseDiff("REL_1", summary(from), "REL_2", summary(to));
+    }
+
+    private static Map<String, ReleaseDiff.ModuleSummary> summary(File dir) throws Exception {
+        return ReleaseDiff.summarize(ModuleLoader.loadAll(dir.getPath(), "**", null), dir);
+    }
+
+    private static void pom(File dir, String path, String artifactId, String version, String parentVersion, String content)
+            throws IOException {
+        String parent = parentVersion == null ? "" : "<parent><groupId>se.tla</groupId><artifactId>parent</artifactId><version>"
+                + parentVersion + "</version></parent>";
+        FileUtils.writeStringToFile(new File(dir, path + "/pom.xml"), "<project><modelVersion>4.0.0</modelVersion>" + parent
+                + "<groupId>se.tla</groupId><artifactId>" + artifactId + "</artifactId><version>" + version
+                + "</version>" + content + "</project>\n", "UTF-8");
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("versionbumper", "release");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+}
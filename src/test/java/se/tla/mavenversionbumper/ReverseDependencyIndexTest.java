@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ReverseDependencyIndex class.
+ */
+public class ReverseDependencyIndexTest {
+
+    private static final String BASEDIR = "target/test-classes/reverse-engineer";
+
+    @Test
+    public void testReferencesTo() throws Exception {
+        Module base = new Module(BASEDIR, "");
+        Module baseA = new Module(BASEDIR, "baseA");
+        Module baseBA = new Module(BASEDIR, "baseB/baseBA");
+        ReverseDependencyIndex subject = new ReverseDependencyIndex(Arrays.asList(base, baseA, baseBA));
+
+        List<Reference> references = subject.referencesTo(base);
+        assertEquals(1, references.size());
+        assertSame(baseA, references.get(0).module());
+        assertEquals(Reference.Section.PARENT, references.get(0).section());
+
+        references = subject.referencesTo(baseBA);
+        assertEquals(1, references.size());
+        assertEquals(Reference.Section.DEPENDENCY, references.get(0).section());
+        assertEquals("1.7", references.get(0).version());
+
+        assertTrue(subject.referencesTo(baseA).isEmpty());
+    }
+
+    @Test
+    public void testPropagate() throws Exception {
+        Module base = new Module(BASEDIR, "");
+        Module baseA = new Module(BASEDIR, "baseA");
+        Module baseB = new Module(BASEDIR, "baseB");
+        Module baseBA = new Module(BASEDIR, "baseB/baseBA");
+        Module baseC = new Module(BASEDIR, "baseC");
+        base.version("1.3");
+        baseB.version("1.4");
+        ReverseDependencyIndex subject = new ReverseDependencyIndex(Arrays.asList(base, baseA, baseB, baseBA, baseC));
+
+        assertEquals(3, subject.propagate(base));
+
+        assertEquals("1.3", baseA.parentVersion());
+        assertEquals("1.3", baseB.parentVersion());
+        assertEquals("1.3", baseC.parentVersion());
+        assertEquals("1.2", baseBA.parentVersion());
+    }
+
+    @Test
+    public void testPropagateOneLevel() throws Exception {
+        Module base = new Module(BASEDIR, "");
+        Module baseA = new Module(BASEDIR, "baseA");
+        Module baseB = new Module(BASEDIR, "baseB");
+        Module baseBA = new Module(BASEDIR, "baseB/baseBA");
+        base.version("1.3");
+        baseB.version("1.4");
+        ReverseDependencyIndex subject = new ReverseDependencyIndex(Arrays.asList(base, baseA, baseB, baseBA));
+
+        subject.propagate(base);
+
+        // baseB refers to base, but its own version isn't propagated.
+        assertEquals("1.3", baseB.parentVersion());
+        assertEquals("1.2", baseBA.parentVersion());
+
+        subject.propagate(baseB);
+
+        assertEquals("1.4", baseBA.parentVersion());
+    }
+
+    @Test
+    public void testPropagateTransitive() throws Exception {
+        Module base = new Module(BASEDIR, "");
+        Module baseA = new Module(BASEDIR, "baseA");
+        Module baseB = new Module(BASEDIR, "baseB");
+        Module baseBA = new Module(BASEDIR, "baseB/baseBA");
+        base.version("1.3");
+        baseB.version("1.4");
+        ReverseDependencyIndex subject = new ReverseDependencyIndex(Arrays.asList(base, baseA, baseB, baseBA));
+
+        subject.propagate(base, true);
+
+        // base -> baseB -> baseBA, since baseB is bumped.
+        assertEquals("1.3", baseA.parentVersion());
+        assertEquals("1.3", baseB.parentVersion());
+        assertEquals("1.4", baseBA.parentVersion());
+    }
+
+    @Test
+    public void testPropagateProperty() throws Exception {
+        Module simple = new Module("target/test-classes/sources", "simple");
+        Module withProperty = new Module("target/test-classes/sources", "dependencyAsProperty");
+        ReverseDependencyIndex subject = new ReverseDependencyIndex(Arrays.asList(simple, withProperty));
+
+        subject.propagate(simple);
+
+        assertEquals("1.0-SNAPSHOT", withProperty.property("version"));
+        assertEquals("${version}", withProperty.references().get(0).version());
+    }
+}
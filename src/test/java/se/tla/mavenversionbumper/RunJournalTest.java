@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the RunJournal class.
+ */
+public class RunJournalTest {
+
+    private File file;
+    private Module simple;
+    private Module dependency;
+
+    @Before
+    public void before() throws Exception {
+        file = File.createTempFile("versionbumper", ".journal");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        simple = new Module("target/test-classes/sources", "simple");
+        dependency = new Module("target/test-classes/sources", "dependency");
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        RunJournal journal = new RunJournal(file);
+        assertFalse("Nothing is written until a step is done", file.exists());
+
+        journal.done(RunJournal.Step.SAVE, simple, null);
+        journal.done(RunJournal.Step.SAVE, dependency, null);
+        journal.done(RunJournal.Step.COMMIT, simple, "21");
+        journal.sync();
+        journal.close();
+
+        RunJournal resumed = new RunJournal(file);
+        assertTrue(resumed.isDone(RunJournal.Step.SAVE, dependency));
+        assertTrue(resumed.isDone(RunJournal.Step.COMMIT, simple));
+        assertFalse(resumed.isDone(RunJournal.Step.COMMIT, dependency));
+        assertEquals("21", resumed.detail(RunJournal.Step.COMMIT, simple));
+        assertNull(resumed.detail(RunJournal.Step.SAVE, simple));
+        assertEquals(Arrays.asList(dependency),
+                resumed.notDone(RunJournal.Step.COMMIT, Arrays.asList(simple, dependency)));
+
+        resumed.delete();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSavedLabelAndCommitMessage() throws Exception {
+        simple.label("TAG");
+        simple.commitMessage("Bump 1.3 -> 1.4\n\twith a tab and a \\n");
+        RunJournal journal = new RunJournal(file);
+        journal.saved(simple);
+        journal.saved(dependency);
+        journal.done(RunJournal.Step.COMMIT, dependency, "21\t22");
+        journal.close();
+
+        // Evaluated again, the saved pom.xml files give other commit messages.
+        Module resumedSimple = new Module("target/test-classes/sources", "simple");
+        resumedSimple.label("OTHER");
+        resumedSimple.commitMessage("Bump 1.4 -> 1.4");
+        Module resumedDependency = new Module("target/test-classes/sources", "dependency");
+        resumedDependency.commitMessage("Bump 1.4 -> 1.4");
+
+        RunJournal resumed = new RunJournal(file);
+        resumed.restoreSaved(resumedSimple);
+        resumed.restoreSaved(resumedDependency);
+        assertEquals("TAG", resumedSimple.label());
+        assertEquals("Bump 1.3 -> 1.4\n\twith a tab and a \\n", resumedSimple.commitMessage());
+        assertNull(resumedDependency.label());
+        assertNull(resumedDependency.commitMessage());
+        assertEquals("21\t22", resumed.detail(RunJournal.Step.COMMIT, dependency));
+        resumed.close();
+    }
+
+    @Test
+    public void testLineCutShort() throws IOException {
+        String path = simple.pomFile().getCanonicalPath();
+        FileUtils.write(file, "SAVE\t" + path + "\nCOMMIT\t" + path, "UTF-8");
+
+        RunJournal journal = new RunJournal(file);
+        assertTrue(journal.isDone(RunJournal.Step.SAVE, simple));
+        assertFalse(journal.isDone(RunJournal.Step.COMMIT, simple));
+
+        journal.done(RunJournal.Step.LABEL, simple, null);
+        journal.close();
+
+        RunJournal resumed = new RunJournal(file);
+        assertFalse(resumed.isDone(RunJournal.Step.COMMIT, simple));
+        assertTrue(resumed.isDone(RunJournal.Step.LABEL, simple));
+        resumed.close();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ScenarioBatch class.
+ */
+public class ScenarioBatchTest {
+
+    private static final String BASEDIR = "target/test-classes/reverse-engineer";
+    private static final File SCENARIOS = new File("target/test-classes/batch");
+
+    @Test
+    public void testBatchFile() throws Exception {
+        List<File> files = ScenarioBatch.scenarioFiles(new File(SCENARIOS, "batch"));
+
+        assertEquals(2, files.size());
+        assertEquals(new File(SCENARIOS, "trainA.bsh").getAbsoluteFile(), files.get(0));
+        assertEquals(new File(SCENARIOS, "trainB.bsh").getAbsoluteFile(), files.get(1));
+    }
+
+    @Test
+    public void testSharedModules() throws Exception {
+        PomCache pomCache = new PomCache();
+        ScenarioBatch subject = new ScenarioBatch(BASEDIR, ScenarioBatch.scenarioFiles(new File(SCENARIOS, "batch")), pomCache);
+
+        subject.evaluate();
+
+        assertTrue(subject.conflicts().isEmpty());
+        List<Module> modules = subject.modules();
+        assertEquals(3, modules.size());
+        assertEquals("1.3", modules.get(0).version());
+        assertEquals(3, pomCache.size());
+    }
+
+    @Test
+    public void testConflict() throws Exception {
+        ScenarioBatch subject = new ScenarioBatch(BASEDIR,
+                Arrays.asList(new File(SCENARIOS, "trainA.bsh"), new File(SCENARIOS, "trainC.bsh")), new PomCache());
+
+        subject.evaluate();
+
+        List<String> conflicts = subject.conflicts();
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).contains("version 1.3"));
+        try {
+            subject.modules();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testUnchangedModuleIsNoConflict() throws Exception {
+        ScenarioBatch subject = new ScenarioBatch(BASEDIR,
+                Arrays.asList(new File(SCENARIOS, "trainD.bsh"), new File(SCENARIOS, "trainC.bsh")), new PomCache());
+
+        subject.evaluate();
+
+        assertTrue(subject.conflicts().isEmpty());
+        List<Module> modules = subject.modules();
+        assertEquals(1, modules.size());
+        // The changed one is kept, even though it was loaded last.
+        assertEquals("2.0", modules.get(0).version());
+    }
+
+    @Test
+    public void testDeprecatedMainLoad() throws Exception {
+        ScenarioBatch subject = new ScenarioBatch(BASEDIR, Arrays.asList(new File(SCENARIOS, "trainE.bsh")),
+                new PomCache());
+
+        subject.evaluate();
+
+        List<Module> modules = subject.modules();
+        assertEquals(1, modules.size());
+        assertEquals("1.4", modules.get(0).version());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ScenarioProfiler class.
+ */
+public class ScenarioProfilerTest {
+
+    @Test
+    public void testProfile() throws Exception {
+        ScenarioProfiler profiler = new ScenarioProfiler();
+        Scenario scenario = new Scenario("target/test-classes/reverse-engineer",
+                new File("target/test-classes/profile/main.bsh"), new PomCache());
+        scenario.profiler(profiler);
+
+        scenario.evaluate();
+
+        assertEquals(3, scenario.modules().size());
+        assertEquals("1.3", scenario.modules().get(1).parentVersion());
+
+        String report = profiler.report();
+        assertTrue(report, report.contains("main.bsh:2  base = load(\"\", \"1.3\");"));
+        assertTrue(report, report.contains("main.bsh:4  source(\"include.bsh\");"));
+        assertTrue(report, report.contains("main.bsh:5  baseA.parentVersion(base); baseA.updateDependency("));
+        assertTrue(report, report.contains("include.bsh:2  baseBA = load(\"baseB/baseBA\", \"1.3\");"));
+        assertTrue(report, report.contains("parse target/test-classes/reverse-engineer/baseA/pom.xml"));
+    }
+
+    @Test
+    public void testSeveralThreads() throws Exception {
+        final ScenarioProfiler profiler = new ScenarioProfiler();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        profiler.begin("outer");
+                        profiler.begin("inner");
+                        profiler.end();
+                        profiler.end();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        String report = profiler.report();
+        assertTrue(report, report.matches("(?s).* 4000  outer\\n.*"));
+        assertTrue(report, report.matches("(?s).* 4000  inner\\n.*"));
+    }
+}
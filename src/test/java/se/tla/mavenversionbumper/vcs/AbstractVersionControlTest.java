@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper.vcs;
+
+import static junit.framework.Assert.*;
+
+import org.apache.commons.exec.CommandLine;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Test of the common functionality in AbstractVersionControl.
+ */
+public class AbstractVersionControlTest {
+
+    @Test
+    public void testOneChunk() {
+        List<List<String>> chunks = AbstractVersionControl.chunks(Arrays.asList("a", "b", "c"), 10);
+
+        assertEquals(1, chunks.size());
+        assertEquals(Arrays.asList("a", "b", "c"), chunks.get(0));
+    }
+
+    @Test
+    public void testEmpty() {
+        List<List<String>> chunks = AbstractVersionControl.chunks(Collections.<String>emptyList(), 10);
+
+        assertEquals(1, chunks.size());
+        assertTrue(chunks.get(0).isEmpty());
+    }
+
+    @Test
+    public void testManyChunks() {
+        List<String> arguments = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            arguments.add(String.format("/some/rather/long/path/to/a/module/number/%04d/pom.xml", i));
+        }
+
+        List<List<String>> chunks = AbstractVersionControl.chunks(arguments, 100);
+
+        assertTrue(chunks.size() > 1);
+        List<String> joined = new ArrayList<String>();
+        for (List<String> chunk : chunks) {
+            int length = 100;
+            for (String argument : chunk) {
+                length += argument.length() + 3;
+            }
+            assertTrue(length <= AbstractVersionControl.MAXCOMMANDLINELENGTH);
+            joined.addAll(chunk);
+        }
+        assertEquals(arguments, joined);
+    }
+
+    @Test
+    public void testExecuteAndParse() {
+        Assume.assumeTrue(!System.getProperty("os.name").toLowerCase().contains("windows"));
+        AbstractVersionControl subject = new Git(new Properties());
+        // Far more than fits in the pipe.
+        CommandLine cmdLine = new CommandLine("sh");
+        cmdLine.addArgument("-c");
+        cmdLine.addArgument("i=0; while [ $i -lt 20000 ]; do echo line $i; i=$((i+1)); done", false);
+
+        // The parser only reads the first line, the rest is thrown away without blocking the command.
+        String first = subject.executeAndParse(cmdLine, null, new AbstractVersionControl.OutputParser<String>() {
+            @Override
+            public String parse(InputStream output) throws IOException {
+                return new BufferedReader(new InputStreamReader(output, "UTF-8")).readLine();
+            }
+        });
+        subject.close();
+
+        assertEquals("line 0", first);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import se.tla.mavenversionbumper.Module;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Test of the ClearcaseSession class, with a scripted fake cleartool.
+ */
+public class ClearcaseSessionTest {
+
+    private static final String FAKE_CLEARTOOL =
+            "#!/bin/sh\n" +
+            "while printf 'cleartool> ' && read -r line; do\n" +
+            "  case \"$line\" in\n" +
+            "    quit) exit 0;;\n" +
+            "    shell\\ *) sh -c \"${line#shell }\";;\n" +
+            "    pid) echo $$;;\n" +
+            "    fail*) echo \"cleartool: Error: Unable to $line\" 1>&2;;\n" +
+            "    warn*) echo \"cleartool: Warning: $line\" 1>&2; echo warned;;\n" +
+            "    sleep*) sleep 5;;\n" +
+            "    mklabel*) echo \"$$ $line\" >> LOG; sleep 1; echo \"ran $line\";;\n" +
+            "    checkin*slow*) echo \"$line\" >> LOG; sleep 1; echo \"ran $line\";;\n" +
+            "    *) echo \"$line\" >> LOG; echo \"ran $line\";;\n" +
+            "  esac\n" +
+            "done\n";
+
+    private File cleartool;
+    private File log;
+    private ClearcaseSession subject;
+
+    @Before
+    public void before() throws IOException {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+
+        log = File.createTempFile("cleartool", "log");
+        cleartool = File.createTempFile("cleartool", "sh");
+        FileUtils.writeStringToFile(cleartool, FAKE_CLEARTOOL.replace("LOG", "'" + log.getAbsolutePath() + "'"));
+        assertTrue(cleartool.setExecutable(true));
+
+        subject = new ClearcaseSession(cleartool.getAbsolutePath());
+    }
+
+    @After
+    public void after() throws IOException {
+        if (subject != null) {
+            subject.close();
+        }
+        if (cleartool != null) {
+            //noinspection ResultOfMethodCallIgnored
+            cleartool.delete();
+            //noinspection ResultOfMethodCallIgnored
+            log.delete();
+        }
+    }
+
+    @Test
+    public void testOneProcess() {
+        String first = run("pid");
+        String second = run("pid");
+
+        assertTrue(first.trim().length() > 0);
+        assertEquals(first, second);
+        assertEquals("ran mklbtype -nc TAG\n", run("mklbtype", "-nc", "TAG"));
+    }
+
+    @Test
+    public void testError() {
+        try {
+            run("fail", "checkin");
+            fail("Should not complete when cleartool reports an error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unable to fail checkin"));
+        }
+
+        // The session is still usable.
+        assertTrue(subject.isAlive());
+        assertEquals("warned\n", run("warn"));
+    }
+
+    @Test
+    public void testTimeout() {
+        try {
+            subject.run(new String[] { "sleep" }, 200);
+            fail("Should time out");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Timed out"));
+        }
+        assertFalse(subject.isAlive());
+    }
+
+    @Test
+    public void testClearcaseWithSession() throws IOException {
+        File pomFile = File.createTempFile("foo", "bar");
+        pomFile.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty(Clearcase.COMMANDPATH, cleartool.getAbsolutePath());
+        properties.setProperty(Clearcase.SESSION, "true");
+        Clearcase clearcase = new Clearcase(properties);
+        clearcase.setExecutor(null);
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", "A message", "TAG");
+
+        clearcase.before(Arrays.asList(module));
+        clearcase.commit(Arrays.asList(module));
+        clearcase.after(Arrays.asList(module));
+        //noinspection ResultOfMethodCallIgnored
+        pomFile.delete();
+
+        @SuppressWarnings("unchecked")
+        List<String> commands = FileUtils.readLines(log);
+        assertEquals(2, commands.size());
+        assertEquals("checkout -reserved -nc " + pomFile.getAbsolutePath(), commands.get(0));
+        assertEquals("checkin -c \"A message\" " + pomFile.getAbsolutePath(), commands.get(1));
+    }
+
+    @Test
+    public void testMultiLineComment() throws IOException {
+        File pomFile = File.createTempFile("foo", "bar");
+        pomFile.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty(Clearcase.COMMANDPATH, cleartool.getAbsolutePath());
+        properties.setProperty(Clearcase.SESSION, "true");
+        Clearcase clearcase = new Clearcase(properties);
+        clearcase.setExecutor(null);
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", "A message\nshell touch INJECTED", "TAG");
+
+        clearcase.before(Arrays.asList(module));
+        clearcase.commit(Arrays.asList(module));
+        clearcase.after(Arrays.asList(module));
+        //noinspection ResultOfMethodCallIgnored
+        pomFile.delete();
+
+        // The comment is given in a file, so the second line isn't run as a command of its own.
+        assertFalse(new File("INJECTED").exists());
+        @SuppressWarnings("unchecked")
+        List<String> commands = FileUtils.readLines(log);
+        assertEquals(2, commands.size());
+        assertTrue(commands.get(1), commands.get(1).startsWith("checkin -cfile "));
+        assertTrue(commands.get(1), commands.get(1).endsWith(" " + pomFile.getAbsolutePath()));
+    }
+
+    @Test
+    public void testMultiLineCommand() {
+        try {
+            run("checkin", "-c", "first\nsecond");
+            fail("Should not send a command that spans lines");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertTrue(subject.isAlive());
+    }
+
+    @Test
+    public void testCheckinTimeoutPerElement() throws IOException {
+        File pomFile1 = File.createTempFile("foo", "bar");
+        pomFile1.deleteOnExit();
+        File pomFile2 = File.createTempFile("foo", "bar");
+        pomFile2.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty(Clearcase.COMMANDPATH, cleartool.getAbsolutePath());
+        properties.setProperty(Clearcase.SESSION, "true");
+        properties.setProperty(Clearcase.ELEMENTTIMEOUT, "700");
+        Clearcase clearcase = new Clearcase(properties);
+        clearcase.setExecutor(null);
+        Module module1 = new TestableModule(pomFile1, "foo", "bar", "1", "slow", "TAG");
+        Module module2 = new TestableModule(pomFile2, "foo", "barf", "1", "slow", "TAG");
+
+        // The checkin of both takes longer than the time out of one element, but not of two.
+        clearcase.before(Arrays.asList(module1, module2));
+        clearcase.commit(Arrays.asList(module1, module2));
+        clearcase.after(Arrays.asList(module1, module2));
+        //noinspection ResultOfMethodCallIgnored
+        pomFile1.delete();
+        //noinspection ResultOfMethodCallIgnored
+        pomFile2.delete();
+
+        @SuppressWarnings("unchecked")
+        List<String> commands = FileUtils.readLines(log);
+        assertEquals(2, commands.size());
+        assertEquals("checkin -c slow " + pomFile1.getAbsolutePath() + " " + pomFile2.getAbsolutePath(),
+                commands.get(1));
+    }
+
+    @Test
+    public void testParallelLabelWithSessions() throws IOException {
+        File root = new File(cleartool.getParentFile(), "clearcasesessiontest");
+        Properties properties = new Properties();
+        properties.setProperty(Clearcase.COMMANDPATH, cleartool.getAbsolutePath());
+        properties.setProperty(Clearcase.SESSION, "true");
+        properties.setProperty(Clearcase.LABELCONCURRENCY, "2");
+        properties.setProperty(Clearcase.LABELCONCURRENCYPERVOB, "2");
+        Clearcase clearcase = new Clearcase(properties);
+        clearcase.setExecutor(null);
+        Module module1 = new TestableModule(new File(root, "a/pom.xml"), "foo", "bar", "1", null, "TAG");
+        Module module2 = new TestableModule(new File(root, "b/pom.xml"), "foo", "barf", "1", null, "TAG");
+
+        clearcase.label(Arrays.asList(module1, module2));
+        clearcase.after(Arrays.asList(module1, module2));
+
+        // Each mklabel ran in a session of its own, not one after the other in the shared one.
+        @SuppressWarnings("unchecked")
+        List<String> commands = FileUtils.readLines(log);
+        List<String> mklabels = new ArrayList<String>();
+        for (String command : commands) {
+            if (command.contains(" mklabel ")) {
+                mklabels.add(command);
+            }
+        }
+        assertEquals(2, mklabels.size());
+        String pid1 = mklabels.get(0).substring(0, mklabels.get(0).indexOf(' '));
+        String pid2 = mklabels.get(1).substring(0, mklabels.get(1).indexOf(' '));
+        assertFalse(pid1.equals(pid2));
+    }
+
+    private String run(String... arguments) {
+        return new String(subject.run(arguments, 10000));
+    }
+}
@@ -17,6 +17,7 @@
 package se.tla.mavenversionbumper.vcs;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.ExecuteException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,10 +26,14 @@ import se.tla.mavenversionbumper.Module;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 /**
@@ -43,6 +48,7 @@ public class ClearcaseTest {
     File pomFile;
     static final String COMMIT_MSG = "COMMITED AS ....";
     static final String LABEL = "TAG";
+    static final String VOB = "/vobs/test";
 
     @Before
     public void before() throws IOException {
@@ -67,20 +73,85 @@ public class ClearcaseTest {
     @Test
     public void testRestore() throws IOException {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getAbsolutePath() + "\n");
 
-        defaultSubject.restore(Arrays.asList(module));
+        defaultSubject.restore(Arrays.asList(module, module));
 
-        assertEquals(1, defaultExecutor.commandLines.size());
-        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        assertEquals(2, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+        assertEquals(4, arguments.length);
+        assertEquals("lscheckout", arguments[0]);
+        assertEquals("-cview", arguments[1]);
+        assertEquals("-short", arguments[2]);
+        assertEquals(pomFile.getAbsolutePath(), arguments[3]);
+
+        CommandLine commandLine = defaultExecutor.commandLines.get(1);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
-        String[] arguments = commandLine.getArguments();
+        arguments = commandLine.getArguments();
         assertEquals(3, arguments.length);
         assertEquals("uncheckout", arguments[0]);
         assertEquals("-rm", arguments[1]);
         assertEquals(pomFile.getAbsolutePath(), arguments[2]);
     }
 
+    @Test
+    public void testPreflight() throws IOException {
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        File freePomFile = File.createTempFile("foo", "bar");
+        freePomFile.deleteOnExit();
+        List<Module> modules = Arrays.asList((Module) new TestableModule(pomFile, "foo", "bar", "1", null, null),
+                new TestableModule(otherPomFile, "foo", "baz", "1", null, null),
+                new TestableModule(freePomFile, "foo", "qux", "1", null, null));
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getAbsolutePath() + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("reserved " + pomFile.getAbsolutePath() + "\nreserved "
+                + otherPomFile.getAbsolutePath() + "\nunreserved " + freePomFile.getAbsolutePath() + "\n");
+
+        try {
+            defaultSubject.preflight(modules);
+            fail("Files already checked out should be refused");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(pomFile.getAbsolutePath() + ": already checked out in this view"));
+            assertTrue(e.getMessage().contains(otherPomFile.getAbsolutePath() + ": checked out reserved in another view"));
+            assertFalse(e.getMessage().contains(freePomFile.getAbsolutePath()));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            otherPomFile.delete();
+            //noinspection ResultOfMethodCallIgnored
+            freePomFile.delete();
+        }
+
+        assertEquals(2, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(1).getArguments();
+        assertEquals(6, arguments.length);
+        assertEquals("lscheckout", arguments[0]);
+        assertEquals("-fmt", arguments[1]);
+    }
+
+    @Test
+    public void testPreparedEarlier() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, "TAG");
+
+        // A resumed run, after an interrupted one that checked out the pom.xml but didn't save it.
+        defaultSubject.preparedEarlier(module);
+        defaultSubject.preflight(Arrays.asList(module));
+        defaultSubject.before(Arrays.asList(module));
+
+        // Neither refused as already checked out, nor checked out again.
+        assertEquals(0, defaultExecutor.commandLines.size());
+    }
+
+    @Test
+    public void testRestoreNotCheckedOut() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+
+        defaultSubject.restore(Arrays.asList(module));
+
+        // Only the lscheckout.
+        assertEquals(1, defaultExecutor.commandLines.size());
+    }
+
     @Test
     public void testCommit() {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, null);
@@ -99,23 +170,86 @@ public class ClearcaseTest {
         assertEquals(pomFile.getAbsolutePath(), arguments[3]);
     }
 
+    @Test
+    public void testCommitWithBothQuotes() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", "It's \"quoted\"", null);
+
+        defaultSubject.commit(Arrays.asList(module));
+
+        // Can't be quoted on the command line, so it is given in a file.
+        String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+        assertEquals(4, arguments.length);
+        assertEquals("checkin", arguments[0]);
+        assertEquals("-cfile", arguments[1]);
+        assertEquals(pomFile.getAbsolutePath(), arguments[3]);
+    }
+
+    @Test
+    public void testCommitGroupedPerComment() throws IOException {
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, null);
+        Module module2 = new TestableModule(otherPomFile, "foo", "barf", "1", COMMIT_MSG, null);
+        Module module3 = new TestableModule(pomFile, "foo", "bars", "1", null, null);
+
+        RecordingProgress progress = new RecordingProgress();
+        defaultSubject.commit(Arrays.asList(module1, module2, module3), progress);
+        //noinspection ResultOfMethodCallIgnored
+        otherPomFile.delete();
+
+        assertEquals(2, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+        assertEquals(5, arguments.length);
+        assertEquals("checkin", arguments[0]);
+        assertEquals("-c", arguments[1]);
+        assertEquals(pomFile.getAbsolutePath(), arguments[3]);
+        assertEquals(otherPomFile.getAbsolutePath(), arguments[4]);
+
+        arguments = defaultExecutor.commandLines.get(1).getArguments();
+        assertEquals(3, arguments.length);
+        assertEquals("checkin", arguments[0]);
+        assertEquals("-nc", arguments[1]);
+        assertEquals(pomFile.getAbsolutePath(), arguments[2]);
+
+        assertEquals(Arrays.asList(Arrays.asList(module1, module2), Arrays.asList(module3)), progress.done);
+    }
+
     @Test
     public void testLabel() {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
 
         defaultSubject.label(Arrays.asList(module));
 
-        assertEquals(2, defaultExecutor.commandLines.size());
+        // The label type doesn't exist in the VOB, so nothing can be labeled already.
+        assertEquals(4, defaultExecutor.commandLines.size());
         CommandLine commandLine = defaultExecutor.commandLines.get(0);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
+        assertEquals(Arrays.asList("describe", "-short", "vob:" + pomFile.getParentFile().getPath()),
+                Arrays.asList(commandLine.getArguments()));
+
+        commandLine = defaultExecutor.commandLines.get(1);
+        assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         String[] arguments = commandLine.getArguments();
+        assertEquals(6, arguments.length);
+        assertEquals("lstype", arguments[0]);
+        assertEquals("-kind", arguments[1]);
+        assertEquals("lbtype", arguments[2]);
+        assertEquals("-short", arguments[3]);
+        assertEquals("-invob", arguments[4]);
+        assertEquals(VOB, arguments[5]);
+
+        commandLine = defaultExecutor.commandLines.get(2);
+        assertEquals(COMMANDPATH, commandLine.getExecutable());
+
+        arguments = commandLine.getArguments();
         assertEquals(3, arguments.length);
         assertEquals("mklbtype", arguments[0]);
         assertEquals("-nc", arguments[1]);
-        assertEquals(LABEL, arguments[2]);
+        assertEquals(LABEL + "@" + VOB, arguments[2]);
 
-        commandLine = defaultExecutor.commandLines.get(1);
+        commandLine = defaultExecutor.commandLines.get(3);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         arguments = commandLine.getArguments();
@@ -128,6 +262,98 @@ public class ClearcaseTest {
         assertEquals(pomFile.getParentFile().getAbsolutePath(), arguments[5]);
     }
 
+    @Test
+    public void testAlreadyLabeled() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getAbsolutePath() + "@@/main/3\n");
+        defaultExecutor.resultStreamsAsStrings.add("");
+
+        defaultSubject.label(Arrays.asList(module));
+
+        // Only the describe, lstype and the two find, no mklbtype or mklabel.
+        assertEquals(4, defaultExecutor.commandLines.size());
+        assertEquals("describe", defaultExecutor.commandLines.get(0).getArguments()[0]);
+        assertEquals("lstype", defaultExecutor.commandLines.get(1).getArguments()[0]);
+        assertEquals(Arrays.asList("find", pomFile.getAbsolutePath(), "-nrecurse", "-cview", "-version",
+                "lbtype(" + LABEL + ")", "-print"),
+                Arrays.asList(defaultExecutor.commandLines.get(2).getArguments()));
+        assertEquals(Arrays.asList("find", pomFile.getParentFile().getAbsolutePath(), "-cview", "-version",
+                "!lbtype(" + LABEL + ")", "-print"),
+                Arrays.asList(defaultExecutor.commandLines.get(3).getArguments()));
+    }
+
+    @Test
+    public void testHalfLabeled() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getAbsolutePath() + "@@/main/3\n");
+        // An interrupted mklabel -recurse labeled the pom.xml, but not everything below it.
+        defaultExecutor.resultStreamsAsStrings.add(
+                new File(pomFile.getParentFile(), "src/Foo.java").getAbsolutePath() + "@@/main/1\n");
+
+        defaultSubject.label(Arrays.asList(module));
+
+        assertEquals(5, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(4).getArguments();
+        assertEquals("mklabel", arguments[0]);
+        assertEquals("-recurse", arguments[1]);
+    }
+
+    @Test
+    public void testFindFailure() {
+        defaultExecutor = new FakeExecutor() {
+            @Override
+            public int execute(CommandLine command) throws IOException {
+                super.execute(command);
+                if (command.getArguments()[0].equals("find")) {
+                    throw new ExecuteException("Timed out", 1);
+                }
+                return 0;
+            }
+        };
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "\n");
+        defaultSubject.setExecutor(defaultExecutor);
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+
+        try {
+            defaultSubject.label(Arrays.asList(module));
+            fail("A failing find should not be taken as nothing being labeled");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        assertEquals(3, defaultExecutor.commandLines.size());
+    }
+
+    @Test
+    public void testExistingLabelType() {
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("OTHER\n" + LABEL + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("");
+        defaultExecutor.resultStreamsAsStrings.add("");
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
+
+        defaultSubject.label(Arrays.asList(module1));
+        Module module2 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL + "2");
+        defaultSubject.label(Arrays.asList(module2));
+
+        // The label types of the VOB are only listed once, and only the missing one is created. There is nothing to
+        // find for the missing one.
+        assertEquals(7, defaultExecutor.commandLines.size());
+        assertEquals("describe", defaultExecutor.commandLines.get(0).getArguments()[0]);
+        assertEquals("lstype", defaultExecutor.commandLines.get(1).getArguments()[0]);
+        assertEquals("find", defaultExecutor.commandLines.get(2).getArguments()[0]);
+        assertEquals("mklabel", defaultExecutor.commandLines.get(3).getArguments()[0]);
+        assertEquals("describe", defaultExecutor.commandLines.get(4).getArguments()[0]);
+        assertEquals(Arrays.asList("mklbtype", "-nc", LABEL + "2@" + VOB),
+                Arrays.asList(defaultExecutor.commandLines.get(5).getArguments()));
+        assertEquals("mklabel", defaultExecutor.commandLines.get(6).getArguments()[0]);
+    }
+
     @Test
     public void testIllegalLabel() {
         tryIllegalLabel("TAG,");
@@ -150,20 +376,24 @@ public class ClearcaseTest {
     public void testMultipleLabels() {
         Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
         Module module2 = new TestableModule(pomFile, "foo", "barf", "1", null, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n");
 
         defaultSubject.label(Arrays.asList(module1, module2));
 
-        assertEquals(3, defaultExecutor.commandLines.size());
-        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        // The second mklabel would label the same directory again.
+        assertEquals(4, defaultExecutor.commandLines.size());
+        assertEquals("describe", defaultExecutor.commandLines.get(0).getArguments()[0]);
+        assertEquals("lstype", defaultExecutor.commandLines.get(1).getArguments()[0]);
+        CommandLine commandLine = defaultExecutor.commandLines.get(2);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         String[] arguments = commandLine.getArguments();
         assertEquals(3, arguments.length);
         assertEquals("mklbtype", arguments[0]);
         assertEquals("-nc", arguments[1]);
-        assertEquals(LABEL, arguments[2]);
+        assertEquals(LABEL + "@" + VOB, arguments[2]);
 
-        commandLine = defaultExecutor.commandLines.get(1);
+        commandLine = defaultExecutor.commandLines.get(3);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         arguments = commandLine.getArguments();
@@ -175,17 +405,56 @@ public class ClearcaseTest {
         assertEquals(LABEL, arguments[4]);
         assertEquals(pomFile.getParentFile().getAbsolutePath(), arguments[5]);
 
-        commandLine = defaultExecutor.commandLines.get(2);
-        assertEquals(COMMANDPATH, commandLine.getExecutable());
+    }
 
-        arguments = commandLine.getArguments();
+    @Test
+    public void testOverlappingLabels() {
+        File root = new File(pomFile.getParentFile(), "clearcasetest");
+        Module parent = new TestableModule(new File(root, "a/pom.xml"), "foo", "a", "1", null, LABEL);
+        Module child = new TestableModule(new File(root, "a/b/pom.xml"), "foo", "b", "1", null, LABEL);
+        TestableModule childPom = new TestableModule(new File(root, "a/c/pom.xml"), "foo", "c", "1", null, LABEL);
+        childPom.labelOnlyPomXml = true;
+        TestableModule pom1 = new TestableModule(new File(root, "d/pom.xml"), "foo", "d", "1", null, LABEL);
+        pom1.labelOnlyPomXml = true;
+        TestableModule pom2 = new TestableModule(new File(root, "e/pom.xml"), "foo", "e", "1", null, LABEL);
+        pom2.labelOnlyPomXml = true;
+        Module other = new TestableModule(new File(root, "a/b/pom.xml"), "foo", "b", "1", null, LABEL + "2");
+        defaultExecutor.resultStreamsAsStrings.add(VOB + "\n" + VOB + "\n" + VOB + "\n" + VOB + "\n" + VOB + "\n");
+
+        RecordingProgress progress = new RecordingProgress();
+        defaultSubject.label(Arrays.<Module>asList(child, pom1, parent, childPom, pom2, other), progress);
+
+        // One describe, one lstype and one mklbtype for both labels, one recursive mklabel per label and one mklabel
+        // for the pom.xml files.
+        assertEquals(6, defaultExecutor.commandLines.size());
+        assertEquals(7, defaultExecutor.commandLines.get(0).getArguments().length);
+        assertEquals(Arrays.asList("mklbtype", "-nc", LABEL + "@" + VOB, LABEL + "2@" + VOB),
+                Arrays.asList(defaultExecutor.commandLines.get(2).getArguments()));
+
+        String[] arguments = defaultExecutor.commandLines.get(3).getArguments();
         assertEquals(6, arguments.length);
-        assertEquals("mklabel", arguments[0]);
         assertEquals("-recurse", arguments[1]);
-        assertEquals("-replace", arguments[2]);
-        assertEquals("-nc", arguments[3]);
         assertEquals(LABEL, arguments[4]);
-        assertEquals(pomFile.getParentFile().getAbsolutePath(), arguments[5]);
+        assertEquals(new File(root, "a").getPath(), arguments[5]);
+
+        arguments = defaultExecutor.commandLines.get(4).getArguments();
+        assertEquals(8, arguments.length);
+        assertEquals("mklabel", arguments[0]);
+        assertEquals("-replace", arguments[1]);
+        assertEquals("-nc", arguments[2]);
+        assertEquals(LABEL, arguments[3]);
+        assertEquals(new File(root, "d/pom.xml").getPath(), arguments[4]);
+        assertEquals(new File(root, "d").getPath(), arguments[5]);
+        assertEquals(new File(root, "e/pom.xml").getPath(), arguments[6]);
+        assertEquals(new File(root, "e").getPath(), arguments[7]);
+
+        arguments = defaultExecutor.commandLines.get(5).getArguments();
+        assertEquals(LABEL + "2", arguments[4]);
+        assertEquals(new File(root, "a/b").getPath(), arguments[5]);
+
+        // The modules are reported as labeled by the mklabel that covers them.
+        assertEquals(Arrays.asList(Arrays.asList(child, parent, childPom), Arrays.<Module>asList(pom1, pom2),
+                Arrays.asList(other)), progress.done);
     }
 
     @Test
@@ -241,4 +510,153 @@ public class ClearcaseTest {
         assertFalse("Should not be -1", pos == -1);
         assertEquals("No more labels should be present", -1, result.indexOf(LABEL, pos + 1));
     }
+
+    @Test
+    public void testBeforeBatched() throws IOException {
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        Module module2 = new TestableModule(otherPomFile, "foo", "barf", "1", null, LABEL);
+        Module module3 = new TestableModule(pomFile, "foo", "bars", "1", null, LABEL);
+
+        defaultSubject.before(Arrays.asList(module1, module2, module3));
+        // Already checked out, so nothing more to do.
+        defaultSubject.before(Arrays.asList(module2));
+        //noinspection ResultOfMethodCallIgnored
+        otherPomFile.delete();
+
+        assertEquals(1, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+        assertEquals(5, arguments.length);
+        assertEquals("checkout", arguments[0]);
+        assertEquals(pomFile.getAbsolutePath(), arguments[3]);
+        assertEquals(otherPomFile.getAbsolutePath(), arguments[4]);
+    }
+
+    @Test
+    public void testBeforePartialFailure() throws IOException {
+        final File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        defaultExecutor = new FakeExecutor() {
+            @Override
+            public int execute(CommandLine command) throws IOException {
+                super.execute(command);
+                if (command.getArguments()[0].equals("checkout")) {
+                    throw new ExecuteException("Partial failure", 1);
+                }
+                return 0;
+            }
+        };
+        defaultExecutor.resultStreamsAsStrings.add("");
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getAbsolutePath() + "\n");
+        defaultSubject.setExecutor(defaultExecutor);
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        Module module2 = new TestableModule(otherPomFile, "foo", "barf", "1", null, LABEL);
+
+        try {
+            defaultSubject.before(Arrays.asList(module1, module2));
+            fail("Should not complete when the checkout fails");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(otherPomFile.getAbsolutePath()));
+            assertFalse(e.getMessage(), e.getMessage().contains(pomFile.getAbsolutePath()));
+        }
+        assertEquals("lscheckout", defaultExecutor.commandLines.get(1).getArguments()[0]);
+
+        // Only the file that failed is checked out again.
+        try {
+            defaultSubject.before(Arrays.asList(module1, module2));
+        } catch (RuntimeException e) {
+            // Expected, still failing.
+        }
+        //noinspection ResultOfMethodCallIgnored
+        otherPomFile.delete();
+        String[] arguments = defaultExecutor.commandLines.get(2).getArguments();
+        assertEquals(4, arguments.length);
+        assertEquals(otherPomFile.getAbsolutePath(), arguments[3]);
+    }
+
+    @Test
+    public void testParallelLabel() {
+        File root = new File(pomFile.getParentFile(), "clearcasetest");
+        defaultCommandProperties.setProperty(Clearcase.LABELCONCURRENCY, "2");
+        defaultSubject = new Clearcase(defaultCommandProperties);
+        defaultSubject.setExecutor(defaultExecutor);
+        defaultExecutor.resultStreamsAsStrings.add("/vobs/a\n/vobs/b\n");
+        defaultExecutor.resultStreamsAsStrings.add("");
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("");
+        defaultExecutor.resultStreamsAsStrings.add("");
+        Module module1 = new TestableModule(new File(root, "a/pom.xml"), "foo", "bar", "1", null, LABEL);
+        Module module2 = new TestableModule(new File(root, "b/pom.xml"), "foo", "barf", "1", null, LABEL);
+
+        defaultSubject.label(Arrays.asList(module1, module2));
+
+        assertEquals(7, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+        assertEquals(4, arguments.length);
+        assertEquals("describe", arguments[0]);
+        assertEquals("-short", arguments[1]);
+        assertEquals("vob:" + new File(root, "a").getPath(), arguments[2]);
+        assertEquals("vob:" + new File(root, "b").getPath(), arguments[3]);
+
+        // The label types are listed per VOB, and the label type is only created in the VOB that lacks it.
+        assertEquals(Arrays.asList("lstype", "-kind", "lbtype", "-short", "-invob", "/vobs/a"),
+                Arrays.asList(defaultExecutor.commandLines.get(1).getArguments()));
+        assertEquals(Arrays.asList("lstype", "-kind", "lbtype", "-short", "-invob", "/vobs/b"),
+                Arrays.asList(defaultExecutor.commandLines.get(2).getArguments()));
+        assertEquals("find", defaultExecutor.commandLines.get(3).getArguments()[0]);
+        assertEquals(new File(root, "b/pom.xml").getPath(), defaultExecutor.commandLines.get(3).getArguments()[1]);
+        assertEquals(Arrays.asList("mklbtype", "-nc", LABEL + "@/vobs/a"),
+                Arrays.asList(defaultExecutor.commandLines.get(4).getArguments()));
+
+        // The two mklabel may run in any order.
+        assertEquals("mklabel", defaultExecutor.commandLines.get(5).getArguments()[0]);
+        assertEquals("mklabel", defaultExecutor.commandLines.get(6).getArguments()[0]);
+        assertEquals(new HashSet<String>(Arrays.asList(new File(root, "a").getPath(), new File(root, "b").getPath())),
+                new HashSet<String>(Arrays.asList(defaultExecutor.commandLines.get(5).getArguments()[5],
+                        defaultExecutor.commandLines.get(6).getArguments()[5])));
+    }
+
+    @Test
+    public void testParallelPomOnlyLabelPerVob() {
+        File root = new File(pomFile.getParentFile(), "clearcasetest");
+        defaultCommandProperties.setProperty(Clearcase.LABELCONCURRENCY, "2");
+        defaultSubject = new Clearcase(defaultCommandProperties);
+        defaultSubject.setExecutor(defaultExecutor);
+        defaultExecutor.resultStreamsAsStrings.add("/vobs/a\n/vobs/b\n/vobs/a\n");
+        TestableModule module1 = new TestableModule(new File(root, "a/pom.xml"), "foo", "bar", "1", null, LABEL);
+        TestableModule module2 = new TestableModule(new File(root, "b/pom.xml"), "foo", "barf", "1", null, LABEL);
+        TestableModule module3 = new TestableModule(new File(root, "c/pom.xml"), "foo", "barg", "1", null, LABEL);
+        module1.labelOnlyPomXml = true;
+        module2.labelOnlyPomXml = true;
+        module3.labelOnlyPomXml = true;
+
+        defaultSubject.label(Arrays.<Module>asList(module1, module2, module3));
+
+        // describe, lstype and mklbtype per VOB, and one mklabel per VOB, in any order.
+        assertEquals(7, defaultExecutor.commandLines.size());
+        assertEquals("describe", defaultExecutor.commandLines.get(0).getArguments()[0]);
+        assertEquals(5, defaultExecutor.commandLines.get(0).getArguments().length);
+        Set<List<String>> targets = new HashSet<List<String>>();
+        for (int i = 5; i < 7; i++) {
+            String[] arguments = defaultExecutor.commandLines.get(i).getArguments();
+            assertEquals("mklabel", arguments[0]);
+            targets.add(Arrays.asList(arguments).subList(4, arguments.length));
+        }
+        assertEquals(new HashSet<List<String>>(Arrays.asList(
+                Arrays.asList(new File(root, "a/pom.xml").getPath(), new File(root, "a").getPath(),
+                        new File(root, "c/pom.xml").getPath(), new File(root, "c").getPath()),
+                Arrays.asList(new File(root, "b/pom.xml").getPath(), new File(root, "b").getPath()))), targets);
+    }
+
+    @Test
+    public void testIllegalLabelConcurrency() {
+        defaultCommandProperties.setProperty(Clearcase.LABELCONCURRENCY, "0");
+        try {
+            new Clearcase(defaultCommandProperties);
+            fail("Should not accept a label concurrency of 0");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
 }
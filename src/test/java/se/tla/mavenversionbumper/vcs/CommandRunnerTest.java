@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.apache.commons.exec.CommandLine;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Test of the CommandRunner class.
+ */
+public class CommandRunnerTest {
+
+    @Before
+    public void before() {
+        Assume.assumeTrue(!System.getProperty("os.name").toLowerCase().contains("windows"));
+    }
+
+    @Test
+    public void testSubmit() throws ExecutionException, InterruptedException {
+        CommandRunner subject = new CommandRunner("test", 2);
+        CommandLine cmdLine = new CommandLine("echo");
+        cmdLine.addArgument("hello");
+
+        assertEquals("hello\n", new String(subject.submit(cmdLine, null, 10000).get()));
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws ExecutionException, InterruptedException {
+        CommandRunner subject = new CommandRunner("test", 2);
+        CommandLine cmdLine = new CommandLine("sleep");
+        cmdLine.addArgument("0.3");
+
+        long start = System.currentTimeMillis();
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(subject.submit(cmdLine, null, 10000));
+        }
+        for (Future<byte[]> future : futures) {
+            future.get();
+        }
+
+        // Two at a time, so at least two rounds.
+        assertTrue(System.currentTimeMillis() - start >= 600);
+    }
+
+    @Test
+    public void testSharedExecutor() throws ExecutionException, InterruptedException {
+        CommandRunner subject = new CommandRunner("test", 2);
+        FakeExecutor executor = new FakeExecutor();
+        executor.resultStreamAsString = "faked";
+        subject.setExecutor(executor);
+
+        assertEquals("faked", new String(subject.submit(new CommandLine("anything"), null, 10000).get()));
+        assertEquals(1, executor.commandLines.size());
+    }
+
+    @Test
+    public void testDaemonThreadsAndClose() throws ExecutionException, InterruptedException {
+        CommandRunner subject = new CommandRunner("test", 2);
+        final List<Boolean> daemon = new ArrayList<Boolean>();
+        FakeExecutor executor = new FakeExecutor() {
+            @Override
+            public int execute(CommandLine command) throws IOException {
+                daemon.add(Thread.currentThread().isDaemon());
+                return super.execute(command);
+            }
+        };
+        subject.setExecutor(executor);
+
+        subject.submit(new CommandLine("anything"), null, 10000).get();
+        subject.close();
+        // Still usable after close, with new threads.
+        subject.submit(new CommandLine("anything"), null, 10000).get();
+        subject.close();
+
+        assertEquals(Arrays.asList(true, true), daemon);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testFailure() throws ExecutionException, InterruptedException {
+        CommandRunner subject = new CommandRunner("test", 1);
+
+        subject.submit(new CommandLine("false"), null, 10000).get();
+    }
+
+    @Test
+    public void testEvents() {
+        CommandTelemetry.clear();
+        CommandRunner subject = new CommandRunner("test", 1);
+        CommandLine cmdLine = new CommandLine("echo");
+        cmdLine.addArgument("hello");
+
+        subject.run(cmdLine, null, 10000, new ExposingPumpStreamHandler(new ByteArrayOutputStream(), System.err));
+        try {
+            subject.run(new CommandLine("false"), null, 10000,
+                    new ExposingPumpStreamHandler(new ByteArrayOutputStream(), System.err));
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        List<CommandEvent> events = CommandTelemetry.events();
+        assertEquals(2, events.size());
+        assertEquals("test", events.get(0).backend());
+        assertEquals("echo hello", events.get(0).verb());
+        assertEquals(0, events.get(0).exitCode());
+        assertEquals(6, events.get(0).stdoutBytes());
+        assertEquals("false", events.get(1).verb());
+        assertEquals(1, events.get(1).exitCode());
+        if (ProcStats.available()) {
+            assertTrue(events.get(0).childCpuMillis() >= 0);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Test of the CommandTelemetry class.
+ */
+public class CommandTelemetryTest {
+
+    @After
+    public void after() {
+        CommandTelemetry.clear();
+    }
+
+    @Test
+    public void testSummary() {
+        CommandTelemetry.clear();
+        assertNull(CommandTelemetry.summary());
+
+        CommandTelemetry.record(event("svn info", 1000, 0, 100, 2048));
+        CommandTelemetry.record(event("svn commit", 5000, 1, 300, 4096));
+        CommandTelemetry.record(event("svn info", 2000, 0, CommandEvent.UNKNOWN, CommandEvent.UNKNOWN));
+
+        String[] lines = CommandTelemetry.summary().split("\\r?\\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("Backend"));
+        // The slowest verb first.
+        assertEquals("subversion svn commit 1 5.00 0.30 4.0 0.0 0.0 1", lines[1].trim().replaceAll(" +", " "));
+        assertEquals("subversion svn info 2 3.00 0.10 2.0 0.0 0.0 0", lines[2].trim().replaceAll(" +", " "));
+    }
+
+    @Test
+    public void testVerb() {
+        assertEquals("git commit", CommandEvent.verb("git", new String[] { "commit", "-m", "x" }));
+        assertEquals("cleartool mklabel", CommandEvent.verb("C:\\bin\\cleartool.exe".replace('\\', File.separatorChar),
+                new String[] { "mklabel" }));
+        assertEquals("svnmucc", CommandEvent.verb("svnmucc", new String[] { "-m", "", "-X", "file" }));
+        assertEquals("git", CommandEvent.verb("git", new String[0]));
+    }
+
+    private static CommandEvent event(String verb, long wallMillis, int exitCode, long cpuMillis, long rssKb) {
+        return new CommandEvent("subversion", verb, verb, null, 0, wallMillis, exitCode, 0, 0, cpuMillis, rssKb);
+    }
+}
@@ -23,9 +23,11 @@ import org.apache.commons.exec.ExecuteStreamHandler;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.Executor;
 import org.apache.commons.exec.ProcessDestroyer;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,9 +40,12 @@ public class FakeExecutor implements Executor {
 
     public List<CommandLine> commandLines = new LinkedList<CommandLine>();
     public String resultStreamAsString;
+    public LinkedList<String> resultStreamsAsStrings = new LinkedList<String>();
     public String errorStreamAsString;
     public OutputStream outputStream;
     public OutputStream errorStream;
+    public InputStream inputStream;
+    public List<String> inputs = new LinkedList<String>();
 
     @Override
     public void setExitValue(int value) {
@@ -67,6 +72,7 @@ public class FakeExecutor implements Executor {
         if (streamHandler instanceof ExposingPumpStreamHandler) {
             this.outputStream = ((ExposingPumpStreamHandler) streamHandler).getOutputStream();
             this.errorStream = ((ExposingPumpStreamHandler) streamHandler).getErrorStream();
+            this.inputStream = ((ExposingPumpStreamHandler) streamHandler).getInputStream();
         } else {
             throw new IllegalArgumentException("Sorry, can only fake streams using a ExposingPumpStreamHandler");
         }
@@ -102,8 +108,12 @@ public class FakeExecutor implements Executor {
     @Override
     public int execute(CommandLine command) throws ExecuteException, IOException {
         commandLines.add(command);
-        if (resultStreamAsString != null) {
-            outputStream.write(resultStreamAsString.getBytes("ISO-8859-1"));
+        if (inputStream != null) {
+            inputs.add(IOUtils.toString(inputStream, "UTF-8"));
+        }
+        String result = resultStreamsAsStrings.isEmpty() ? resultStreamAsString : resultStreamsAsStrings.removeFirst();
+        if (result != null) {
+            outputStream.write(result.getBytes("ISO-8859-1"));
         }
         if (errorStreamAsString != null) {
             errorStream.write(errorStreamAsString.getBytes("ISO-8859-1"));
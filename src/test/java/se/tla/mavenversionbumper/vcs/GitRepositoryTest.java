@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper.vcs;
+
+import static junit.framework.Assert.*;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import se.tla.mavenversionbumper.Module;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Test of the in-process git writer against a repository created by git itself. Skipped if git isn't installed.
+ */
+public class GitRepositoryTest {
+
+    File root;
+    File pomA;
+    File pomB;
+    Git subject;
+    FakeExecutor executor;
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(gitAvailable());
+
+        root = File.createTempFile("versionbumper", "repo");
+        root.delete();
+        root.mkdirs();
+        pomA = new File(root, "a/pom.xml");
+        pomB = new File(root, "b/c/pom.xml");
+        FileUtils.writeStringToFile(pomA, "<project>1.0-SNAPSHOT</project>\n", "UTF-8");
+        FileUtils.writeStringToFile(pomB, "<project>2.0-SNAPSHOT</project>\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(root, "b/README"), "Untouched\n", "UTF-8");
+
+        git("init", "-q");
+        git("config", "user.name", "Version Bumper");
+        git("config", "user.email", "bumper@example.com");
+        git("add", ".");
+        git("commit", "-q", "-m", "Initial");
+        // Pack everything so the existing trees are read from a pack file.
+        git("gc", "-q");
+
+        Properties properties = new Properties();
+        properties.setProperty(AbstractVersionControl.VERSIONCONTROL, Git.ACRONYM);
+        properties.setProperty(Git.INPROCESS, "true");
+        properties.setProperty(Git.ANNOTATEDTAGS, "true");
+        executor = new FakeExecutor();
+        subject = new Git(properties);
+        subject.setExecutor(executor);
+    }
+
+    @After
+    public void after() throws IOException {
+        if (root != null) {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testCommitAndLabel() throws Exception {
+        FileUtils.writeStringToFile(pomA, "<project>1.0</project>\n", "UTF-8");
+        FileUtils.writeStringToFile(pomB, "<project>2.0</project>\n", "UTF-8");
+        Module moduleA = new TestableModule(pomA, "foo", "a", "1.0", "Release", "REL_1");
+        Module moduleB = new TestableModule(pomB, "foo", "b", "2.0", "Release", "REL_1");
+
+        subject.commit(Arrays.asList(moduleA, moduleB));
+        subject.label(Arrays.asList(moduleA, moduleB));
+
+        assertEquals(0, executor.commandLines.size());
+        git("fsck", "--strict");
+        assertEquals("", git("status", "--porcelain"));
+        assertEquals("2", git("rev-list", "--count", "HEAD").trim());
+        assertEquals("Release", git("log", "-1", "--format=%s").trim());
+        assertEquals("a/pom.xml\nb/c/pom.xml\n", git("diff", "--name-only", "HEAD~1", "HEAD"));
+        assertEquals("<project>2.0</project>\n", git("show", "HEAD:b/c/pom.xml"));
+        assertEquals("Untouched\n", git("show", "HEAD:b/README"));
+        assertEquals("tag", git("cat-file", "-t", "REL_1").trim());
+        assertEquals(git("rev-parse", "HEAD"), git("rev-parse", "REL_1^{commit}"));
+    }
+
+    @Test
+    public void testNothingChanged() throws Exception {
+        String head = git("rev-parse", "HEAD");
+        Module module = new TestableModule(pomA, "foo", "a", "1.0", "Release", null);
+
+        subject.commit(Arrays.asList(module));
+
+        assertEquals(head, git("rev-parse", "HEAD"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUntrackedFile() throws Exception {
+        File pom = new File(root, "d/pom.xml");
+        FileUtils.writeStringToFile(pom, "<project/>\n", "UTF-8");
+
+        subject.commit(Arrays.asList((Module) new TestableModule(pom, "foo", "d", "1.0", "Release", null)));
+    }
+
+    private String git(String... arguments) throws Exception {
+        String[] command = new String[arguments.length + 1];
+        command[0] = "git";
+        System.arraycopy(arguments, 0, command, 1, arguments.length);
+        Process process = new ProcessBuilder(command).directory(root).redirectErrorStream(true).start();
+        String output = IOUtils.toString(process.getInputStream(), "UTF-8");
+        assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+
+    private static boolean gitAvailable() {
+        try {
+            return new ProcessBuilder("git", "--version").start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package se.tla.mavenversionbumper.vcs;
+
+import static junit.framework.Assert.*;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import se.tla.mavenversionbumper.Module;
+import se.tla.mavenversionbumper.ModuleLoader;
+import se.tla.mavenversionbumper.PomCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test of reading pom.xml files from a git revision. Skipped if git isn't installed.
+ */
+public class GitRevisionPomSourceTest {
+
+    File root;
+    GitRevisionPomSource subject;
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(gitAvailable());
+
+        root = File.createTempFile("versionbumper", "repo").getCanonicalFile();
+        root.delete();
+        root.mkdirs();
+        FileUtils.writeStringToFile(new File(root, "pom.xml"), pom("parent", "1.0"), "UTF-8");
+        FileUtils.writeStringToFile(new File(root, "a/pom.xml"), pom("a", "1.0"), "UTF-8");
+        FileUtils.writeStringToFile(new File(root, "b/c/pom.xml"), pom("c", "1.0"), "UTF-8");
+        FileUtils.writeStringToFile(new File(root, "b/c/src/pom.xml"), pom("ignored", "1.0"), "UTF-8");
+
+        git("init", "-q");
+        git("config", "user.name", "Version Bumper");
+        git("config", "user.email", "bumper@example.com");
+        git("add", ".");
+        git("commit", "-q", "-m", "Release");
+        git("tag", "REL_1");
+
+        // The working copy moves on after the tag.
+        FileUtils.writeStringToFile(new File(root, "a/pom.xml"), pom("a", "2.0-SNAPSHOT"), "UTF-8");
+        FileUtils.deleteDirectory(new File(root, "b"));
+
+        subject = new GitRevisionPomSource(root, "REL_1", "git");
+    }
+
+    @After
+    public void after() throws IOException {
+        if (subject != null) {
+            subject.close();
+        }
+        if (root != null) {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testModuleFromRevision() throws Exception {
+        PomCache pomCache = new PomCache(subject);
+
+        Module a = new Module(root.getPath(), "a", pomCache);
+        Module c = new Module(root.getPath(), "b/c", pomCache);
+
+        assertEquals("1.0", a.version());
+        assertEquals("se.tla:c:1.0", c.gav());
+    }
+
+    @Test
+    public void testFindModulePaths() {
+        assertEquals(Arrays.asList("", "a", "b/c"), ModuleLoader.findModulePaths(root, subject));
+        assertEquals(Arrays.asList("c"), ModuleLoader.findModulePaths(new File(root, "b"), subject));
+        assertTrue(subject.isDirectory(new File(root, "b/c")));
+        assertFalse(subject.isDirectory(new File(root, "d")));
+    }
+
+    @Test
+    public void testLoadAll() throws Exception {
+        List<Module> modules = ModuleLoader.loadAll(root.getPath(), "**", new PomCache(subject));
+
+        assertEquals(3, modules.size());
+        for (Module module : modules) {
+            assertEquals("1.0", module.version());
+        }
+    }
+
+    @Test
+    public void testCommandsRecorded() throws Exception {
+        CommandTelemetry.clear();
+        GitRevisionPomSource source = new GitRevisionPomSource(root, "REL_1", "git");
+        source.open(new File(root, "pom.xml")).close();
+        source.close();
+
+        List<String> verbs = new ArrayList<String>();
+        for (CommandEvent event : CommandTelemetry.events()) {
+            verbs.add(event.verb());
+        }
+        assertEquals(Arrays.asList("git rev-parse", "git ls-tree", "git cat-file"), verbs);
+        assertTrue(CommandTelemetry.events().get(2).stdoutBytes() > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownRevision() throws Exception {
+        new GitRevisionPomSource(root, "NO_SUCH_TAG", "git");
+    }
+
+    private static String pom(String artifactId, String version) {
+        return "<project><modelVersion>4.0.0</modelVersion><groupId>se.tla</groupId><artifactId>" + artifactId
+                + "</artifactId><version>" + version + "</version></project>\n";
+    }
+
+    private String git(String... arguments) throws Exception {
+        String[] command = new String[arguments.length + 1];
+        command[0] = "git";
+        System.arraycopy(arguments, 0, command, 1, arguments.length);
+        Process process = new ProcessBuilder(command).directory(root).redirectErrorStream(true).start();
+        String output = IOUtils.toString(process.getInputStream(), "UTF-8");
+        assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+
+    private static boolean gitAvailable() {
+        try {
+            return new ProcessBuilder("git", "--version").start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
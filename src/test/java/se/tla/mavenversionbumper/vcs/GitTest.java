@@ -19,6 +19,7 @@ package se.tla.mavenversionbumper.vcs;
 import static junit.framework.Assert.*;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -27,6 +28,8 @@ import se.tla.mavenversionbumper.Module;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -64,51 +67,205 @@ public class GitTest {
     @Test
     public void testRestore() throws IOException {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getParentFile().getCanonicalPath() + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(" M " + pomFile.getName() + "\0R  new\0old\0");
 
-        defaultSubject.restore(Arrays.asList(module));
+        defaultSubject.restore(Arrays.asList(module, module));
 
-        assertEquals(1, defaultExecutor.commandLines.size());
-        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        assertEquals(3, defaultExecutor.commandLines.size());
+        assertEquals("rev-parse", defaultExecutor.commandLines.get(0).getArguments()[0]);
+
+        String[] arguments = defaultExecutor.commandLines.get(1).getArguments();
+        assertEquals(4, arguments.length);
+        assertEquals("status", arguments[0]);
+        assertEquals("--porcelain", arguments[1]);
+        assertEquals("-z", arguments[2]);
+        assertEquals("--untracked-files=no", arguments[3]);
+
+        CommandLine commandLine = defaultExecutor.commandLines.get(2);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
-        String[] arguments = commandLine.getArguments();
-        assertEquals(2, arguments.length);
+        arguments = commandLine.getArguments();
+        assertEquals(3, arguments.length);
         assertEquals("checkout", arguments[0]);
-        assertEquals(pomFile.getName(), arguments[1]);
+        assertTrue(arguments[1].startsWith("--pathspec-from-file="));
+        assertEquals("--pathspec-file-nul", arguments[2]);
+    }
+
+    @Test
+    public void testRestoreUnmodified() throws IOException {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getParentFile().getCanonicalPath() + "\n");
+        // Only changed in the index, which git checkout wouldn't restore.
+        defaultExecutor.resultStreamsAsStrings.add("M  " + pomFile.getName() + "\0");
+
+        defaultSubject.restore(Arrays.asList(module));
+
+        // Only rev-parse and status.
+        assertEquals(2, defaultExecutor.commandLines.size());
+    }
+
+    @Test
+    public void testPreflight() throws IOException {
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        Module otherModule = new TestableModule(otherPomFile, "foo", "baz", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getParentFile().getCanonicalPath() + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("M  " + pomFile.getName() + "\0?? " + otherPomFile.getName() + "\0");
+
+        try {
+            defaultSubject.preflight(Arrays.asList(module, otherModule));
+            fail("Modified and untracked files should be refused");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(pomFile.getPath() + ": has uncommitted changes (M)"));
+            assertTrue(e.getMessage().contains(otherPomFile.getPath() + ": not tracked by git"));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            otherPomFile.delete();
+        }
+
+        // One rev-parse and one status for the shared repository.
+        assertEquals(2, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(1).getArguments();
+        assertEquals("status", arguments[0]);
+        assertEquals("--untracked-files=all", arguments[3]);
+    }
+
+    @Test
+    public void testPreflightClean() throws IOException {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getParentFile().getCanonicalPath() + "\n");
+        defaultExecutor.resultStreamsAsStrings.add(" M some/other/file\0");
+
+        defaultSubject.preflight(Arrays.asList(module));
+
+        assertEquals(2, defaultExecutor.commandLines.size());
     }
 
     @Test
     public void testCommit() {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, null);
+        defaultExecutor.resultStreamAsString = pomFile.getParentFile().getAbsolutePath() + "\n";
 
         defaultSubject.commit(Arrays.asList(module));
 
-        assertEquals(1, defaultExecutor.commandLines.size());
+        assertEquals(2, defaultExecutor.commandLines.size());
         CommandLine commandLine = defaultExecutor.commandLines.get(0);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         String[] arguments = commandLine.getArguments();
-        assertEquals(4, arguments.length);
+        assertEquals(2, arguments.length);
+        assertEquals("rev-parse", arguments[0]);
+        assertEquals("--show-toplevel", arguments[1]);
+
+        commandLine = defaultExecutor.commandLines.get(1);
+        assertEquals(COMMANDPATH, commandLine.getExecutable());
+
+        arguments = commandLine.getArguments();
+        assertEquals(5, arguments.length);
         assertEquals("commit", arguments[0]);
         assertEquals("-m", arguments[1]);
         assertEquals("\"" + COMMIT_MSG + "\"", arguments[2]);
-        assertEquals(pomFile.getName(), arguments[3]);
+        assertTrue(arguments[3].startsWith("--pathspec-from-file="));
+        assertEquals("--pathspec-file-nul", arguments[4]);
+    }
+
+    @Test
+    public void testCommitGroupedPerMessage() throws IOException {
+        final List<String> pathspecs = new LinkedList<String>();
+        defaultExecutor = new FakeExecutor() {
+            @Override
+            public int execute(CommandLine command) throws IOException {
+                for (String argument : command.getArguments()) {
+                    if (argument.startsWith("--pathspec-from-file=")) {
+                        pathspecs.add(FileUtils.readFileToString(new File(argument.substring(21)), "UTF-8"));
+                    }
+                }
+                return super.execute(command);
+            }
+        };
+        defaultExecutor.resultStreamAsString = pomFile.getParentFile().getCanonicalPath() + "\n";
+        defaultSubject.setExecutor(defaultExecutor);
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, null);
+        Module module2 = new TestableModule(otherPomFile, "foo", "barf", "1", COMMIT_MSG, null);
+        Module module3 = new TestableModule(pomFile, "foo", "bars", "1", "OTHER MESSAGE", null);
+
+        defaultSubject.commit(Arrays.asList(module1, module2, module3));
+        //noinspection ResultOfMethodCallIgnored
+        otherPomFile.delete();
+
+        // One rev-parse, since all files are in the same repository, and one commit per message.
+        assertEquals(3, defaultExecutor.commandLines.size());
+        assertEquals("rev-parse", defaultExecutor.commandLines.get(0).getArguments()[0]);
+        assertEquals(2, pathspecs.size());
+        assertEquals(pomFile.getName() + "\0" + otherPomFile.getName() + "\0", pathspecs.get(0));
+        assertEquals(pomFile.getName() + "\0", pathspecs.get(1));
     }
 
     @Test
     public void testLabel() {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        defaultExecutor.resultStreamAsString = pomFile.getParentFile().getAbsolutePath() + "\n";
 
         defaultSubject.label(Arrays.asList(module));
 
-        assertEquals(1, defaultExecutor.commandLines.size());
-        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        assertEquals(4, defaultExecutor.commandLines.size());
+        assertEquals("HEAD", defaultExecutor.commandLines.get(1).getArguments()[1]);
+        assertEquals("for-each-ref", defaultExecutor.commandLines.get(2).getArguments()[0]);
+        CommandLine commandLine = defaultExecutor.commandLines.get(3);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         String[] arguments = commandLine.getArguments();
-        assertEquals(3, arguments.length);
-        assertEquals("tag", arguments[0]);
-        assertEquals("-f", arguments[1]);
-        assertEquals("\"" + LABEL + "\"", arguments[2]);
+        assertEquals(2, arguments.length);
+        assertEquals("update-ref", arguments[0]);
+        assertEquals("--stdin", arguments[1]);
+        assertEquals(Arrays.asList("update refs/tags/" + LABEL + " HEAD\n"), defaultExecutor.inputs);
+    }
+
+    @Test
+    public void testDuplicateLabels() {
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, "REL_1");
+        Module module2 = new TestableModule(pomFile, "foo", "barf", "1", null, "REL_2");
+        Module module3 = new TestableModule(pomFile, "foo", "bars", "1", null, "REL_1");
+        defaultExecutor.resultStreamAsString = pomFile.getParentFile().getAbsolutePath() + "\n";
+
+        defaultSubject.label(Arrays.asList(module1, module2, module3));
+
+        assertEquals(4, defaultExecutor.commandLines.size());
+        assertEquals(Arrays.asList("update refs/tags/REL_1 HEAD\nupdate refs/tags/REL_2 HEAD\n"), defaultExecutor.inputs);
+    }
+
+    @Test
+    public void testExistingLabels() {
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, "REL_1");
+        Module module2 = new TestableModule(pomFile, "foo", "barf", "1", null, "REL_2");
+        Module module3 = new TestableModule(pomFile, "foo", "bars", "1", null, "REL_3");
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getParentFile().getAbsolutePath() + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("1111\n");
+        defaultExecutor.resultStreamsAsStrings.add("refs/tags/REL_1\t1111\t\n" +
+                "refs/tags/REL_2\t2222\t1111\n" +
+                "refs/tags/REL_3\t3333\t\n");
+
+        defaultSubject.label(Arrays.asList(module1, module2, module3));
+
+        // REL_1 and REL_2 (annotated) already points at HEAD.
+        assertEquals(4, defaultExecutor.commandLines.size());
+        assertEquals(Arrays.asList("update refs/tags/REL_3 HEAD\n"), defaultExecutor.inputs);
+    }
+
+    @Test
+    public void testAllLabelsExisting() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, "REL_1");
+        defaultExecutor.resultStreamsAsStrings.add(pomFile.getParentFile().getAbsolutePath() + "\n");
+        defaultExecutor.resultStreamsAsStrings.add("1111\n");
+        defaultExecutor.resultStreamsAsStrings.add("refs/tags/REL_1\t1111\t\n");
+
+        defaultSubject.label(Arrays.asList(module));
+
+        assertEquals(3, defaultExecutor.commandLines.size());
+        assertTrue(defaultExecutor.inputs.isEmpty());
     }
 }
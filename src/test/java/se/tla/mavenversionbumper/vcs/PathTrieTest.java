@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012 Jim Svensson <jimpa@tla.se>
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package se.tla.mavenversionbumper.vcs;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Test of the PathTrie class.
+ */
+public class PathTrieTest {
+
+    @Test
+    public void testRoots() {
+        PathTrie subject = new PathTrie();
+        subject.add(new File("/r/a/b"));
+        subject.add(new File("/r/c"));
+        subject.add(new File("/r/a"));
+        subject.add(new File("/r/a/../c/d"));
+        subject.add(new File("/r/ab"));
+
+        assertEquals(Arrays.asList(new File("/r/a"), new File("/r/c"), new File("/r/ab")), subject.roots());
+    }
+
+    @Test
+    public void testCovering() {
+        PathTrie subject = new PathTrie();
+        subject.add(new File("/r/a/b"));
+        subject.add(new File("/r/a"));
+
+        assertEquals(new File("/r/a"), subject.covering(new File("/r/a/b/c")));
+        assertEquals(new File("/r/a"), subject.covering(new File("/r/a")));
+        assertNull(subject.covering(new File("/r")));
+        assertNull(subject.covering(new File("/r/ab")));
+    }
+}
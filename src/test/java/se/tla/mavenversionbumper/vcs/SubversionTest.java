@@ -19,6 +19,8 @@ package se.tla.mavenversionbumper.vcs;
 import static junit.framework.Assert.*;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -27,6 +29,8 @@ import se.tla.mavenversionbumper.Module;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -35,28 +39,17 @@ import java.util.Properties;
 public class SubversionTest {
 
     public static final String COMMANDPATH = "Subversion.exe";
+    public static final String SVNMUCCPATH = "Svnmucc.exe";
     Properties defaultCommandProperties;
     Subversion defaultSubject;
     FakeExecutor defaultExecutor;
+    List<String> fileArguments;
     File pomFile;
     static final String COMMIT_MSG = "COMMITED AS ....";
     static final String LABEL = "TAG, Tag, tag";
     private static final String TAGSBASE = "tags";
-    private static final String REPOSITORY_ROOT = "file://tmp/svntesting";
-    private static final String INFO_RESULT =
-            "Path: pom.xml\n" +
-            "Name: pom.xml\n" +
-            "URL: file:///tmp/svntest/trunk/pom.xml\n" +
-            "Repository Root: " + REPOSITORY_ROOT + "\n" +
-            "Repository UUID: 1c498fd7-26d7-4dc2-9520-2de6fb064586\n" +
-            "Revision: 20\n" +
-            "Node Kind: file\n" +
-            "Schedule: normal\n" +
-            "Last Changed Author: jimpa\n" +
-            "Last Changed Rev: 15\n" +
-            "Last Changed Date: 2012-05-15 11:49:23 +0200 (Tue, 15 May 2012)\n" +
-            "Text Last Updated: 2012-05-15 11:49:23 +0200 (Tue, 15 May 2012)\n" +
-            "Checksum: 3a504ade5daeffe91b5b56958c127779\n";
+    private static final String REPOSITORY_ROOT = "file:///tmp/svntest";
+    String INFO_RESULT;
 
     @Before
     public void before() throws IOException {
@@ -64,13 +57,56 @@ public class SubversionTest {
         defaultCommandProperties.setProperty(AbstractVersionControl.VERSIONCONTROL, Subversion.ACRONYM);
         defaultCommandProperties.setProperty(Subversion.COMMANDPATH, COMMANDPATH);
         defaultCommandProperties.setProperty(Subversion.TAGSBASE, TAGSBASE);
+        defaultCommandProperties.setProperty(Subversion.SVNMUCCPATH, SVNMUCCPATH);
 
-        defaultExecutor = new FakeExecutor();
         defaultSubject = new Subversion(defaultCommandProperties);
-        defaultSubject.setExecutor(defaultExecutor);
+        setExecutor(defaultSubject);
 
         pomFile = File.createTempFile("foo", "bar");
         pomFile.deleteOnExit();
+
+        File dir = pomFile.getParentFile().getCanonicalFile();
+        INFO_RESULT =
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<info>\n" +
+                "<entry kind=\"dir\" path=\"" + dir.getPath() + "\" revision=\"20\">\n" +
+                "<url>file:///tmp/svntest/trunk</url>\n" +
+                "<relative-url>^/trunk</relative-url>\n" +
+                "<repository>\n" +
+                "<root>" + REPOSITORY_ROOT + "</root>\n" +
+                "<uuid>1c498fd7-26d7-4dc2-9520-2de6fb064586</uuid>\n" +
+                "</repository>\n" +
+                "<wc-info>\n" +
+                "<wcroot-abspath>" + dir.getPath() + "</wcroot-abspath>\n" +
+                "<schedule>normal</schedule>\n" +
+                "<depth>infinity</depth>\n" +
+                "</wc-info>\n" +
+                "<commit revision=\"15\">\n" +
+                "<author>jimpa</author>\n" +
+                "<date>2012-05-15T09:49:23.000000Z</date>\n" +
+                "</commit>\n" +
+                "</entry>\n" +
+                "</info>\n";
+    }
+
+    /**
+     * Use an executor that also saves the content of the --targets and -X files, since they are removed afterwards.
+     */
+    private void setExecutor(Subversion subject) {
+        fileArguments = new LinkedList<String>();
+        defaultExecutor = new FakeExecutor() {
+            @Override
+            public int execute(CommandLine command) throws IOException {
+                String[] arguments = command.getArguments();
+                for (int i = 0; i < arguments.length - 1; i++) {
+                    if (arguments[i].equals("--targets") || arguments[i].equals("-X")) {
+                        fileArguments.add(FileUtils.readFileToString(new File(arguments[i + 1])));
+                    }
+                }
+                return super.execute(command);
+            }
+        };
+        subject.setExecutor(defaultExecutor);
     }
 
     @After
@@ -81,51 +117,172 @@ public class SubversionTest {
     @Test
     public void testRestore() throws IOException {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add("<?xml version=\"1.0\"?><status><target path=\"" + pomFile.getAbsolutePath()
+                + "\"><entry path=\"" + pomFile.getAbsolutePath() + "\"><wc-status item=\"modified\" props=\"none\"/>"
+                + "</entry></target></status>");
 
-        defaultSubject.restore(Arrays.asList(module));
+        defaultSubject.restore(Arrays.asList(module, module));
 
-        assertEquals(1, defaultExecutor.commandLines.size());
-        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        assertEquals(2, defaultExecutor.commandLines.size());
+        String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+        assertEquals(3, arguments.length);
+        assertEquals("status", arguments[0]);
+        assertEquals("--xml", arguments[1]);
+        assertEquals(pomFile.getCanonicalPath(), arguments[2]);
+
+        CommandLine commandLine = defaultExecutor.commandLines.get(1);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
-        String[] arguments = commandLine.getArguments();
-        assertEquals(2, arguments.length);
+        arguments = commandLine.getArguments();
+        assertEquals(3, arguments.length);
         assertEquals("revert", arguments[0]);
-        assertEquals(pomFile.getAbsolutePath(), arguments[1]);
+        assertEquals("--targets", arguments[1]);
+        assertEquals(Arrays.asList(lines(pomFile.getAbsolutePath())), fileArguments);
     }
 
     @Test
-    public void testCommit() {
+    public void testRestoreUnmodified() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+        defaultExecutor.resultStreamsAsStrings.add("<?xml version=\"1.0\"?><status><target path=\"" + pomFile.getAbsolutePath()
+                + "\"></target></status>");
+
+        defaultSubject.restore(Arrays.asList(module));
+
+        // Only the status.
+        assertEquals(1, defaultExecutor.commandLines.size());
+    }
+
+    @Test
+    public void testPreflight() throws IOException {
+        File workingCopy = new File(pomFile.getParentFile(), "preflight" + System.nanoTime());
+        File otherPomFile = new File(workingCopy, "pom.xml");
+        try {
+            assertTrue(new File(workingCopy, ".svn").mkdirs());
+            FileUtils.touch(otherPomFile);
+            Module module = new TestableModule(pomFile, "foo", "bar", "1", null, null);
+            Module otherModule = new TestableModule(otherPomFile, "foo", "baz", "1", null, null);
+            defaultExecutor.resultStreamsAsStrings.add("<?xml version=\"1.0\"?><status><target path=\""
+                    + otherPomFile.getAbsolutePath() + "\"><entry path=\"" + otherPomFile.getAbsolutePath()
+                    + "\"><wc-status item=\"normal\" props=\"modified\"/></entry></target></status>");
+
+            try {
+                defaultSubject.preflight(Arrays.asList(module, otherModule));
+                fail("Files outside of a working copy, and modified files, should be refused");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains(pomFile.getCanonicalPath() + ": not in a Subversion working copy"));
+                assertTrue(e.getMessage().contains(otherPomFile.getCanonicalPath() + ": has uncommitted changes (modified)"));
+            }
+
+            // Only the file in the working copy is asked for.
+            assertEquals(1, defaultExecutor.commandLines.size());
+            String[] arguments = defaultExecutor.commandLines.get(0).getArguments();
+            assertEquals(3, arguments.length);
+            assertEquals("status", arguments[0]);
+            assertEquals(otherPomFile.getCanonicalPath(), arguments[2]);
+        } finally {
+            FileUtils.deleteDirectory(workingCopy);
+        }
+    }
+
+    @Test
+    public void testCommit() throws IOException {
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add("Sending        pom.xml\nTransmitting file data .\nCommitted revision 21.\n");
         Module module = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, null);
 
         defaultSubject.commit(Arrays.asList(module));
 
-        assertEquals(1, defaultExecutor.commandLines.size());
-        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        assertEquals(2, defaultExecutor.commandLines.size());
+        assertEquals("info", defaultExecutor.commandLines.get(0).getArguments()[0]);
+        CommandLine commandLine = defaultExecutor.commandLines.get(1);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         String[] arguments = commandLine.getArguments();
-        assertEquals(4, arguments.length);
+        assertEquals(5, arguments.length);
         assertEquals("commit", arguments[0]);
         assertEquals("-m", arguments[1]);
         assertEquals("\"" + COMMIT_MSG + "\"", arguments[2]);
-        assertEquals(pomFile.getAbsolutePath(), arguments[3]);
+        assertEquals("--targets", arguments[3]);
+        assertEquals(Arrays.asList(lines(pomFile.getAbsolutePath())), fileArguments);
+        assertEquals("21", defaultSubject.committedRevision(module));
     }
 
     @Test
-    public void testLabel() {
+    public void testCommitGroupedPerMessage() throws IOException {
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add("Committed revision 21.\n");
+        defaultExecutor.resultStreamsAsStrings.add("Committed revision 22.\n");
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, null);
+        Module module2 = new TestableModule(otherPomFile, "foo", "barf", "1", COMMIT_MSG, null);
+        Module module3 = new TestableModule(pomFile, "foo", "bars", "1", "OTHER MESSAGE", null);
+
+        RecordingProgress progress = new RecordingProgress();
+        defaultSubject.commit(Arrays.asList(module1, module2, module3), progress);
+        //noinspection ResultOfMethodCallIgnored
+        otherPomFile.delete();
+
+        // One info, since all files are in the same working copy, and one commit per message.
+        assertEquals(3, defaultExecutor.commandLines.size());
+        assertEquals("commit", defaultExecutor.commandLines.get(1).getArguments()[0]);
+        assertEquals("commit", defaultExecutor.commandLines.get(2).getArguments()[0]);
+        assertEquals(lines(pomFile.getAbsolutePath(), otherPomFile.getAbsolutePath()), fileArguments.get(0));
+        assertEquals("21", defaultSubject.committedRevision(module2));
+
+        // Each commit is reported as soon as it is made.
+        assertEquals(Arrays.asList(Arrays.asList(module1, module2), Arrays.asList(module3)), progress.done);
+    }
+
+    @Test
+    public void testLabel() throws IOException {
         Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
 
         defaultExecutor.resultStreamAsString = INFO_RESULT;
 
         defaultSubject.label(Arrays.asList(module));
 
-        // Two commands executed
-        assertEquals(2, defaultExecutor.commandLines.size());
+        // Three commands executed
+        assertEquals(3, defaultExecutor.commandLines.size());
         // Command one: info to get the repository URL.
+        CommandLine commandLine = defaultExecutor.commandLines.get(0);
+        assertEquals(3, commandLine.getArguments().length);
+        assertEquals("info", commandLine.getArguments()[0]);
+        assertEquals("--xml", commandLine.getArguments()[1]);
+        assertEquals(pomFile.getParentFile().getCanonicalPath(), commandLine.getArguments()[2]);
 
-        // Command two: make the actual label.
-        CommandLine commandLine = defaultExecutor.commandLines.get(1);
+        // Command two: list the existing tags.
+        commandLine = defaultExecutor.commandLines.get(1);
+        assertEquals("ls", commandLine.getArguments()[0]);
+        assertEquals(REPOSITORY_ROOT + "/" + TAGSBASE, commandLine.getArguments()[1]);
+
+        // Command three: make all the labels in one commit.
+        commandLine = defaultExecutor.commandLines.get(2);
+        assertEquals(SVNMUCCPATH, commandLine.getExecutable());
+
+        String[] arguments = commandLine.getArguments();
+        assertEquals(4, arguments.length);
+        assertEquals("-m", arguments[0]);
+        assertEquals("", arguments[1]);
+        assertEquals("-X", arguments[2]);
+        assertEquals(Arrays.asList(lines("cp", "20", "file:///tmp/svntest/trunk", REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL)),
+                fileArguments);
+    }
+
+    @Test
+    public void testLabelWithSvnCopy() throws IOException {
+        defaultCommandProperties.setProperty(Subversion.SVNMUCC, "false");
+        defaultSubject = new Subversion(defaultCommandProperties);
+        setExecutor(defaultSubject);
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+
+        defaultExecutor.resultStreamAsString = INFO_RESULT;
+
+        defaultSubject.label(Arrays.asList(module));
+
+        // info, ls and the actual label.
+        assertEquals(3, defaultExecutor.commandLines.size());
+        CommandLine commandLine = defaultExecutor.commandLines.get(2);
         assertEquals(COMMANDPATH, commandLine.getExecutable());
 
         String[] arguments = commandLine.getArguments();
@@ -133,7 +290,231 @@ public class SubversionTest {
         assertEquals("copy", arguments[0]);
         assertEquals("-m", arguments[1]);
         assertEquals("", arguments[2]);
-        assertEquals(pomFile.getParentFile().getAbsolutePath(), arguments[3]);
+        assertEquals("file:///tmp/svntest/trunk@20", arguments[3]);
         assertEquals("\"" + REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL + "\"", arguments[4]);
     }
+
+    @Test
+    public void testLabelCommittedRevision() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add("Committed revision 21.\n");
+        defaultExecutor.resultStreamsAsStrings.add("");
+
+        defaultSubject.commit(Arrays.asList(module));
+        defaultSubject.label(Arrays.asList(module));
+
+        // info, commit, ls and svnmucc. The info is only needed once.
+        assertEquals(4, defaultExecutor.commandLines.size());
+        assertEquals(lines("cp", "21", "file:///tmp/svntest/trunk", REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL),
+                fileArguments.get(1));
+    }
+
+    @Test
+    public void testLabelCommittedEarlier() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", COMMIT_MSG, LABEL);
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add("");
+
+        defaultSubject.committedEarlier(module, "21");
+        defaultSubject.label(Arrays.asList(module));
+
+        // info, ls and svnmucc. Pinned to the revision of the earlier commit, not to the one of the working copy.
+        assertEquals(3, defaultExecutor.commandLines.size());
+        assertEquals(lines("cp", "21", "file:///tmp/svntest/trunk", REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL),
+                fileArguments.get(0));
+    }
+
+    @Test
+    public void testLabelInSubdirectory() throws IOException {
+        File subDir = new File(pomFile.getParentFile(), "versionbumper sub" + System.nanoTime());
+        subDir.mkdirs();
+        File subPomFile = new File(subDir, "pom.xml");
+        subPomFile.createNewFile();
+        try {
+            Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+            Module subModule = new TestableModule(subPomFile, "foo", "sub", "1", null, LABEL + "2");
+            defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+
+            defaultSubject.label(Arrays.asList(module));
+            defaultSubject.label(Arrays.asList(subModule));
+
+            // info, ls and svnmucc, then ls and svnmucc. The second info is answered from the working copy in the cache.
+            assertEquals(5, defaultExecutor.commandLines.size());
+            assertEquals(lines("cp", "20", "file:///tmp/svntest/trunk/" + Subversion.uriEncode(subDir.getName()),
+                    REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL + "2"), fileArguments.get(1));
+            assertTrue(Subversion.uriEncode(subDir.getName()).contains("%20"));
+        } finally {
+            subPomFile.delete();
+            subDir.delete();
+        }
+    }
+
+    @Test
+    public void testSameTagOnlyOnce() throws IOException {
+        defaultCommandProperties.setProperty(Subversion.ALTREPOBASE, "trunk");
+        defaultSubject = new Subversion(defaultCommandProperties);
+        setExecutor(defaultSubject);
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        Module module2 = new TestableModule(otherPomFile, "foo", "baz", "1", null, LABEL);
+        defaultExecutor.resultStreamAsString = INFO_RESULT;
+
+        defaultSubject.label(Arrays.asList(module1, module2));
+        otherPomFile.delete();
+
+        assertEquals(Arrays.asList(lines("cp", "HEAD", REPOSITORY_ROOT + "/trunk", REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL)),
+                fileArguments);
+    }
+
+    @Test
+    public void testSameTagFromDifferentSources() throws IOException {
+        File subDir = new File(pomFile.getParentFile(), "versionbumper" + System.nanoTime());
+        subDir.mkdirs();
+        File subPomFile = new File(subDir, "pom.xml");
+        subPomFile.createNewFile();
+        try {
+            Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+            Module subModule = new TestableModule(subPomFile, "foo", "sub", "1", null, LABEL);
+            defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+            defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT.replace(pomFile.getParentFile().getCanonicalPath(),
+                    subDir.getCanonicalPath()).replace("/trunk<", "/trunk/sub<"));
+
+            defaultSubject.label(Arrays.asList(module));
+            defaultSubject.label(Arrays.asList(module, subModule));
+            fail("Expected the conflicting tags to be detected");
+        } catch (IllegalStateException e) {
+            // Nothing but info and ls in the second run.
+            assertEquals("ls", defaultExecutor.commandLines.get(defaultExecutor.commandLines.size() - 1).getArguments()[0]);
+        } finally {
+            subPomFile.delete();
+            subDir.delete();
+        }
+    }
+
+    @Test
+    public void testExistingLabel() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add("OTHER_TAG/\n" + LABEL + "/\n");
+        defaultExecutor.resultStreamsAsStrings.add(tagLog("/trunk", "20"));
+
+        defaultSubject.label(Arrays.asList(module));
+
+        // Only info, ls and log, no copy.
+        assertEquals(3, defaultExecutor.commandLines.size());
+        assertEquals(Arrays.asList("log", "--xml", "-v", "--stop-on-copy", "--limit", "1", "-r", "1:HEAD",
+                "\"" + REPOSITORY_ROOT + "/" + TAGSBASE + "/" + LABEL + "\""),
+                Arrays.asList(defaultExecutor.commandLines.get(2).getArguments()));
+    }
+
+    @Test
+    public void testExistingLabelFromOtherRevision() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "/\n");
+        defaultExecutor.resultStreamsAsStrings.add(tagLog("/trunk", "19"));
+
+        try {
+            defaultSubject.label(Arrays.asList(module));
+            fail("Expected the existing tag to be reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(REPOSITORY_ROOT + "/trunk@19"));
+        }
+        // No copy.
+        assertEquals(3, defaultExecutor.commandLines.size());
+    }
+
+    @Test
+    public void testExistingLabelFromOtherSource() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "/\n");
+        defaultExecutor.resultStreamsAsStrings.add(tagLog("/branches/other", "20"));
+
+        try {
+            defaultSubject.label(Arrays.asList(module));
+            fail("Expected the existing tag to be reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(REPOSITORY_ROOT + "/branches/other@20"));
+        }
+        assertEquals(3, defaultExecutor.commandLines.size());
+    }
+
+    @Test
+    public void testExistingLabelNotACopy() {
+        Module module = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+
+        defaultExecutor.resultStreamsAsStrings.add(INFO_RESULT);
+        defaultExecutor.resultStreamsAsStrings.add(LABEL + "/\n");
+        defaultExecutor.resultStreamsAsStrings.add("<?xml version=\"1.0\"?><log><logentry revision=\"30\"><paths>"
+                + "<path action=\"A\" kind=\"dir\">/" + TAGSBASE + "/" + LABEL + "</path></paths></logentry></log>");
+
+        try {
+            defaultSubject.label(Arrays.asList(module));
+            fail("Expected the existing tag to be reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("isn't a copy"));
+        }
+    }
+
+    @Test
+    public void testUriDecode() {
+        assertEquals("/trunk/a b/\u00e5", Subversion.uriDecode(Subversion.uriEncode("/trunk/a b/\u00e5")));
+        assertEquals("100%", Subversion.uriDecode("100%"));
+    }
+
+    /**
+     * @return The svn log --xml -v of a tag created as a copy of this path and revision.
+     */
+    private static String tagLog(String copyFromPath, String copyFromRevision) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<log>\n"
+                + "<logentry revision=\"30\">\n"
+                + "<author>jimpa</author>\n"
+                + "<date>2012-05-16T09:49:23.000000Z</date>\n"
+                + "<paths>\n"
+                + "<path action=\"A\" kind=\"dir\" copyfrom-path=\"" + copyFromPath + "\" copyfrom-rev=\""
+                + copyFromRevision + "\">/" + TAGSBASE + "/" + LABEL + "</path>\n"
+                + "</paths>\n"
+                + "<msg></msg>\n"
+                + "</logentry>\n"
+                + "</log>\n";
+    }
+
+    @Test
+    public void testInfoOncePerWorkingCopy() throws IOException {
+        File otherPomFile = File.createTempFile("foo", "bar");
+        otherPomFile.deleteOnExit();
+        Module module1 = new TestableModule(pomFile, "foo", "bar", "1", null, LABEL);
+        Module module2 = new TestableModule(otherPomFile, "foo", "baz", "1", null, LABEL + "2");
+
+        defaultExecutor.resultStreamAsString = INFO_RESULT;
+
+        defaultSubject.label(Arrays.asList(module1, module2));
+        defaultSubject.label(Arrays.asList(module1));
+
+        // One info for both modules, and none for the second run, which is answered from the cache.
+        assertEquals(5, defaultExecutor.commandLines.size());
+        CommandLine info = defaultExecutor.commandLines.get(0);
+        assertEquals("info", info.getArguments()[0]);
+        assertEquals(3, info.getArguments().length);
+        assertEquals("ls", defaultExecutor.commandLines.get(1).getArguments()[0]);
+        assertEquals(SVNMUCCPATH, defaultExecutor.commandLines.get(2).getExecutable());
+        assertEquals("ls", defaultExecutor.commandLines.get(3).getArguments()[0]);
+        assertEquals(SVNMUCCPATH, defaultExecutor.commandLines.get(4).getExecutable());
+        otherPomFile.delete();
+    }
+
+    private static String lines(String... lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append(IOUtils.LINE_SEPARATOR);
+        }
+        return sb.toString();
+    }
 }
@@ -27,6 +27,7 @@ public class TestableModule extends ReadonlyModule {
     File pomFile;
     String commitMessage;
     String label;
+    boolean labelOnlyPomXml;
 
     public TestableModule(File pomFile, String group, String artifact, String version, String commitMessage, String label) {
         super(group, artifact, version);
@@ -52,6 +53,6 @@ public class TestableModule extends ReadonlyModule {
 
     @Override
     public boolean labelOnlyPomXml() {
-        return false;
+        return labelOnlyPomXml;
     }
 }